@@ -16,6 +16,7 @@
 package com.google.android.testing.mocking;
 
 import javassist.CannotCompileException;
+import javassist.ClassPool;
 import javassist.CtClass;
 import javassist.NotFoundException;
 
@@ -24,9 +25,16 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -42,7 +50,30 @@ import java.util.jar.JarFile;
  * @author swoodward@google.com (Stephen Woodward)
  */
 public class AndroidFrameworkMockGenerator {
-  
+  static final String MOCK_BUNDLE_SUFFIX = ".bundle";
+
+  private final AndroidMockGenerator mockGenerator = new AndroidMockGenerator();
+  private MockBundle mockBundle;
+  private int bundleApiLevel;
+  private PrebuiltMockIndex prebuiltMockIndex;
+  private ProcessorTimings timings = new ProcessorTimings();
+
+  /**
+   * Makes {@link #getMocksForClass} read the prebuilt mocks for {@code apiLevel} from
+   * {@code mockBundle}, instead of loading them from the class path.
+   */
+  void setMockBundle(MockBundle mockBundle, int apiLevel) {
+    this.mockBundle = mockBundle;
+    bundleApiLevel = apiLevel;
+  }
+
+  /**
+   * Records the time taken to copy each class's prebuilt mocks in {@code timings}.
+   */
+  void setTimings(ProcessorTimings timings) {
+    this.timings = timings;
+  }
+
   /**
    * Returns a set of mock support classes for the specified Class for all versions of
    * the Android SDK. If the requested class is not part of the Android framework, then the class
@@ -54,11 +85,34 @@ public class AndroidFrameworkMockGenerator {
    */
   public List<GeneratedClassFile> getMocksForClass(Class<?> clazz) throws ClassNotFoundException,
       IOException {
-    List<Class<?>> prebuiltClasses = getPrebuiltClassesFor(clazz);
+    return getMocksForClass(clazz.getName());
+  }
+
+  /**
+   * Returns the same mock support classes as {@link #getMocksForClass(Class)}, for the class with
+   * the binary name {@code className}. The class itself is never loaded.
+   */
+  List<GeneratedClassFile> getMocksForClass(String className) throws ClassNotFoundException,
+      IOException {
+    long start = timings.start();
+    List<GeneratedClassFile> mocks = getPrebuiltMocksFor(className);
+    timings.record(ProcessorTimings.PREBUILT_COPY, className, start,
+        ProcessorTimings.getSize(mocks));
+    return mocks;
+  }
+
+  private List<GeneratedClassFile> getPrebuiltMocksFor(String className)
+      throws ClassNotFoundException, IOException {
+    if (mockBundle != null
+        || getPrebuiltMockIndex().contains(FileUtils.getSubclassNameFor(className))) {
+      return getStoredMocksFor(className);
+    }
+    // Mocks from jars without a class index, or from folders, are loaded to find their bytes.
+    List<Class<?>> prebuiltClasses = getPrebuiltClassesFor(className);
     List<GeneratedClassFile> classList = new ArrayList<GeneratedClassFile>();
     for (Class<?> prebuiltClass : prebuiltClasses) {
       try {
-        CtClass ctClass = AndroidMockGenerator.getClassPool().get(prebuiltClass.getName());
+        CtClass ctClass = ClassPool.getDefault().get(prebuiltClass.getName());
         classList.add(new GeneratedClassFile(ctClass.getName(), ctClass.toBytecode()));
       } catch (NotFoundException e) {
         throw new ClassNotFoundException("Missing class while fetching prebuilt mocks: "
@@ -71,10 +125,47 @@ public class AndroidFrameworkMockGenerator {
     return classList;
   }
 
-  private List<Class<?>> getPrebuiltClassesFor(Class<?> clazz) throws ClassNotFoundException {
+  /**
+   * Copies the stored bytes of the prebuilt mocks for the class named {@code className} out of the
+   * mock bundle, if one is set, and otherwise out of the indexed framework mock jars, without
+   * loading or parsing them.
+   */
+  private List<GeneratedClassFile> getStoredMocksFor(String className)
+      throws ClassNotFoundException, IOException {
+    List<GeneratedClassFile> classList = new ArrayList<GeneratedClassFile>();
+    String[] classNames = new String[] {FileUtils.getSubclassNameFor(className),
+        FileUtils.getInterfaceNameFor(className), FileUtils.getFactoryNameFor(className)};
+    for (int i = 0; i < classNames.length; ++i) {
+      GeneratedClassFile prebuiltClass = mockBundle != null
+          ? mockBundle.getClass(bundleApiLevel, classNames[i])
+          : getPrebuiltMockIndex().getClass(classNames[i]);
+      if (prebuiltClass != null) {
+        classList.add(prebuiltClass);
+      } else if (i < 2) {
+        // As on the class path, only the factory may be missing.
+        throw new ClassNotFoundException("Missing class while fetching prebuilt mocks: "
+            + classNames[i]);
+      }
+    }
+    return classList;
+  }
+
+  private PrebuiltMockIndex getPrebuiltMockIndex() throws IOException {
+    if (prebuiltMockIndex == null) {
+      prebuiltMockIndex = new PrebuiltMockIndex(getClass().getClassLoader());
+    }
+    return prebuiltMockIndex;
+  }
+
+  private List<Class<?>> getPrebuiltClassesFor(String className) throws ClassNotFoundException {
     List<Class<?>> classes = new ArrayList<Class<?>>();
-    classes.add(Class.forName(FileUtils.getSubclassNameFor(clazz)));
-    classes.add(Class.forName(FileUtils.getInterfaceNameFor(clazz)));
+    classes.add(Class.forName(FileUtils.getSubclassNameFor(className)));
+    classes.add(Class.forName(FileUtils.getInterfaceNameFor(className)));
+    try {
+      classes.add(Class.forName(FileUtils.getFactoryNameFor(className)));
+    } catch (ClassNotFoundException e) {
+      // Mocks generated before factories existed have none; AndroidMock falls back to reflection.
+    }
     return classes;
   }
 
@@ -84,7 +175,6 @@ public class AndroidFrameworkMockGenerator {
    */
   public List<GeneratedClassFile> createMocksForClass(Class<?> clazz)
       throws ClassNotFoundException, IOException, CannotCompileException {
-    AndroidMockGenerator mockGenerator = new AndroidMockGenerator();
     List<GeneratedClassFile> mocks = new ArrayList<GeneratedClassFile>();
     mocks.addAll(mockGenerator.createMocksForClass(clazz));
     return mocks;
@@ -99,12 +189,27 @@ public class AndroidFrameworkMockGenerator {
 
   List<Class<?>> getClassList(Collection<JarEntry> jarEntries) throws ClassNotFoundException {
     List<Class<?>> classList = new ArrayList<Class<?>>();
+    for (String className : getClassNames(jarEntries)) {
+      classList.add(Class.forName(className, false, getClass().getClassLoader()));
+    }
+    return classList;
+  }
+
+  /**
+   * @return the names of all classes inside the provided jar file. Nothing is loaded.
+   */
+  List<String> getClassNames(JarFile jar) {
+    return getClassNames(Collections.list(jar.entries()));
+  }
+
+  List<String> getClassNames(Collection<JarEntry> jarEntries) {
+    List<String> classNames = new ArrayList<String>();
     for (JarEntry jarEntry : jarEntries) {
       if (jarEntryIsClassFile(jarEntry)) {
-        classList.add(Class.forName(FileUtils.getClassNameFor(jarEntry.getName())));
+        classNames.add(FileUtils.getClassNameFor(jarEntry.getName()));
       }
     }
-    return classList;
+    return classNames;
   }
 
   /**
@@ -129,15 +234,259 @@ public class AndroidFrameworkMockGenerator {
         .append("android.jar").toString();
   }
 
-  private static Set<GeneratedClassFile> generateMocks(JarFile jar)
+  /**
+   * Generates the mocks for every class named in {@code classNames} using {@code threads} worker
+   * threads. Each worker has its own {@link GenerationSession}, which keeps at most
+   * {@code maxRetainedClasses} classes in its ClassPool, and takes the next class from the list
+   * whenever it finishes one. The mocks are generated from the class files alone; the classes
+   * are never loaded.
+   *
+   * @return the generated classes, in the order of the classes in {@code classNames} and, for
+   *         each class, in the order returned by {@link AndroidMockGenerator#createMocksForClass},
+   *         so the result does not depend on the number of threads or on scheduling.
+   */
+  static Set<GeneratedClassFile> generateMocks(List<String> classNames, int threads,
+      int maxRetainedClasses) throws ClassNotFoundException, IOException, CannotCompileException {
+    final Set<GeneratedClassFile> classes = new LinkedHashSet<GeneratedClassFile>();
+    generateMocks(classNames, threads, maxRetainedClasses, new GeneratedClassSink() {
+      public void write(GeneratedClassFile clazz) {
+        classes.add(clazz);
+      }
+    });
+    return classes;
+  }
+
+  /**
+   * Generates the mocks for every class named in {@code classNames} as
+   * {@link #generateMocks(List, int, int)} does, but writes them to {@code sink} as soon as the
+   * mocks for all of the preceding classes have been written, instead of collecting them. The
+   * classes are written from the calling thread, in the same order.
+   */
+  static void generateMocks(List<String> classNames, int threads, int maxRetainedClasses,
+      GeneratedClassSink sink) throws ClassNotFoundException, IOException, CannotCompileException {
+    generateMocks(classNames, threads, maxRetainedClasses, null, null, sink);
+  }
+
+  /**
+   * Generates the mocks for every class named in {@code classNames} as
+   * {@link #generateMocks(List, int, int, GeneratedClassSink)} does, but reads the classes from
+   * {@code jarFileName} as well as from the classes of this JVM, and reuses the mocks for
+   * classes whose surface is in {@code surfaceCache}.
+   *
+   * @param jarFileName the jar holding the classes to be mocked, or null if they are all available
+   *        from this JVM's class path.
+   * @param surfaceCache the mocks generated for earlier API levels, or null to generate the mocks
+   *        for every class.
+   */
+  static void generateMocks(final List<String> classNames, int threads,
+      final int maxRetainedClasses, final String jarFileName, final SurfaceCache surfaceCache,
+      GeneratedClassSink sink) throws ClassNotFoundException, IOException, CannotCompileException {
+    final List<GeneratedClassFile>[] results = newResultsArray(classNames.size());
+    final AtomicInteger nextClass = new AtomicInteger();
+    final AtomicBoolean failed = new AtomicBoolean();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Void>> workers = new ArrayList<Future<Void>>();
+      for (int i = 0; i < threads; ++i) {
+        workers.add(executor.submit(new Callable<Void>() {
+          public Void call() throws Exception {
+            GenerationSession session = null;
+            int index;
+            try {
+              session = jarFileName == null ? new GenerationSession(maxRetainedClasses)
+                  : new GenerationSession(maxRetainedClasses, jarFileName);
+              while (!failed.get() && (index = nextClass.getAndIncrement()) < results.length) {
+                String className = classNames.get(index);
+                List<GeneratedClassFile> result = surfaceCache == null
+                    ? session.createMocksForClass(className)
+                    : surfaceCache.getMocks(session, className);
+                synchronized (results) {
+                  results[index] = result;
+                  results.notifyAll();
+                }
+              }
+            } catch (Throwable t) {
+              synchronized (results) {
+                failed.set(true);
+                results.notifyAll();
+              }
+              rethrow(t);
+            } finally {
+              if (session != null) {
+                session.close();
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      for (int i = 0; i < results.length && waitForResult(results, i, failed); ++i) {
+        for (GeneratedClassFile clazz : results[i]) {
+          sink.write(clazz);
+        }
+        // The mocks have been written; let them be collected.
+        results[i] = null;
+      }
+      for (Future<Void> worker : workers) {
+        waitFor(worker);
+      }
+    } finally {
+      failed.set(true);
+      executor.shutdownNow();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<GeneratedClassFile>[] newResultsArray(int size) {
+    return (List<GeneratedClassFile>[]) new List<?>[size];
+  }
+
+  /**
+   * Waits until the mocks for the class at {@code index} have been stored in {@code results}.
+   *
+   * @return false if a worker has failed instead, in which case the mocks may never be stored.
+   */
+  private static boolean waitForResult(List<GeneratedClassFile>[] results, int index,
+      AtomicBoolean failed) {
+    synchronized (results) {
+      while (results[index] == null) {
+        if (failed.get()) {
+          return false;
+        }
+        try {
+          results.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException("Interrupted while generating framework mocks", e);
+        }
+      }
+      return true;
+    }
+  }
+
+  private static void rethrow(Throwable t) throws Exception {
+    if (t instanceof Exception) {
+      throw (Exception) t;
+    }
+    throw (Error) t;
+  }
+
+  private static void waitFor(Future<Void> worker)
       throws ClassNotFoundException, IOException, CannotCompileException {
-    AndroidFrameworkMockGenerator mockGenerator = new AndroidFrameworkMockGenerator();
-    List<Class<?>> classList = mockGenerator.getClassList(jar);
-    Set<GeneratedClassFile> classes = new HashSet<GeneratedClassFile>();
-    for (Class<?> clazz : classList) {
-      classes.addAll(mockGenerator.createMocksForClass(clazz));
+    try {
+      worker.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while generating framework mocks", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof ClassNotFoundException) {
+        throw (ClassNotFoundException) cause;
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof CannotCompileException) {
+        throw (CannotCompileException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException("Internal error generating framework mocks", cause);
+    }
+  }
+
+  /**
+   * Generates the framework mock jar for each of {@code apiLevels} in this JVM, as
+   * {@code android_<level>_framework_mocks.jar} files in {@code outputFolder}. Each level's
+   * classes are read from that level's android.jar, which does not need to be on the class path.
+   * A class whose surface is the same as in the previous level is not mocked again: its mocks from
+   * that level are reused. The number of reused and regenerated classes is reported per level.
+   */
+  static void generateMocksForLevels(int[] apiLevels, String sdkFolder, File outputFolder,
+      int threads, int maxRetainedClasses)
+      throws ClassNotFoundException, IOException, CannotCompileException {
+    generateMocksForLevels(apiLevels, sdkFolder, outputFolder, null, threads, maxRetainedClasses);
+  }
+
+  /**
+   * Generates the framework mocks for each of {@code apiLevels} in this JVM, as
+   * {@link #generateMocksForLevels(int[], String, File, int, int)} does, but writes them all into
+   * the single {@link MockBundle} {@code bundleFile}, which is deleted again if generation fails.
+   */
+  static void generateMockBundle(int[] apiLevels, String sdkFolder, File bundleFile,
+      int threads, int maxRetainedClasses)
+      throws ClassNotFoundException, IOException, CannotCompileException {
+    MockBundleWriter bundleWriter = new MockBundleWriter(bundleFile);
+    boolean written = false;
+    try {
+      generateMocksForLevels(apiLevels, sdkFolder, null, bundleWriter, threads,
+          maxRetainedClasses);
+      written = true;
+    } finally {
+      bundleWriter.close();
+      if (!written) {
+        bundleFile.delete();
+      }
+    }
+    System.out.println(bundleWriter.getPooledCount() + " distinct classes in " + bundleFile);
+  }
+
+  /**
+   * Writes the mocks for each level into {@code bundleWriter} if it is not null, and otherwise
+   * into a jar per level in {@code outputFolder}.
+   */
+  private static void generateMocksForLevels(int[] apiLevels, String sdkFolder,
+      File outputFolder, MockBundleWriter bundleWriter, int threads, int maxRetainedClasses)
+      throws ClassNotFoundException, IOException, CannotCompileException {
+    SurfaceCache surfaceCache = new SurfaceCache();
+    for (int apiLevel : apiLevels) {
+      JarFile jar = getJarFile(apiLevel, sdkFolder);
+      List<String> classNames;
+      try {
+        classNames = new AndroidFrameworkMockGenerator().getClassNames(jar);
+      } finally {
+        jar.close();
+      }
+      surfaceCache.startLevel();
+      String classPath = getJarFileNameForVersion(apiLevel, sdkFolder);
+      if (bundleWriter != null) {
+        bundleWriter.startLevel(apiLevel);
+        generateMocks(classNames, threads, maxRetainedClasses, classPath, surfaceCache,
+            bundleWriter);
+      } else {
+        writeMockJar(new File(outputFolder, getMockJarNameForVersion(apiLevel)), classNames,
+            threads, maxRetainedClasses, classPath, surfaceCache);
+      }
+      System.out.println("API level " + apiLevel + ": " + surfaceCache.getReusedCount()
+          + " classes reused, " + surfaceCache.getRegeneratedCount() + " regenerated");
+    }
+  }
+
+  /**
+   * @return the name of the framework mock jar for the specified API level.
+   */
+  static String getMockJarNameForVersion(int apiLevel) {
+    return "android_" + apiLevel + "_framework_mocks.jar";
+  }
+
+  /**
+   * Writes the mocks for the classes named in {@code classNames} into {@code jarFile}, which is
+   * deleted again if generation fails.
+   */
+  private static void writeMockJar(File jarFile, List<String> classNames, int threads,
+      int maxRetainedClasses, String classPath, SurfaceCache surfaceCache)
+      throws ClassNotFoundException, IOException, CannotCompileException {
+    MockJarWriter jarWriter = new MockJarWriter(jarFile);
+    boolean written = false;
+    try {
+      generateMocks(classNames, threads, maxRetainedClasses, classPath, surfaceCache, jarWriter);
+      written = true;
+    } finally {
+      jarWriter.close();
+      if (!written) {
+        jarFile.delete();
+      }
     }
-    return classes;
   }
 
   private static JarFile getJarFile(int apiLevel, String sdkFolder) throws IOException {
@@ -146,18 +495,58 @@ public class AndroidFrameworkMockGenerator {
     return new JarFile(jarFile);
   }
 
+  /**
+   * Usage: {@code AndroidFrameworkMockGenerator <output> <api levels> <sdk folder> [<threads>
+   * [<max retained classes>]]}.
+   *
+   * {@code api levels} is a comma-separated list. The classes of each level are read from that
+   * level's android.jar in the SDK, which need not be on the class path. What is written depends
+   * on {@code output}: if it ends with {@code .bundle}, the mocks for all of the levels are
+   * written into that {@link MockBundle}; if it ends with {@code .jar}, the mocks for the single
+   * level given are written into that jar; otherwise it is the folder in which the mock jar for
+   * each level is written.
+   */
   public static void main(String[] args) {
     try {
-      String outputFolderName = args[0];
-      int apiLevel = Integer.parseInt(args[1]);
+      String outputName = args[0];
+      String[] apiLevelNames = args[1].split(",");
+      int[] apiLevels = new int[apiLevelNames.length];
+      for (int i = 0; i < apiLevels.length; ++i) {
+        apiLevels[i] = Integer.parseInt(apiLevelNames[i].trim());
+      }
       String sdkFolder = args[2];
-      System.out.println("Generating files for api level " + apiLevel);
-
-      JarFile jar = getJarFile(apiLevel, sdkFolder);
-
-      Set<GeneratedClassFile> classes = generateMocks(jar);
-      for (GeneratedClassFile clazz : classes) {
-        FileUtils.saveClassToFolder(clazz, outputFolderName);
+      int threads = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+      if (threads <= 0) {
+        threads = Runtime.getRuntime().availableProcessors();
+      }
+      int maxRetainedClasses = args.length > 4 ? Integer.parseInt(args[4])
+          : GenerationSession.DEFAULT_MAX_RETAINED_CLASSES;
+      if (outputName.endsWith(MOCK_BUNDLE_SUFFIX)) {
+        System.out.println("Generating a mock bundle for api levels " + args[1] + " using "
+            + threads + " threads");
+        generateMockBundle(apiLevels, sdkFolder, new File(outputName), threads,
+            maxRetainedClasses);
+      } else if (outputName.endsWith(".jar")) {
+        if (apiLevels.length != 1) {
+          throw new IllegalArgumentException("A mock jar holds a single api level: " + args[1]);
+        }
+        int apiLevel = apiLevels[0];
+        System.out.println("Generating files for api level " + apiLevel + " using " + threads
+            + " threads");
+        JarFile jar = getJarFile(apiLevel, sdkFolder);
+        List<String> classNames;
+        try {
+          classNames = new AndroidFrameworkMockGenerator().getClassNames(jar);
+        } finally {
+          jar.close();
+        }
+        writeMockJar(new File(outputName), classNames, threads, maxRetainedClasses,
+            getJarFileNameForVersion(apiLevel, sdkFolder), null);
+      } else {
+        System.out.println("Generating files for api levels " + args[1] + " using " + threads
+            + " threads");
+        generateMocksForLevels(apiLevels, sdkFolder, new File(outputName), threads,
+            maxRetainedClasses);
       }
     } catch (Exception e) {
       throw new RuntimeException("Internal error generating framework mocks", e);
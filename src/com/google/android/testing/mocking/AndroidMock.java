@@ -20,14 +20,11 @@ import org.easymock.EasyMock;
 import org.easymock.IArgumentMatcher;
 import org.easymock.IExpectationSetters;
 import org.easymock.IMockBuilder;
+import org.easymock.IMocksControl;
 import org.easymock.LogicalOperator;
 
 import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.List;
 
 /**
  * Android Mock is a wrapper for EasyMock (2.4) which allows for real Class mocking on
@@ -126,13 +123,14 @@ public class AndroidMock {
    * @return the mock object.
    * @throws IllegalArgumentException if the name is not a valid Java identifier.
    */
-  @SuppressWarnings("cast")
   public static <T> T createStrictMock(String name, Class<T> toMock, Object... args) {
     if (toMock.isInterface()) {
       return EasyMock.createStrictMock(name, toMock);
     }
-    Object mockedInterface = EasyMock.createStrictMock(name, getInterfaceFor(toMock));
-    return (T) getSubclassFor(toMock, getInterfaceFor(toMock), mockedInterface, args);
+    MockClassInfo<T> mockClassInfo = MockClassInfo.forClass(toMock);
+    Object mockedInterface =
+        EasyMock.createStrictMock(name, mockClassInfo.getDelegateInterface());
+    return mockClassInfo.newMock(mockedInterface, args);
   }
 
   /**
@@ -180,13 +178,14 @@ public class AndroidMock {
    * @return the mock object.
    * @throws IllegalArgumentException if the name is not a valid Java identifier.
    */
-  @SuppressWarnings("cast")
   public static <T> T createMock(String name, Class<T> toMock, Object... args) {
     if (toMock.isInterface()) {
       return EasyMock.createMock(name, toMock);
     }
-    Object mockedInterface = EasyMock.createMock(name, getInterfaceFor(toMock));
-    return (T) getSubclassFor(toMock, getInterfaceFor(toMock), mockedInterface, args);
+    MockClassInfo<T> mockClassInfo = MockClassInfo.forClass(toMock);
+    Object mockedInterface =
+        EasyMock.createMock(name, mockClassInfo.getDelegateInterface());
+    return mockClassInfo.newMock(mockedInterface, args);
   }
 
   /**
@@ -231,13 +230,170 @@ public class AndroidMock {
    * @param args the arguments to pass to the constructor.
    * @throws IllegalArgumentException if the name is not a valid Java identifier.
    */
-  @SuppressWarnings("cast")
   public static <T> T createNiceMock(String name, Class<T> toMock, Object... args) {
     if (toMock.isInterface()) {
       return EasyMock.createNiceMock(name, toMock);
     }
-    Object mockedInterface = EasyMock.createNiceMock(name, getInterfaceFor(toMock));
-    return (T) getSubclassFor(toMock, getInterfaceFor(toMock), mockedInterface, args);
+    MockClassInfo<T> mockClassInfo = MockClassInfo.forClass(toMock);
+    Object mockedInterface =
+        EasyMock.createNiceMock(name, mockClassInfo.getDelegateInterface());
+    return mockClassInfo.newMock(mockedInterface, args);
+  }
+
+  /**
+   * Creates a mock object for the specified class without calling any of its constructors, order
+   * checking is disabled by default.
+   * 
+   * Use this instead of {@link #createMock(Class, Object...)} when constructing the real class is
+   * expensive, for example when its constructors perform I/O or allocate large buffers. All of the
+   * mock's fields have their default values, so only methods which are mocked should be called on
+   * it.
+   * 
+   * @param <T> the type of the class to be mocked.
+   * @param toMock the class object representing the class to be mocked.
+   * @return the mock object.
+   * @throws UnsupportedOperationException if the VM cannot allocate objects without calling a
+   * constructor.
+   */
+  public static <T> T createMockWithoutConstructor(Class<T> toMock) {
+    return createMockWithoutConstructor(null, toMock);
+  }
+
+  /**
+   * Creates a mock object for the specified class without calling any of its constructors, order
+   * checking is disabled by default. See {@link #createMockWithoutConstructor(Class)}.
+   * 
+   * @param <T> the type of the class to be mocked.
+   * @param name the name of the mock object. This must be a valid Java identifier. This value is
+   * used as the return value from {@link #toString()} when invoked on the mock object.
+   * @param toMock the class object representing the class to be mocked.
+   * @return the mock object.
+   * @throws IllegalArgumentException if the name is not a valid Java identifier.
+   * @throws UnsupportedOperationException if the VM cannot allocate objects without calling a
+   * constructor.
+   */
+  public static <T> T createMockWithoutConstructor(String name, Class<T> toMock) {
+    if (toMock.isInterface()) {
+      return EasyMock.createMock(name, toMock);
+    }
+    MockClassInfo<T> mockClassInfo = MockClassInfo.forClass(toMock);
+    Object mockedInterface =
+        EasyMock.createMock(name, mockClassInfo.getDelegateInterface());
+    return mockClassInfo.newMockWithoutConstructor(mockedInterface);
+  }
+
+  /**
+   * Creates a mock object for the specified class without calling any of its constructors, order
+   * checking is disabled by default, and the mock object will return {@code 0}, {@code null} or
+   * {@code false} for unexpected invocations. See {@link #createMockWithoutConstructor(Class)}.
+   * 
+   * @param <T> the type of the class to be mocked.
+   * @param toMock the class object representing the class to be mocked.
+   * @return the mock object.
+   * @throws UnsupportedOperationException if the VM cannot allocate objects without calling a
+   * constructor.
+   */
+  public static <T> T createNiceMockWithoutConstructor(Class<T> toMock) {
+    return createNiceMockWithoutConstructor(null, toMock);
+  }
+
+  /**
+   * Creates a mock object for the specified class without calling any of its constructors, order
+   * checking is disabled by default, and the mock object will return {@code 0}, {@code null} or
+   * {@code false} for unexpected invocations. See {@link #createMockWithoutConstructor(Class)}.
+   * 
+   * @param <T> the type of the class to be mocked.
+   * @param name the name of the mock object. This must be a valid Java identifier. This value is
+   * used as the return value from {@link #toString()} when invoked on the mock object.
+   * @param toMock the class object representing the class to be mocked.
+   * @return the mock object.
+   * @throws IllegalArgumentException if the name is not a valid Java identifier.
+   * @throws UnsupportedOperationException if the VM cannot allocate objects without calling a
+   * constructor.
+   */
+  public static <T> T createNiceMockWithoutConstructor(String name, Class<T> toMock) {
+    if (toMock.isInterface()) {
+      return EasyMock.createNiceMock(name, toMock);
+    }
+    MockClassInfo<T> mockClassInfo = MockClassInfo.forClass(toMock);
+    Object mockedInterface =
+        EasyMock.createNiceMock(name, mockClassInfo.getDelegateInterface());
+    return mockClassInfo.newMockWithoutConstructor(mockedInterface);
+  }
+
+  /**
+   * Creates a mock object for the specified class without calling any of its constructors, order
+   * checking is enabled by default. See {@link #createMockWithoutConstructor(Class)}.
+   * 
+   * @param <T> the type of the class to be mocked.
+   * @param toMock the class object representing the class to be mocked.
+   * @return the mock object.
+   * @throws UnsupportedOperationException if the VM cannot allocate objects without calling a
+   * constructor.
+   */
+  public static <T> T createStrictMockWithoutConstructor(Class<T> toMock) {
+    return createStrictMockWithoutConstructor(null, toMock);
+  }
+
+  /**
+   * Creates a mock object for the specified class without calling any of its constructors, order
+   * checking is enabled by default. See {@link #createMockWithoutConstructor(Class)}.
+   * 
+   * @param <T> the type of the class to be mocked.
+   * @param name the name of the mock object. This must be a valid Java identifier. This value is
+   * used as the return value from {@link #toString()} when invoked on the mock object.
+   * @param toMock the class object representing the class to be mocked.
+   * @return the mock object.
+   * @throws IllegalArgumentException if the name is not a valid Java identifier.
+   * @throws UnsupportedOperationException if the VM cannot allocate objects without calling a
+   * constructor.
+   */
+  public static <T> T createStrictMockWithoutConstructor(String name, Class<T> toMock) {
+    if (toMock.isInterface()) {
+      return EasyMock.createStrictMock(name, toMock);
+    }
+    MockClassInfo<T> mockClassInfo = MockClassInfo.forClass(toMock);
+    Object mockedInterface =
+        EasyMock.createStrictMock(name, mockClassInfo.getDelegateInterface());
+    return mockClassInfo.newMockWithoutConstructor(mockedInterface);
+  }
+
+  /**
+   * Creates a control, order checking is disabled by default. The control can create mocks of
+   * both classes and interfaces, all of which are replayed, verified and reset together through
+   * the control.
+   * 
+   * Class mocks are created with the constructor matching the arguments in the
+   * {@link org.easymock.ConstructorArgs} passed to
+   * {@link IMocksControl#createMock(Class, org.easymock.ConstructorArgs, java.lang.reflect.Method...)},
+   * or with the no-argument constructor otherwise. Partial mocking of classes is not supported.
+   * 
+   * @return the control.
+   */
+  public static IMocksControl createControl() {
+    return new AndroidMocksControl(EasyMock.createControl());
+  }
+
+  /**
+   * Creates a control, order checking is enabled by default. The order of calls is checked
+   * across all of the mocks created by the control, including class mocks. See
+   * {@link #createControl()}.
+   * 
+   * @return the control.
+   */
+  public static IMocksControl createStrictControl() {
+    return new AndroidMocksControl(EasyMock.createStrictControl());
+  }
+
+  /**
+   * Creates a control, order checking is disabled by default, and the mock objects created by
+   * this control will return {@code 0}, {@code null} or {@code false} for unexpected invocations.
+   * See {@link #createControl()}.
+   * 
+   * @return the control.
+   */
+  public static IMocksControl createNiceControl() {
+    return new AndroidMocksControl(EasyMock.createNiceControl());
   }
 
   
@@ -2692,169 +2848,31 @@ public class AndroidMock {
     }
   }
 
-  @SuppressWarnings("unchecked")
-  private static <T, S> T getSubclassFor(Class<? super T> clazz, Class<S> delegateInterface,
-      Object realMock, Object... args) {
-    Class<T> subclass;
-    String className = null;
-    try {
-      className = FileUtils.getSubclassNameFor(clazz);
-      subclass = (Class<T>) Class.forName(className);
-    } catch (ClassNotFoundException e) {
-      throw new RuntimeException("Could not find class for " + className
-          + " which likely means that the mock-instrumented jar has not been created or else"
-          + " is not being used in the current runtime environment. Try running MockGeneratorMain"
-          + " in MockGenerator_deploy.jar or using the output of that execution as the input to"
-          + " the dex/apk generation.", e);
-    }
-    Constructor<T> constructor = getConstructorFor(subclass, args);
-    T newObject;
-    try {
-      newObject = constructor.newInstance(args);
-    } catch (InstantiationException e) {
-      throw new RuntimeException("Internal error instantiating new mock subclass"
-          + subclass.getName(), e);
-    } catch (IllegalAccessException e) {
-      throw new RuntimeException(
-          "Internal error - the new mock subclass' constructor was inaccessible", e);
-    } catch (InvocationTargetException e) {
-      throw new ExceptionInInitializerError(e);
-    }
-    Method setMethod;
-    try {
-      setMethod = subclass.getMethod("setDelegate___AndroidMock", delegateInterface);
-    } catch (NoSuchMethodException e) {
-      throw new RuntimeException("Internal error - No setDelegate method found for " + "class "
-          + subclass.getName() + " and param " + delegateInterface.getName(), e);
-    }
-    try {
-      setMethod.invoke(newObject, realMock);
-    } catch (IllegalArgumentException e) {
-      throw new IllegalArgumentException("Internal error setting the delegate, expected "
-          + newObject.getClass() + " to be subclass of " + clazz.getName());
-    } catch (InvocationTargetException e) {
-      throw new RuntimeException("Severe internal error, setDelegate threw an exception", e);
-    } catch (IllegalAccessException e) {
-      throw new RuntimeException("Internal error, setDelegate method was inaccessible", e);
-    }
-    return newObject;
-  }
-  
   static boolean isUnboxableToPrimitive(Class<?> clazz, Object arg, boolean exactMatch) {
     if (!clazz.isPrimitive()) {
       throw new IllegalArgumentException(
           "Internal Error - The class to test against is not a primitive");
     }
-    Class<?> unboxedType = null;
-    if (arg.getClass().equals(Integer.class)) {
-      unboxedType = Integer.TYPE;
-    } else if (arg.getClass().equals(Long.class)) {
-      unboxedType = Long.TYPE;
-    } else if (arg.getClass().equals(Byte.class)) {
-      unboxedType = Byte.TYPE;
-    } else if (arg.getClass().equals(Short.class)) {
-      unboxedType = Short.TYPE;
-    } else if (arg.getClass().equals(Character.class)) {
-      unboxedType = Character.TYPE;
-    } else if (arg.getClass().equals(Float.class)) {
-      unboxedType = Float.TYPE;
-    } else if (arg.getClass().equals(Double.class)) {
-      unboxedType = Double.TYPE;
-    } else if (arg.getClass().equals(Boolean.class)) {
-      unboxedType = Boolean.TYPE;
-    } else {
-      return false;
-    }
-    if (exactMatch) {
-      return clazz == unboxedType;
-    }
-    return isAssignable(clazz, unboxedType);
+    return ConstructorTable.isUnboxableTo(clazz, arg, exactMatch);
   }
-  
-  private static boolean isAssignable(Class<?> to, Class<?> from) {
-    if (to == Byte.TYPE) {
-      return from == Byte.TYPE;
-    } else if (to == Short.TYPE){
-      return from == Byte.TYPE || from == Short.TYPE || from == Character.TYPE;
-    } else if (to == Integer.TYPE || to == Character.TYPE) {
-      return from == Byte.TYPE || from == Short.TYPE || from == Integer.TYPE
-          || from == Character.TYPE;
-    } else if (to == Long.TYPE) {
-      return from == Byte.TYPE || from == Short.TYPE || from == Integer.TYPE || from == Long.TYPE
-          || from == Character.TYPE;
-    } else if (to == Float.TYPE) {
-      return from == Byte.TYPE || from == Short.TYPE || from == Integer.TYPE
-          || from == Character.TYPE || from == Float.TYPE;
-    } else if (to == Double.TYPE) {
-      return from == Byte.TYPE || from == Short.TYPE || from == Integer.TYPE || from == Long.TYPE
-          || from == Character.TYPE || from == Float.TYPE || from == Double.TYPE;
-    } else if (to == Boolean.TYPE) {
-      return from == Boolean.TYPE;
-    } else {
-      return to.isAssignableFrom(from);
-    }
-  }
-  
+
   @SuppressWarnings("unchecked")
   static <T> Constructor<T> getConstructorFor(Class<T> clazz, Object... args)
       throws SecurityException {
-    Constructor<T>[] constructors = (Constructor<T>[]) clazz.getConstructors();
-    Constructor<T> compatibleConstructor = null;
-    for (Constructor<T> constructor : constructors) {
-      Class<?>[] params = constructor.getParameterTypes();
-      if (params.length == args.length) {
-        boolean exactMatch = true;
-        boolean compatibleMatch = true;
-        for (int i = 0; i < params.length; ++i) {
-          Object arg = args[i];
-          if (arg == null) {
-            if (params[i].isPrimitive()) {
-              exactMatch = false;
-              compatibleMatch = false;
-            }
-          } else if (!params[i].isAssignableFrom(arg.getClass())) {
-            if (params[i].isPrimitive()) {
-              exactMatch &= isUnboxableToPrimitive(params[i], arg, true);
-              compatibleMatch &= isUnboxableToPrimitive(params[i], arg, false);
-            } else {
-              exactMatch = false;
-              compatibleMatch = false;
-            }
-          }
-        }
-        if (exactMatch) {
-          return constructor;
-        } else if (compatibleMatch) {
-          compatibleConstructor = constructor;
-        }
-      }
-    }
-    if (compatibleConstructor != null) {
-      return compatibleConstructor;
-    }
-    List<String> argTypes = new ArrayList<String>(args.length);
-    for (Object arg : args) {
-      argTypes.add(arg == null ? "<null>" : arg.getClass().toString());
-    }
-    throw new IllegalArgumentException("Could not find the specified Constructor: "
-        + clazz.getName() + "(" + argTypes + ")");
+    ConstructorTable<T> constructorTable =
+        new ConstructorTable<T>(clazz, (Constructor<T>[]) clazz.getConstructors());
+    return constructorTable.getConstructor(constructorTable.resolve(args));
   }
 
-  @SuppressWarnings("unchecked")
-  private static <T> Class<T> getInterfaceFor(Class<T> clazz) {
-    try {
-      String className;
-      className = FileUtils.getInterfaceNameFor(clazz);
-      return (Class<T>) Class.forName(className);
-    } catch (ClassNotFoundException e) {
-      throw new RuntimeException("Could not find mock for " + clazz.getName()
-          + "  -- Make sure to run the MockGenerator.jar on your test jar, and to "
-          + "build the Android test APK using the modified jar created by MockGenerator", e);
-    }
+  static boolean isAndroidClass(Class<?> clazz) {
+    return isAndroidPackage(clazz.getPackage().getName());
   }
 
-  static boolean isAndroidClass(Class<?> clazz) {
-    String packageName = clazz.getPackage().getName();
+  /**
+   * @return true if classes in the package named {@code packageName} are part of the Android
+   *         framework.
+   */
+  static boolean isAndroidPackage(String packageName) {
     return packageName.startsWith("android.") || packageName.startsWith("dalvik.")
         || packageName.startsWith("java.") || packageName.startsWith("javax.")
         || packageName.startsWith("org.xml.sax") || packageName.startsWith("org.xmlpull.v1")
@@ -23,18 +23,23 @@ import javassist.CtConstructor;
 import javassist.CtField;
 import javassist.CtMethod;
 import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
 import javassist.NotFoundException;
 
 import java.io.IOException;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
 
 /**
  * AndroidMockGenerator creates the subclass and interface required for mocking
@@ -46,9 +51,107 @@ import java.util.Map;
  * @author swoodward@google.com (Stephen Woodward)
  */
 class AndroidMockGenerator {
+  /**
+   * Identifies the output of this generator. Change it whenever a change to the generator alters
+   * the classes it generates, so that {@link MockCache} entries from older versions are not used.
+   */
+  static final String VERSION = "5";
+
+  private final ClassPool classPool;
+  private boolean directDispatch;
+  private boolean emitBytecode = true;
+  /** Method tables read from class files, by class name; see {@link #getMethodTable(CtClass)}. */
+  private final Map<String, MethodTable> classFileMethodTables =
+      new HashMap<String, MethodTable>();
+
+  private static boolean defaultClassPoolPrepared;
+
   public AndroidMockGenerator() {
-    ClassPool.doPruning = false;
-    ClassPool.getDefault().insertClassPath(new ClassClassPath(MockObject.class));
+    this(getDefaultClassPool());
+  }
+
+  /**
+   * Creates a generator which creates its classes in {@code classPool} rather than in the default
+   * ClassPool. Generators with separate ClassPools may be used from separate threads.
+   * {@code classPool} must be able to find the Android Mock runtime classes.
+   */
+  AndroidMockGenerator(ClassPool classPool) {
+    this.classPool = classPool;
+  }
+
+  /**
+   * Creates a generator which works from javac's model of the classes, described by an
+   * {@link ElementClassPath}, rather than from their class files. The model is searched first,
+   * and mocks are never read from the class path, so that neither a class being compiled nor its
+   * mocks are read from the class files of an earlier build.
+   */
+  static AndroidMockGenerator forModel(Elements elements, Types types) {
+    ClassPool classPool = new ModelClassPool();
+    classPool.insertClassPath(new ClassClassPath(MockObject.class));
+    classPool.insertClassPath(new ElementClassPath(elements, types));
+    return new AndroidMockGenerator(classPool);
+  }
+
+  /**
+   * Stops {@code generatedClass} from being pruned when its bytecode is written if it is in the
+   * default ClassPool, since classes generated there may be loaded with
+   * {@link CtClass#toClass()} afterwards. Classes generated in other ClassPools are pruned.
+   */
+  private void keepIfLoadable(CtClass generatedClass) {
+    if (classPool == ClassPool.getDefault()) {
+      generatedClass.stopPruning(true);
+    }
+  }
+
+  private static synchronized ClassPool getDefaultClassPool() {
+    ClassPool classPool = ClassPool.getDefault();
+    if (!defaultClassPoolPrepared) {
+      classPool.insertClassPath(new ClassClassPath(MockObject.class));
+      defaultClassPoolPrepared = true;
+    }
+    return classPool;
+  }
+
+  /**
+   * Selects how the generated subclasses pass calls on to their delegates. By default a subclass
+   * calls the DelegateInterface method on its delegate, which for an EasyMock delegate means a
+   * call through a {@link java.lang.reflect.Proxy}. With direct dispatch enabled, a subclass
+   * whose delegate is an EasyMock mock passes each call to a {@link MockDispatcher} along with an
+   * integer method ID instead, and only calls the delegate itself if it is some other object.
+   *
+   * @param directDispatch true to generate subclasses which use direct dispatch.
+   */
+  public void setDirectDispatch(boolean directDispatch) {
+    this.directDispatch = directDispatch;
+  }
+
+  public boolean isDirectDispatch() {
+    return directDispatch;
+  }
+
+  /**
+   * Selects how the methods of the generated interfaces and subclasses are created. By default
+   * they are written directly as bytecode by {@link BytecodeMethodEmitter}. Otherwise their Java
+   * source is generated and compiled by javassist, which is much slower for large classes but is
+   * kept as a fallback.
+   *
+   * @param emitBytecode false to compile the methods from Java source.
+   */
+  public void setEmitBytecode(boolean emitBytecode) {
+    this.emitBytecode = emitBytecode;
+  }
+
+  public boolean isEmitBytecode() {
+    return emitBytecode;
+  }
+
+  /**
+   * Returns a description of this generator's version and of the settings which affect the
+   * classes it generates.
+   */
+  String getConfiguration() {
+    return "AndroidMockGenerator " + VERSION + " directDispatch=" + directDispatch
+        + " emitBytecode=" + emitBytecode;
   }
 
   /**
@@ -58,12 +161,14 @@ class AndroidMockGenerator {
    * 
    * A test class can request that a Class be prepared for mocking by using the
    * {@link UsesMocks} annotation at either the Class or Method level. All
-   * classes specified by these annotations will have exactly two CtClass
-   * objects created, one for a generated interface, and one for a generated
-   * subclass. The interface and subclass both define the same methods which
-   * comprise all of the mockable methods of the provided class. At present, for
-   * a method to be mockable, it must be non-final and non-static, although this
-   * may expand in the future.
+   * classes specified by these annotations will have exactly three CtClass
+   * objects created, one for a generated interface, one for a generated
+   * subclass and one for a generated factory. The interface and subclass both
+   * define the same methods which comprise all of the mockable methods of the
+   * provided class. At present, for a method to be mockable, it must be
+   * non-final and non-static, although this may expand in the future. The
+   * factory allows {@link AndroidMock} to instantiate the subclass without
+   * using reflection.
    * 
    * The class itself must be mockable, otherwise this method will ignore the
    * requested mock and print a warning. At present, a class is mockable if it
@@ -95,7 +200,54 @@ class AndroidMockGenerator {
     CtClass mockDelegateCtClass = generateSubClass(clazz, newInterfaceCtClass);
     GeneratedClassFile mockDelegate = new GeneratedClassFile(mockDelegateCtClass.getName(),
         mockDelegateCtClass.toBytecode());
-    return Arrays.asList(new GeneratedClassFile[] {newInterface, mockDelegate});
+    CtClass mockFactoryCtClass = generateFactory(clazz, mockDelegateCtClass, newInterfaceCtClass);
+    GeneratedClassFile mockFactory = new GeneratedClassFile(mockFactoryCtClass.getName(),
+        mockFactoryCtClass.toBytecode());
+    return Arrays.asList(new GeneratedClassFile[] {newInterface, mockDelegate, mockFactory});
+  }
+
+  /**
+   * Creates the same classes as {@link #createMocksForClass(Class)}, but works from the class
+   * file of the class to be mocked, and of its superclasses, alone. The mocked class is never
+   * loaded, linked or initialized, so this works for classes which cannot be loaded in the
+   * generating JVM, such as the stubs in an android.jar. The methods are always emitted as
+   * bytecode, whatever {@link #setEmitBytecode} selects.
+   *
+   * @param clazz the class to be mocked, from this generator's ClassPool.
+   */
+  List<GeneratedClassFile> createMocksForClass(CtClass clazz)
+      throws ClassNotFoundException, IOException, CannotCompileException {
+    if (!classIsSupportedType(clazz)) {
+      reportReasonForUnsupportedType(clazz);
+      return Arrays.asList(new GeneratedClassFile[0]);
+    }
+    MethodTable methods = getMethodTable(clazz);
+    CtClass newInterfaceCtClass = generateInterface(clazz.getName(), methods);
+    GeneratedClassFile newInterface = new GeneratedClassFile(newInterfaceCtClass.getName(),
+        newInterfaceCtClass.toBytecode());
+    CtClass mockDelegateCtClass = generateSubClass(clazz, methods, newInterfaceCtClass);
+    GeneratedClassFile mockDelegate = new GeneratedClassFile(mockDelegateCtClass.getName(),
+        mockDelegateCtClass.toBytecode());
+    CtClass mockFactoryCtClass =
+        generateFactory(clazz.getName(), mockDelegateCtClass, newInterfaceCtClass);
+    GeneratedClassFile mockFactory = new GeneratedClassFile(mockFactoryCtClass.getName(),
+        mockFactoryCtClass.toBytecode());
+    return Arrays.asList(new GeneratedClassFile[] {newInterface, mockDelegate, mockFactory});
+  }
+
+  /**
+   * Creates the mocks for the class with the binary name {@code className} in this generator's
+   * ClassPool, as {@link #createMocksForClass(CtClass)} does.
+   */
+  List<GeneratedClassFile> createMocksForClass(String className)
+      throws ClassNotFoundException, IOException, CannotCompileException {
+    CtClass clazz;
+    try {
+      clazz = getClassPool().get(className);
+    } catch (NotFoundException e) {
+      throw new ClassNotFoundException(className, e);
+    }
+    return createMocksForClass(clazz);
   }
 
   private void reportReasonForUnsupportedType(Class<?> clazz) {
@@ -125,6 +277,36 @@ class AndroidMockGenerator {
     }
   }
   
+  private void reportReasonForUnsupportedType(CtClass clazz) {
+    String reason = null;
+    if (clazz.isInterface()) {
+      // do nothing to make sure none of the other conditions apply.
+    } else if (clazz.isEnum()) {
+      reason = "Cannot mock an Enum";
+    } else if (clazz.isArray()) {
+      reason = "Cannot mock an Array";
+    } else if (Modifier.isFinal(clazz.getModifiers())) {
+      reason = "Cannot mock a Final class";
+    } else if (clazz.isPrimitive()) {
+      reason = "Cannot mock primitives";
+    } else if (!containsUsableConstructor(clazz)) {
+      reason = "Cannot mock a class with no public constructors";
+    }
+    if (reason != null) {
+      System.err.println(reason + ": " + clazz.getName());
+    }
+  }
+
+  private boolean containsUsableConstructor(CtClass clazz) {
+    for (CtConstructor constructor : clazz.getDeclaredConstructors()) {
+      if (Modifier.isPublic(constructor.getModifiers()) ||
+          Modifier.isProtected(constructor.getModifiers())) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private boolean containsUsableConstructor(Class<?> clazz) {
     Constructor<?>[] constructors = clazz.getDeclaredConstructors();
     for (Constructor<?> constructor : constructors) {
@@ -142,6 +324,11 @@ class AndroidMockGenerator {
         && !Modifier.isFinal(clazz.getModifiers());
   }
 
+  boolean classIsSupportedType(CtClass clazz) {
+    return !clazz.isPrimitive() && !clazz.isArray() && !clazz.isInterface() && !clazz.isEnum()
+        && !Modifier.isFinal(clazz.getModifiers()) && containsUsableConstructor(clazz);
+  }
+
   void saveCtClass(CtClass clazz) throws ClassNotFoundException, IOException {
     try {
       clazz.writeFile();
@@ -154,13 +341,18 @@ class AndroidMockGenerator {
   }
 
   CtClass generateInterface(Class<?> originalClass) {
+    return generateInterface(originalClass.getName(), MethodTable.forClass(originalClass));
+  }
+
+  private CtClass generateInterface(String originalClassName, MethodTable methods) {
     ClassPool classPool = getClassPool();
     try {
-      return classPool.getCtClass(FileUtils.getInterfaceNameFor(originalClass));
+      return classPool.getCtClass(FileUtils.getInterfaceNameFor(originalClassName));
     } catch (NotFoundException e) {
       CtClass newInterface =
-          classPool.makeInterface(FileUtils.getInterfaceNameFor(originalClass));
-      addInterfaceMethods(originalClass, newInterface);
+          classPool.makeInterface(FileUtils.getInterfaceNameFor(originalClassName));
+      keepIfLoadable(newInterface);
+      addInterfaceMethods(originalClassName, methods, newInterface);
       return newInterface;
     }
   }
@@ -211,8 +403,8 @@ class AndroidMockGenerator {
     return clazz.getCanonicalName();
   }
 
-  static ClassPool getClassPool() {
-    return ClassPool.getDefault();
+  ClassPool getClassPool() {
+    return classPool;
   }
 
   private boolean classExists(String name) {
@@ -228,9 +420,15 @@ class AndroidMockGenerator {
 
   CtClass generateSubClass(Class<?> superClass, CtClass newInterface)
       throws ClassNotFoundException {
-    if (classExists(FileUtils.getSubclassNameFor(superClass))) {
+    return generateSubClass(getCtClassForClass(superClass), MethodTable.forClass(superClass),
+        newInterface);
+  }
+
+  private CtClass generateSubClass(CtClass superClass, MethodTable methods, CtClass newInterface)
+      throws ClassNotFoundException {
+    if (classExists(FileUtils.getSubclassNameFor(superClass.getName()))) {
       try {
-        return getClassPool().get(FileUtils.getSubclassNameFor(superClass));
+        return getClassPool().get(FileUtils.getSubclassNameFor(superClass.getName()));
       } catch (NotFoundException e) {
         throw new ClassNotFoundException("This should be impossible, since we just checked for "
             + "the existence of the class being created", e);
@@ -244,17 +442,16 @@ class AndroidMockGenerator {
       } catch (NotFoundException e) {
         throw new ClassNotFoundException("Could not find " + MockObject.class.getName(), e);
       }
-      addMethods(superClass, newClass);
+      addMethods(superClass.getName(), methods, newClass);
       addGetDelegateMethod(newClass);
       addSetDelegateMethod(newClass, newInterface);
       addConstructors(newClass, superClass);
+      addFactoryMethods(newClass, newInterface);
     }
     return newClass;
   }
   
-  private void addConstructors(CtClass clazz, Class<?> superClass) throws ClassNotFoundException {
-    CtClass superCtClass = getCtClassForClass(superClass);
-    
+  private void addConstructors(CtClass clazz, CtClass superCtClass) {
     CtConstructor[] constructors = superCtClass.getDeclaredConstructors();
     for (CtConstructor constructor : constructors) {
       int modifiers = constructor.getModifiers();
@@ -273,6 +470,156 @@ class AndroidMockGenerator {
     }
   }
 
+  /**
+   * Adds a static factory method to {@code clazz} for each of its constructors. Each factory
+   * method takes the delegate as its first parameter followed by the constructor's parameters,
+   * constructs the new subclass and installs the delegate, which lets the generated factory
+   * create mocks without reflection.
+   */
+  private void addFactoryMethods(CtClass clazz, CtClass newInterface) {
+    for (CtConstructor constructor : clazz.getDeclaredConstructors()) {
+      try {
+        CtClass[] constructorParams = constructor.getParameterTypes();
+        CtClass[] params = new CtClass[constructorParams.length + 1];
+        params[0] = newInterface;
+        System.arraycopy(constructorParams, 0, params, 1, constructorParams.length);
+        clazz.addMethod(CtNewMethod.make(Modifier.PUBLIC | Modifier.STATIC, clazz,
+            getFactoryMethodName(), params, constructor.getExceptionTypes(),
+            getFactoryMethodSource(clazz, params.length), clazz));
+      } catch (CannotCompileException e) {
+        throw new RuntimeException("Internal Error - Could not add factory methods.", e);
+      } catch (NotFoundException e) {
+        throw new RuntimeException("Internal Error - Constructor suddenly could not be found", e);
+      }
+    }
+  }
+
+  String getFactoryMethodSource(CtClass clazz, int paramCount) {
+    StringBuilder source = new StringBuilder("{ ");
+    source.append(clazz.getName()).append(" mock = new ").append(clazz.getName()).append("(");
+    for (int i = 2; i <= paramCount; ++i) {
+      source.append("$").append(i);
+      if (i < paramCount) {
+        source.append(",");
+      }
+    }
+    if (directDispatch) {
+      source.append("); mock.setDelegate___AndroidMock($1); return mock; }");
+    } else {
+      source.append("); mock.").append(getDelegateFieldName()).append(" = $1; return mock; }");
+    }
+    return source.toString();
+  }
+
+  String getFactoryMethodName() {
+    return "newMock___AndroidMock";
+  }
+
+  /**
+   * Generates the {@link MockFactory} for {@code originalClass}, which creates instances of
+   * {@code subclass} by calling its static factory methods.
+   * 
+   * The factory identifies a constructor by its index in the subclass' constructors sorted by
+   * parameter descriptor. {@link MockClassInfo} sorts the constructors in the same way at
+   * runtime.
+   */
+  CtClass generateFactory(Class<?> originalClass, CtClass subclass, CtClass newInterface)
+      throws ClassNotFoundException {
+    return generateFactory(originalClass.getName(), subclass, newInterface);
+  }
+
+  private CtClass generateFactory(String originalClassName, CtClass subclass,
+      CtClass newInterface) throws ClassNotFoundException {
+    ClassPool classPool = getClassPool();
+    String factoryName = FileUtils.getFactoryNameFor(originalClassName);
+    if (classExists(factoryName)) {
+      try {
+        return classPool.get(factoryName);
+      } catch (NotFoundException e) {
+        throw new ClassNotFoundException("This should be impossible, since we just checked for "
+            + "the existence of the class being created", e);
+      }
+    }
+    CtClass factory;
+    try {
+      factory = classPool.makeClass(factoryName, classPool.get(MockFactory.class.getName()));
+      keepIfLoadable(factory);
+    } catch (NotFoundException e) {
+      throw new ClassNotFoundException("Could not find " + MockFactory.class.getName(), e);
+    }
+    try {
+      factory.addConstructor(CtNewConstructor.defaultConstructor(factory));
+      factory.addMethod(CtMethod.make(
+          getFactoryNewMockSource(subclass, newInterface, getSortedConstructors(subclass)),
+          factory));
+      factory.addMethod(CtMethod.make(getFactorySetDelegateSource(subclass, newInterface),
+          factory));
+    } catch (CannotCompileException e) {
+      throw new RuntimeException("Internal error while creating the factory for "
+          + originalClassName, e);
+    } catch (NotFoundException e) {
+      throw new RuntimeException("Internal Error - Constructor suddenly could not be found", e);
+    }
+    return factory;
+  }
+
+  /**
+   * Returns the source of the factory's newMock method. The arguments are converted before the
+   * subclass is constructed, so that only what the constructor throws is wrapped in an
+   * InvocationTargetException.
+   */
+  String getFactoryNewMockSource(CtClass subclass, CtClass newInterface,
+      CtConstructor[] constructors) throws NotFoundException {
+    StringBuilder source = new StringBuilder(
+        "public Object newMock(int constructor, Object delegate, Object[] args) { ");
+    for (int i = 0; i < constructors.length; ++i) {
+      source.append("if (constructor == ").append(i).append(") { ");
+      CtClass[] params = constructors[i].getParameterTypes();
+      for (int j = 0; j < params.length; ++j) {
+        source.append(params[j].getName()).append(" arg").append(i).append("_").append(j)
+            .append(" = ").append(getUnboxingSource(params[j], "args[" + j + "]")).append("; ");
+      }
+      source.append("try { return ");
+      source.append(subclass.getName()).append("#").append(getFactoryMethodName());
+      source.append("((").append(newInterface.getName()).append(") delegate");
+      for (int j = 0; j < params.length; ++j) {
+        source.append(", arg").append(i).append("_").append(j);
+      }
+      source.append("); } catch (Throwable e) { throw new "
+          + InvocationTargetException.class.getName() + "(e); } } ");
+    }
+    source.append("return noSuchConstructor(constructor); }");
+    return source.toString();
+  }
+
+  String getFactorySetDelegateSource(CtClass subclass, CtClass newInterface) {
+    return "public void setDelegate(Object mock, Object delegate) { ((" + subclass.getName()
+        + ") mock).setDelegate___AndroidMock((" + newInterface.getName() + ") delegate); }";
+  }
+
+  private String getUnboxingSource(CtClass type, String arg) {
+    if (!type.isPrimitive()) {
+      return "(" + type.getName() + ") " + arg;
+    }
+    String name = type.getName();
+    return MockFactory.class.getName() + "#to" + Character.toUpperCase(name.charAt(0))
+        + name.substring(1) + "(" + arg + ")";
+  }
+
+  /**
+   * Returns the constructors of {@code clazz} sorted by their descriptors, which is the order
+   * used to number them in the generated factory.
+   */
+  static CtConstructor[] getSortedConstructors(CtClass clazz) {
+    CtConstructor[] constructors = clazz.getDeclaredConstructors();
+    Arrays.sort(constructors, new Comparator<CtConstructor>() {
+      public int compare(CtConstructor first, CtConstructor second) {
+        return first.getSignature().compareTo(second.getSignature());
+      }
+    });
+    return constructors;
+  }
+
   CtClass getCtClassForClass(Class<?> clazz) throws ClassNotFoundException {
     ClassPool classPool = getClassPool();
     try {
@@ -292,6 +639,11 @@ class AndroidMockGenerator {
   }
 
   String getSetDelegateMethodSource(CtClass newInterface) {
+    if (directDispatch) {
+      return "public void setDelegate___AndroidMock(" + newInterface.getName() + " obj) { this."
+          + getDelegateFieldName() + " = obj; this." + getDispatcherFieldName() + " = "
+          + MockDispatcher.class.getName() + "#forDelegate((Object) obj);}";
+    }
     return "public void setDelegate___AndroidMock(" + newInterface.getName() + " obj) { this."
         + getDelegateFieldName() + " = obj;}";
   }
@@ -320,12 +672,26 @@ class AndroidMockGenerator {
     return "delegateMockObject";
   }
 
+  String getDispatcherFieldName() {
+    return "dispatcher___AndroidMock";
+  }
+
   void addInterfaceMethods(Class<?> originalClass, CtClass newInterface) {
-    Method[] methods = getAllMethods(originalClass);
-    for (Method method : methods) {
+    addInterfaceMethods(originalClass.getName(), MethodTable.forClass(originalClass), newInterface);
+  }
+
+  private void addInterfaceMethods(String originalClassName, MethodTable methods,
+      CtClass newInterface) {
+    for (MethodTable.Entry entry : methods.getEntries()) {
       try {
-        if (isMockable(method)) {
-          CtMethod newMethod = CtMethod.make(getInterfaceMethodSource(method), newInterface);
+        if (isMockable(entry)) {
+          CtMethod newMethod;
+          if (emitBytecode || entry.method == null) {
+            newMethod = BytecodeMethodEmitter.makeInterfaceMethod(newInterface, entry.name,
+                entry.descriptor, entry.exceptionNames);
+          } else {
+            newMethod = CtMethod.make(getInterfaceMethodSource(entry.method), newInterface);
+          }
           newInterface.addMethod(newMethod);
         }
       } catch (UnsupportedOperationException e) {
@@ -333,21 +699,35 @@ class AndroidMockGenerator {
       } catch (CannotCompileException e) {
         throw new RuntimeException(
             "Internal error while creating a new Interface method for class "
-                + originalClass.getName() + ".  Method name: " + method.getName(), e);
+                + originalClassName + ".  Method name: " + entry.name, e);
       }
     }
   }
 
   void addMethods(Class<?> superClass, CtClass newClass) {
-    Method[] methods = getAllMethods(superClass);
+    addMethods(superClass.getName(), MethodTable.forClass(superClass), newClass);
+  }
+
+  private void addMethods(String superClassName, MethodTable methods, CtClass newClass) {
+    MethodTable.Entry[] entries = methods.getEntries();
     if (newClass.isFrozen()) {
       newClass.defrost();
     }
+    Map<MethodTable.Entry, Integer> methodIds = directDispatch ? getMethodIds(entries) : null;
     List<CtMethod> existingMethods = Arrays.asList(newClass.getDeclaredMethods());
-    for (Method method : methods) {
+    for (MethodTable.Entry entry : entries) {
       try {
-        if (isMockable(method)) {
-          CtMethod newMethod = CtMethod.make(getDelegateMethodSource(method), newClass);
+        if (isMockable(entry)) {
+          CtMethod newMethod;
+          if (emitBytecode || entry.method == null) {
+            newMethod = makeDelegateMethod(superClassName, newClass, entry,
+                directDispatch ? methodIds.get(entry) : -1);
+          } else {
+            String source = directDispatch
+                ? getDirectDispatchMethodSource(entry.method, methodIds.get(entry))
+                : getDelegateMethodSource(entry.method);
+            newMethod = CtMethod.make(source, newClass);
+          }
           if (!existingMethods.contains(newMethod)) {
             newClass.addMethod(newMethod);
           }
@@ -356,31 +736,94 @@ class AndroidMockGenerator {
         // Can't handle finals and statics.
       } catch (CannotCompileException e) {
         throw new RuntimeException("Internal Error while creating subclass methods for "
-            + newClass.getName() + " method: " + method.getName(), e);
+            + newClass.getName() + " method: " + entry.name, e);
       }
     }
   }
 
-  Method[] getAllMethods(Class<?> clazz) {
-    Map<String, Method> methodMap = getAllMethodsMap(clazz);
-    return methodMap.values().toArray(new Method[0]);
+  private CtMethod makeDelegateMethod(String superClassName, CtClass newClass,
+      MethodTable.Entry entry, int methodId) throws CannotCompileException {
+    String interfaceName = FileUtils.getInterfaceNameFor(superClassName);
+    if (directDispatch) {
+      return BytecodeMethodEmitter.makeDirectDispatchMethod(newClass, getDelegateFieldName(),
+          interfaceName, getDispatcherFieldName(), methodId, entry.name, entry.descriptor,
+          entry.exceptionNames);
+    }
+    return BytecodeMethodEmitter.makeDelegateMethod(newClass, getDelegateFieldName(),
+        interfaceName, entry.name, entry.descriptor, entry.exceptionNames);
   }
 
-  private Map<String, Method> getAllMethodsMap(Class<?> clazz) {
-    Map<String, Method> methodMap = new HashMap<String, Method>();
-    Class<?> superClass = clazz.getSuperclass();
-    if (superClass != null) {
-      methodMap.putAll(getAllMethodsMap(superClass));
+  /**
+   * Numbers the mockable methods in {@code entries} in the order in which
+   * {@link MockDispatcher} numbers the corresponding DelegateInterface methods.
+   */
+  private Map<MethodTable.Entry, Integer> getMethodIds(MethodTable.Entry[] entries) {
+    List<MethodTable.Entry> mockable = new ArrayList<MethodTable.Entry>();
+    for (MethodTable.Entry entry : entries) {
+      if (isMockable(entry)) {
+        mockable.add(entry);
+      }
+    }
+    MethodTable.Entry[] sorted =
+        MethodTable.sortEntries(mockable.toArray(new MethodTable.Entry[mockable.size()]));
+    Map<MethodTable.Entry, Integer> methodIds = new HashMap<MethodTable.Entry, Integer>();
+    for (int i = 0; i < sorted.length; ++i) {
+      methodIds.put(sorted[i], i);
     }
-    List<Method> methods = new ArrayList<Method>(Arrays.asList(clazz.getDeclaredMethods()));
-    for (Method method : methods) {
-      String key = method.getName();
-      for (Class<?> param : method.getParameterTypes()) {
-        key += param.getCanonicalName();
+    return methodIds;
+  }
+
+  Method[] getAllMethods(Class<?> clazz) {
+    return MethodTable.forClass(clazz).getMethods();
+  }
+
+  /**
+   * Returns the method table for {@code clazz}, read from its class file and those of its
+   * superclasses. The tables are kept by this generator, since they belong to its ClassPool.
+   */
+  MethodTable getMethodTable(CtClass clazz) throws ClassNotFoundException {
+    MethodTable methods = classFileMethodTables.get(clazz.getName());
+    if (methods == null) {
+      MethodTable superMethods = null;
+      if (!clazz.getName().equals(Object.class.getName())) {
+        try {
+          superMethods = getMethodTable(clazz.getSuperclass());
+        } catch (NotFoundException e) {
+          throw new ClassNotFoundException("Superclass not found for " + clazz.getName(), e);
+        }
       }
-      methodMap.put(key, method);
+      methods = MethodTable.extend(superMethods, clazz.getClassFile2());
+      classFileMethodTables.put(clazz.getName(), methods);
+    }
+    return methods;
+  }
+
+  /**
+   * Drops the method table read from the class file of {@code className}, once the class has been
+   * removed from this generator's ClassPool. It is read again if it is needed later.
+   */
+  void forgetMethodTable(String className) {
+    classFileMethodTables.remove(className);
+  }
+
+  /**
+   * @return the number of method tables read from class files which this generator keeps.
+   */
+  int getMethodTableCount() {
+    return classFileMethodTables.size();
+  }
+
+  private boolean isMockable(MethodTable.Entry entry) {
+    if (entry.method != null) {
+      return isMockable(entry.method);
+    }
+    if (entry.key.equals("equals(Ljava/lang/Object;)") || entry.key.equals("toString()")
+        || entry.key.equals("hashCode()")) {
+      return false;
     }
-    return methodMap;
+    int modifiers = entry.modifiers;
+    return !Modifier.isFinal(modifiers) && !Modifier.isStatic(modifiers) && !entry.isBridge()
+        && !Modifier.isPrivate(modifiers);
   }
 
   boolean isMockable(Method method) {
@@ -444,15 +887,84 @@ class AndroidMockGenerator {
     return methodBody.toString();
   }
 
+  /**
+   * Returns the source of a subclass method which passes its call to the mock's
+   * {@link MockDispatcher}, identifying itself by {@code methodId}. If the delegate is not an
+   * EasyMock mock there is no dispatcher and the delegate is called directly.
+   */
+  String getDirectDispatchMethodSource(Method method, int methodId) {
+    Class<?>[] paramTypes = method.getParameterTypes();
+    Class<?> returnType = method.getReturnType();
+    String dispatcher = "this." + getDispatcherFieldName();
+    StringBuilder methodBody = getMethodSignature(method);
+    methodBody.append("{");
+    methodBody.append("if(this.");
+    methodBody.append(getDelegateFieldName());
+    methodBody.append("==null){return ");
+    methodBody.append(getReturnDefault(method));
+    methodBody.append(";}");
+    methodBody.append("if(").append(dispatcher).append("==null){");
+    if (!returnType.equals(Void.TYPE)) {
+      methodBody.append("return ");
+    }
+    methodBody.append("this.").append(getDelegateFieldName()).append(".");
+    methodBody.append(method.getName()).append("(");
+    for (int i = 0; i < paramTypes.length; ++i) {
+      methodBody.append("arg").append(i);
+      if (i < paramTypes.length - 1) {
+        methodBody.append(",");
+      }
+    }
+    methodBody.append(");");
+    if (returnType.equals(Void.TYPE)) {
+      methodBody.append("return;");
+    }
+    methodBody.append("}");
+    StringBuilder call = new StringBuilder();
+    if (paramTypes.length == 0) {
+      call.append(dispatcher).append(".invoke(").append(methodId).append(")");
+    } else {
+      methodBody.append("Object[] args=new Object[").append(paramTypes.length).append("];");
+      for (int i = 0; i < paramTypes.length; ++i) {
+        methodBody.append("args[").append(i).append("]=");
+        methodBody.append(getBoxingSource(paramTypes[i], "arg" + i)).append(";");
+      }
+      call.append(dispatcher).append(".invoke(").append(methodId).append(",args)");
+    }
+    if (returnType.equals(Void.TYPE)) {
+      methodBody.append(call).append(";");
+    } else if (returnType.isPrimitive()) {
+      methodBody.append("return ").append(MockDispatcher.class.getName()).append("#");
+      methodBody.append(returnType.getName()).append("Value(").append(call).append(");");
+    } else {
+      methodBody.append("return (").append(getClassName(returnType)).append(")");
+      methodBody.append(call).append(";");
+    }
+    methodBody.append("}");
+    return methodBody.toString();
+  }
+
+  private String getBoxingSource(Class<?> type, String arg) {
+    if (type.isPrimitive()) {
+      return MockDispatcher.class.getName() + "#box(" + arg + ")";
+    }
+    return "(Object)" + arg;
+  }
+
   CtClass generateSkeletalClass(Class<?> superClass, CtClass newInterface)
       throws ClassNotFoundException {
+    return generateSkeletalClass(getCtClassForClass(superClass), newInterface);
+  }
+
+  private CtClass generateSkeletalClass(CtClass superCtClass, CtClass newInterface)
+      throws ClassNotFoundException {
     ClassPool classPool = getClassPool();
-    CtClass superCtClass = getCtClassForClass(superClass);
-    String subclassName = FileUtils.getSubclassNameFor(superClass);
+    String subclassName = FileUtils.getSubclassNameFor(superCtClass.getName());
 
     CtClass newClass;
     try {
       newClass = classPool.makeClass(subclassName, superCtClass);
+      keepIfLoadable(newClass);
     } catch (RuntimeException e) {
       if (e.getMessage().contains("frozen class")) {
         try {
@@ -466,10 +978,33 @@ class AndroidMockGenerator {
 
     try {
       newClass.addField(new CtField(newInterface, getDelegateFieldName(), newClass));
+      if (directDispatch) {
+        newClass.addField(new CtField(classPool.get(MockDispatcher.class.getName()),
+            getDispatcherFieldName(), newClass));
+      }
+    } catch (NotFoundException e) {
+      throw new ClassNotFoundException("Could not find " + MockDispatcher.class.getName(), e);
     } catch (CannotCompileException e) {
       throw new RuntimeException("Internal error adding the delegate field to "
           + newClass.getName(), e);
     }
     return newClass;
   }
+
+  /**
+   * A ClassPool which only holds the mocks it has generated itself, for {@link #forModel}.
+   */
+  private static class ModelClassPool extends ClassPool {
+    ModelClassPool() {
+      super(true);
+    }
+
+    @Override
+    protected CtClass createCtClass(String className, boolean useCache) {
+      if (className.startsWith("genmocks.")) {
+        return null;
+      }
+      return super.createCtClass(className, useCache);
+    }
+  }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import org.easymock.ConstructorArgs;
+import org.easymock.IMocksControl;
+
+import java.lang.reflect.Method;
+
+/**
+ * An {@link IMocksControl} which can create class mocks as well as interface mocks.
+ *
+ * The DelegateInterface mock behind each class mock is created by the wrapped control, so every
+ * mock created through this control is replayed, verified and reset together with the others,
+ * and a strict control checks the order of calls across all of them.
+ *
+ * Partial mocking is not supported for classes, so the methods which take a list of methods to
+ * mock only accept an empty list for classes.
+ */
+class AndroidMocksControl implements IMocksControl {
+  private final IMocksControl control;
+
+  AndroidMocksControl(IMocksControl control) {
+    this.control = control;
+  }
+
+  public <T> T createMock(Class<T> toMock) {
+    return createMock(null, toMock);
+  }
+
+  public <T> T createMock(String name, Class<T> toMock) {
+    if (toMock.isInterface()) {
+      return control.createMock(name, toMock);
+    }
+    return createClassMock(name, toMock, new Object[0]);
+  }
+
+  @Deprecated
+  public <T> T createMock(Class<T> toMock, Method... mockedMethods) {
+    return createMock(null, toMock, mockedMethods);
+  }
+
+  @Deprecated
+  public <T> T createMock(String name, Class<T> toMock, Method... mockedMethods) {
+    if (toMock.isInterface()) {
+      return control.createMock(name, toMock, mockedMethods);
+    }
+    checkNotPartial(toMock, mockedMethods);
+    return createClassMock(name, toMock, new Object[0]);
+  }
+
+  @Deprecated
+  public <T> T createMock(Class<T> toMock, ConstructorArgs constructorArgs,
+      Method... mockedMethods) {
+    return createMock(null, toMock, constructorArgs, mockedMethods);
+  }
+
+  @Deprecated
+  public <T> T createMock(String name, Class<T> toMock, ConstructorArgs constructorArgs,
+      Method... mockedMethods) {
+    if (toMock.isInterface()) {
+      return control.createMock(name, toMock, constructorArgs, mockedMethods);
+    }
+    checkNotPartial(toMock, mockedMethods);
+    if (constructorArgs.getConstructor() == null) {
+      return createClassMock(name, toMock, constructorArgs.getInitArgs());
+    }
+    // The caller's choice of constructor is kept even where the arguments would match another.
+    MockClassInfo<T> mockClassInfo = MockClassInfo.forClass(toMock);
+    Object mockedInterface = control.createMock(name, mockClassInfo.getDelegateInterface());
+    return mockClassInfo.newMock(mockedInterface, constructorArgs.getConstructor(),
+        constructorArgs.getInitArgs());
+  }
+
+  private <T> T createClassMock(String name, Class<T> toMock, Object[] args) {
+    MockClassInfo<T> mockClassInfo = MockClassInfo.forClass(toMock);
+    Object mockedInterface = control.createMock(name, mockClassInfo.getDelegateInterface());
+    return mockClassInfo.newMock(mockedInterface, args);
+  }
+
+  private void checkNotPartial(Class<?> toMock, Method[] mockedMethods) {
+    if (mockedMethods.length != 0) {
+      throw new UnsupportedOperationException("Partial mocking is not supported for classes: "
+          + toMock.getName());
+    }
+  }
+
+  public void reset() {
+    control.reset();
+  }
+
+  public void resetToNice() {
+    control.resetToNice();
+  }
+
+  public void resetToDefault() {
+    control.resetToDefault();
+  }
+
+  public void resetToStrict() {
+    control.resetToStrict();
+  }
+
+  public void replay() {
+    control.replay();
+  }
+
+  public void verify() {
+    control.verify();
+  }
+
+  public void checkOrder(boolean state) {
+    control.checkOrder(state);
+  }
+
+  public void makeThreadSafe(boolean threadSafe) {
+    control.makeThreadSafe(threadSafe);
+  }
+
+  public void checkIsUsedInOneThread(boolean shouldBeUsedInOneThread) {
+    control.checkIsUsedInOneThread(shouldBeUsedInOneThread);
+  }
+}
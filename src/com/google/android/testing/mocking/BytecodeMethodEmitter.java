@@ -0,0 +1,340 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import javassist.CannotCompileException;
+import javassist.CtClass;
+import javassist.CtMethod;
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.ExceptionsAttribute;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the methods of the generated interfaces and subclasses directly as bytecode.
+ *
+ * This produces the same methods as the Java source built by {@link AndroidMockGenerator}, but
+ * works from JVM method descriptors alone: nothing is parsed or compiled, and the parameter and
+ * return types do not need to be loaded into the ClassPool.
+ */
+class BytecodeMethodEmitter {
+  private static final String DISPATCHER = MockDispatcher.class.getName();
+  private static final String OBJECT_DESCRIPTOR = "Ljava/lang/Object;";
+
+  private BytecodeMethodEmitter() {
+  }
+
+  /**
+   * Makes an abstract interface method.
+   *
+   * @param declaring the interface which will declare the method.
+   * @param name the method name.
+   * @param descriptor the JVM descriptor of the method.
+   * @param exceptions the names of the exceptions the method declares.
+   */
+  static CtMethod makeInterfaceMethod(CtClass declaring, String name, String descriptor,
+      String[] exceptions) throws CannotCompileException {
+    MethodInfo method = newMethodInfo(declaring, name, descriptor, exceptions);
+    method.setAccessFlags(AccessFlag.PUBLIC | AccessFlag.ABSTRACT);
+    return CtMethod.make(method, declaring);
+  }
+
+  /**
+   * Makes a subclass method which returns the default value for its return type if
+   * {@code delegateField} is null and otherwise calls the method of the same name and descriptor
+   * on the delegate.
+   *
+   * @param declaring the subclass which will declare the method.
+   * @param delegateField the name of the subclass field holding the delegate.
+   * @param delegateInterface the name of the type of {@code delegateField}.
+   */
+  static CtMethod makeDelegateMethod(CtClass declaring, String delegateField,
+      String delegateInterface, String name, String descriptor, String[] exceptions)
+      throws CannotCompileException {
+    MethodInfo method = newMethodInfo(declaring, name, descriptor, exceptions);
+    method.setAccessFlags(AccessFlag.PUBLIC);
+    Signature signature = new Signature(descriptor);
+    Bytecode code = new Bytecode(method.getConstPool());
+    addDelegateNullCheck(code, declaring, delegateField, delegateInterface, signature);
+    addDelegateCall(code, declaring, delegateField, delegateInterface, name, descriptor, signature);
+    return makeMethod(method, code, signature, declaring);
+  }
+
+  /**
+   * Makes a subclass method which passes its call to the {@link MockDispatcher} held in
+   * {@code dispatcherField}, identifying itself by {@code methodId}. If there is no dispatcher
+   * the method behaves as one made by {@link #makeDelegateMethod}.
+   */
+  static CtMethod makeDirectDispatchMethod(CtClass declaring, String delegateField,
+      String delegateInterface, String dispatcherField, int methodId, String name,
+      String descriptor, String[] exceptions) throws CannotCompileException {
+    MethodInfo method = newMethodInfo(declaring, name, descriptor, exceptions);
+    method.setAccessFlags(AccessFlag.PUBLIC);
+    Signature signature = new Signature(descriptor);
+    String dispatcherDescriptor = "L" + toJvmName(DISPATCHER) + ";";
+    Bytecode code = new Bytecode(method.getConstPool());
+    addDelegateNullCheck(code, declaring, delegateField, delegateInterface, signature);
+
+    code.addAload(0);
+    code.addGetfield(declaring, dispatcherField, dispatcherDescriptor);
+    int branch = addIfNonNull(code);
+    addDelegateCall(code, declaring, delegateField, delegateInterface, name, descriptor, signature);
+    setBranchTarget(code, branch);
+
+    code.addAload(0);
+    code.addGetfield(declaring, dispatcherField, dispatcherDescriptor);
+    code.addIconst(methodId);
+    String[] params = signature.params;
+    StringBuilder invokeDescriptor = new StringBuilder("(I");
+    if (params.length > 0) {
+      code.addIconst(params.length);
+      code.addAnewarray("java.lang.Object");
+      int slot = 1;
+      for (int i = 0; i < params.length; ++i) {
+        code.addOpcode(Opcode.DUP);
+        code.addIconst(i);
+        slot += addLoadAndBox(code, params[i], slot);
+        code.addOpcode(Opcode.AASTORE);
+      }
+      invokeDescriptor.append("[").append(OBJECT_DESCRIPTOR);
+    }
+    invokeDescriptor.append(")").append(OBJECT_DESCRIPTOR);
+    code.addInvokevirtual(DISPATCHER, "invoke", invokeDescriptor.toString());
+
+    String returnType = signature.returnType;
+    char kind = returnType.charAt(0);
+    if (kind == 'V') {
+      code.addOpcode(Opcode.POP);
+    } else if (kind == 'L' || kind == '[') {
+      code.addCheckcast(kind == 'L' ? returnType.substring(1, returnType.length() - 1)
+          : returnType);
+    } else {
+      code.addInvokestatic(DISPATCHER, getPrimitiveName(kind) + "Value",
+          "(" + OBJECT_DESCRIPTOR + ")" + returnType);
+    }
+    code.addOpcode(getReturnOpcode(returnType));
+    return makeMethod(method, code, signature, declaring);
+  }
+
+  private static MethodInfo newMethodInfo(CtClass declaring, String name, String descriptor,
+      String[] exceptions) {
+    ConstPool constPool = declaring.getClassFile2().getConstPool();
+    MethodInfo method = new MethodInfo(constPool, name, descriptor);
+    if (exceptions.length > 0) {
+      ExceptionsAttribute exceptionsAttribute = new ExceptionsAttribute(constPool);
+      exceptionsAttribute.setExceptions(exceptions);
+      method.setExceptionsAttribute(exceptionsAttribute);
+    }
+    return method;
+  }
+
+  private static CtMethod makeMethod(MethodInfo method, Bytecode code, Signature signature,
+      CtClass declaring) throws CannotCompileException {
+    code.setMaxLocals(signature.parameterSlots + 1);
+    method.setCodeAttribute(code.toCodeAttribute());
+    return CtMethod.make(method, declaring);
+  }
+
+  /**
+   * Adds: {@code if (this.delegateField == null) { return <default>; }}
+   */
+  private static void addDelegateNullCheck(Bytecode code, CtClass declaring, String delegateField,
+      String delegateInterface, Signature signature) {
+    code.addAload(0);
+    code.addGetfield(declaring, delegateField, "L" + toJvmName(delegateInterface) + ";");
+    int branch = addIfNonNull(code);
+    addDefaultValue(code, signature.returnType);
+    code.addOpcode(getReturnOpcode(signature.returnType));
+    setBranchTarget(code, branch);
+  }
+
+  /**
+   * Adds: {@code return this.delegateField.name(arg0, ...);}
+   */
+  private static void addDelegateCall(Bytecode code, CtClass declaring, String delegateField,
+      String delegateInterface, String name, String descriptor, Signature signature) {
+    code.addAload(0);
+    code.addGetfield(declaring, delegateField, "L" + toJvmName(delegateInterface) + ";");
+    int slot = 1;
+    for (String param : signature.params) {
+      addLoad(code, param, slot);
+      slot += getSlotSize(param);
+    }
+    code.addInvokeinterface(delegateInterface, name, descriptor, signature.parameterSlots + 1);
+    code.addOpcode(getReturnOpcode(signature.returnType));
+  }
+
+  /**
+   * Adds an IFNONNULL instruction and returns its position, for {@link #setBranchTarget}.
+   */
+  private static int addIfNonNull(Bytecode code) {
+    int position = code.currentPc();
+    code.addOpcode(Opcode.IFNONNULL);
+    code.addIndex(0);
+    return position;
+  }
+
+  /**
+   * Makes the branch at {@code position} jump to the next instruction to be added.
+   */
+  private static void setBranchTarget(Bytecode code, int position) {
+    code.write16bit(position + 1, code.currentPc() - position);
+    // Every path before the target has returned.
+    code.setStackDepth(0);
+  }
+
+  private static int addLoadAndBox(Bytecode code, String type, int slot) {
+    addLoad(code, type, slot);
+    char kind = type.charAt(0);
+    if (kind != 'L' && kind != '[') {
+      code.addInvokestatic(DISPATCHER, "box", "(" + type + ")" + OBJECT_DESCRIPTOR);
+    }
+    return getSlotSize(type);
+  }
+
+  private static void addLoad(Bytecode code, String type, int slot) {
+    switch (type.charAt(0)) {
+      case 'J':
+        code.addLload(slot);
+        break;
+      case 'F':
+        code.addFload(slot);
+        break;
+      case 'D':
+        code.addDload(slot);
+        break;
+      case 'L':
+      case '[':
+        code.addAload(slot);
+        break;
+      default:
+        code.addIload(slot);
+    }
+  }
+
+  private static void addDefaultValue(Bytecode code, String type) {
+    switch (type.charAt(0)) {
+      case 'V':
+        break;
+      case 'J':
+        code.addOpcode(Opcode.LCONST_0);
+        break;
+      case 'F':
+        code.addOpcode(Opcode.FCONST_0);
+        break;
+      case 'D':
+        code.addOpcode(Opcode.DCONST_0);
+        break;
+      case 'L':
+      case '[':
+        code.addOpcode(Opcode.ACONST_NULL);
+        break;
+      default:
+        code.addOpcode(Opcode.ICONST_0);
+    }
+  }
+
+  private static int getReturnOpcode(String type) {
+    switch (type.charAt(0)) {
+      case 'V':
+        return Opcode.RETURN;
+      case 'J':
+        return Opcode.LRETURN;
+      case 'F':
+        return Opcode.FRETURN;
+      case 'D':
+        return Opcode.DRETURN;
+      case 'L':
+      case '[':
+        return Opcode.ARETURN;
+      default:
+        return Opcode.IRETURN;
+    }
+  }
+
+  private static int getSlotSize(String type) {
+    char kind = type.charAt(0);
+    return kind == 'J' || kind == 'D' ? 2 : 1;
+  }
+
+  private static String getPrimitiveName(char kind) {
+    switch (kind) {
+      case 'Z':
+        return "boolean";
+      case 'B':
+        return "byte";
+      case 'C':
+        return "char";
+      case 'S':
+        return "short";
+      case 'I':
+        return "int";
+      case 'J':
+        return "long";
+      case 'F':
+        return "float";
+      case 'D':
+        return "double";
+      default:
+        throw new IllegalArgumentException("Not a primitive type: " + kind);
+    }
+  }
+
+  private static String toJvmName(String className) {
+    return className.replace('.', '/');
+  }
+
+  /**
+   * A method descriptor split into its parameter and return type descriptors.
+   */
+  private static class Signature {
+    final String[] params;
+    final String returnType;
+    final int parameterSlots;
+
+    Signature(String descriptor) {
+      List<String> paramList = new ArrayList<String>();
+      int slots = 0;
+      int i = 1;
+      while (descriptor.charAt(i) != ')') {
+        int end = getTypeEnd(descriptor, i);
+        String param = descriptor.substring(i, end);
+        paramList.add(param);
+        slots += getSlotSize(param);
+        i = end;
+      }
+      params = paramList.toArray(new String[paramList.size()]);
+      returnType = descriptor.substring(i + 1);
+      parameterSlots = slots;
+    }
+
+    private static int getTypeEnd(String descriptor, int start) {
+      int i = start;
+      while (descriptor.charAt(i) == '[') {
+        i++;
+      }
+      if (descriptor.charAt(i) == 'L') {
+        i = descriptor.indexOf(';', i);
+      }
+      return i + 1;
+    }
+  }
+}
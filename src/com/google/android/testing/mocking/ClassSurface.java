@@ -0,0 +1,95 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import javassist.CtClass;
+import javassist.NotFoundException;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ExceptionsAttribute;
+import javassist.bytecode.MethodInfo;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Computes fingerprints of the signature surface of a class: everything about the class and its
+ * superclasses which the generated mocks depend on.
+ *
+ * The surface of a class consists of its name and access flags, its constructors, and the name,
+ * descriptor, access flags and declared exceptions of every method of the class and of each of
+ * its superclasses, in class file order. Method bodies, fields, annotations and debugging
+ * information are not part of it. Two classes with the same fingerprint, mocked by generators
+ * with the same configuration, get identical mocks, so the mocks generated for one API level can
+ * be reused for any other level in which the surface of the class is unchanged.
+ */
+class ClassSurface {
+  private ClassSurface() {
+  }
+
+  /**
+   * Returns the fingerprint of the surface of {@code clazz}, read from the class files of the
+   * class and its superclasses.
+   *
+   * @param generatorConfiguration the configuration of the generator which mocks the class, as
+   *        returned by {@link AndroidMockGenerator#getConfiguration()}.
+   */
+  static String getFingerprint(CtClass clazz, String generatorConfiguration)
+      throws NotFoundException {
+    MessageDigest digest = FileUtils.newSha1Digest();
+    update(digest, generatorConfiguration);
+    boolean mockedClass = true;
+    for (CtClass type = clazz; type != null; type = type.getSuperclass()) {
+      ClassFile classFile = type.getClassFile2();
+      update(digest, type.getName());
+      update(digest, Integer.toString(classFile.getAccessFlags()));
+      @SuppressWarnings("unchecked")
+      List<MethodInfo> methods = classFile.getMethods();
+      for (MethodInfo method : methods) {
+        // Only the mocked class's own constructors are copied into the generated subclass.
+        if (method.isStaticInitializer() || (!mockedClass && method.isConstructor())) {
+          continue;
+        }
+        update(digest, method.getName());
+        update(digest, method.getDescriptor());
+        update(digest, Integer.toString(method.getAccessFlags()));
+        ExceptionsAttribute exceptionsAttribute = method.getExceptionsAttribute();
+        String[] exceptions =
+            exceptionsAttribute == null ? null : exceptionsAttribute.getExceptions();
+        update(digest, Integer.toString(exceptions == null ? 0 : exceptions.length));
+        if (exceptions != null) {
+          for (String exception : exceptions) {
+            update(digest, exception);
+          }
+        }
+      }
+      mockedClass = false;
+      if (type.getName().equals(Object.class.getName())) {
+        break;
+      }
+    }
+    return FileUtils.sha1Hex(digest);
+  }
+
+  private static void update(MessageDigest digest, String value) {
+    try {
+      digest.update(value.getBytes("UTF-8"));
+    } catch (UnsupportedEncodingException e) {
+      throw new RuntimeException("Internal error - UTF-8 is not supported", e);
+    }
+    digest.update((byte) 0);
+  }
+}
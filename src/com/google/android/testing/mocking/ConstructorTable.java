@@ -0,0 +1,291 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Selects the constructor of a class to call for a given list of arguments.
+ *
+ * The parameter types of every constructor are read once and each primitive parameter is reduced
+ * to a type ordinal, so that checking whether a boxed argument can be passed to it is a lookup in
+ * a widening matrix. Resolved constructors are memoized by the runtime classes of the arguments;
+ * looking up a memoized constructor costs O(args) and does not allocate.
+ *
+ * A constructor whose parameters exactly match the arguments is preferred. Otherwise the last
+ * constructor whose parameters are compatible with the arguments is chosen.
+ */
+class ConstructorTable<T> {
+  private static final int REFERENCE = -1;
+  private static final int BOOLEAN = 0;
+  private static final int BYTE = 1;
+  private static final int CHAR = 2;
+  private static final int SHORT = 3;
+  private static final int INT = 4;
+  private static final int LONG = 5;
+  private static final int FLOAT = 6;
+  private static final int DOUBLE = 7;
+
+  /**
+   * WIDENS[to][from] is true if a boxed value of primitive type {@code from} may be passed as a
+   * constructor argument of primitive type {@code to}.
+   */
+  private static final boolean[][] WIDENS = new boolean[8][8];
+  static {
+    allowWidening(BOOLEAN, BOOLEAN);
+    allowWidening(BYTE, BYTE);
+    allowWidening(SHORT, BYTE, SHORT, CHAR);
+    allowWidening(CHAR, BYTE, SHORT, INT, CHAR);
+    allowWidening(INT, BYTE, SHORT, INT, CHAR);
+    allowWidening(LONG, BYTE, SHORT, INT, LONG, CHAR);
+    allowWidening(FLOAT, BYTE, SHORT, INT, CHAR, FLOAT);
+    allowWidening(DOUBLE, BYTE, SHORT, INT, LONG, CHAR, FLOAT, DOUBLE);
+  }
+
+  /** Resolved argument signatures beyond this many are not memoized. */
+  private static final int MAX_MEMOIZED = 64;
+
+  private final Class<?> clazz;
+  private final Constructor<T>[] constructors;
+  private final Class<?>[][] paramTypes;
+  private final int[][] paramKinds;
+  private volatile Entry[] memo = new Entry[8];
+  private int memoized;
+
+  /**
+   * @param clazz the class declaring {@code constructors}, used in error messages.
+   * @param constructors the candidate constructors. The index of a constructor in this array is
+   *        what {@link #resolve} returns.
+   */
+  ConstructorTable(Class<?> clazz, Constructor<T>[] constructors) {
+    this.clazz = clazz;
+    this.constructors = constructors;
+    paramTypes = new Class<?>[constructors.length][];
+    paramKinds = new int[constructors.length][];
+    for (int i = 0; i < constructors.length; ++i) {
+      paramTypes[i] = constructors[i].getParameterTypes();
+      paramKinds[i] = new int[paramTypes[i].length];
+      for (int j = 0; j < paramTypes[i].length; ++j) {
+        paramKinds[i][j] = getPrimitiveOrdinal(paramTypes[i][j]);
+      }
+    }
+  }
+
+  Constructor<T> getConstructor(int index) {
+    return constructors[index];
+  }
+
+  /**
+   * Returns the index of the constructor whose parameter types are {@code parameterTypes}.
+   *
+   * @throws IllegalArgumentException if there is no such constructor.
+   */
+  int indexOf(Class<?>[] parameterTypes) {
+    for (int i = 0; i < constructors.length; ++i) {
+      if (Arrays.equals(paramTypes[i], parameterTypes)) {
+        return i;
+      }
+    }
+    throw new IllegalArgumentException("Could not find the specified Constructor: "
+        + clazz.getName() + "(" + Arrays.asList(parameterTypes) + ")");
+  }
+
+  /**
+   * Returns the index of the constructor to call with {@code args}.
+   *
+   * @throws IllegalArgumentException if no constructor can be called with {@code args}.
+   */
+  int resolve(Object[] args) {
+    int hash = hash(args);
+    Entry[] table = memo;
+    int mask = table.length - 1;
+    for (int i = hash & mask; table[i] != null; i = (i + 1) & mask) {
+      if (table[i].hash == hash && table[i].matches(args)) {
+        return table[i].constructor;
+      }
+    }
+    int constructor = select(args);
+    memoize(hash, args, constructor);
+    return constructor;
+  }
+
+  private int select(Object[] args) {
+    int compatibleConstructor = -1;
+    for (int i = 0; i < constructors.length; ++i) {
+      int[] kinds = paramKinds[i];
+      if (kinds.length != args.length) {
+        continue;
+      }
+      boolean exactMatch = true;
+      boolean compatibleMatch = true;
+      for (int j = 0; j < kinds.length && compatibleMatch; ++j) {
+        Object arg = args[j];
+        if (kinds[j] == REFERENCE) {
+          compatibleMatch = arg == null || paramTypes[i][j].isAssignableFrom(arg.getClass());
+        } else {
+          int argKind = arg == null ? REFERENCE : getBoxedOrdinal(arg.getClass());
+          compatibleMatch = argKind != REFERENCE && WIDENS[kinds[j]][argKind];
+          exactMatch &= kinds[j] == argKind;
+        }
+      }
+      if (compatibleMatch) {
+        if (exactMatch) {
+          return i;
+        }
+        compatibleConstructor = i;
+      }
+    }
+    if (compatibleConstructor != -1) {
+      return compatibleConstructor;
+    }
+    List<String> argTypes = new ArrayList<String>(args.length);
+    for (Object arg : args) {
+      argTypes.add(arg == null ? "<null>" : arg.getClass().toString());
+    }
+    throw new IllegalArgumentException("Could not find the specified Constructor: "
+        + clazz.getName() + "(" + argTypes + ")");
+  }
+
+  private synchronized void memoize(int hash, Object[] args, int constructor) {
+    if (memoized >= MAX_MEMOIZED) {
+      return;
+    }
+    Entry[] table = memo;
+    int length = (memoized + 1) * 2 > table.length ? table.length * 2 : table.length;
+    Entry[] newTable = new Entry[length];
+    for (Entry entry : table) {
+      if (entry != null) {
+        insert(newTable, entry);
+      }
+    }
+    insert(newTable, new Entry(hash, args, constructor));
+    memoized++;
+    memo = newTable;
+  }
+
+  private static void insert(Entry[] table, Entry entry) {
+    int mask = table.length - 1;
+    int i = entry.hash & mask;
+    while (table[i] != null) {
+      i = (i + 1) & mask;
+    }
+    table[i] = entry;
+  }
+
+  private static int hash(Object[] args) {
+    int hash = args.length;
+    for (Object arg : args) {
+      hash = hash * 31 + (arg == null ? 0 : System.identityHashCode(arg.getClass()));
+    }
+    return hash ^ (hash >>> 16);
+  }
+
+  /**
+   * Returns true if a boxed {@code arg} may be passed as a parameter of primitive type
+   * {@code primitive}, either exactly or, if {@code exactMatch} is false, by widening.
+   */
+  static boolean isUnboxableTo(Class<?> primitive, Object arg, boolean exactMatch) {
+    int to = getPrimitiveOrdinal(primitive);
+    int from = getBoxedOrdinal(arg.getClass());
+    if (from == REFERENCE) {
+      return false;
+    }
+    return exactMatch ? to == from : WIDENS[to][from];
+  }
+
+  private static int getPrimitiveOrdinal(Class<?> type) {
+    if (!type.isPrimitive()) {
+      return REFERENCE;
+    } else if (type == Integer.TYPE) {
+      return INT;
+    } else if (type == Long.TYPE) {
+      return LONG;
+    } else if (type == Boolean.TYPE) {
+      return BOOLEAN;
+    } else if (type == Double.TYPE) {
+      return DOUBLE;
+    } else if (type == Float.TYPE) {
+      return FLOAT;
+    } else if (type == Character.TYPE) {
+      return CHAR;
+    } else if (type == Short.TYPE) {
+      return SHORT;
+    } else if (type == Byte.TYPE) {
+      return BYTE;
+    }
+    throw new IllegalArgumentException("Internal Error - " + type + " cannot be a parameter type");
+  }
+
+  private static int getBoxedOrdinal(Class<?> type) {
+    if (type == Integer.class) {
+      return INT;
+    } else if (type == Long.class) {
+      return LONG;
+    } else if (type == Boolean.class) {
+      return BOOLEAN;
+    } else if (type == Double.class) {
+      return DOUBLE;
+    } else if (type == Float.class) {
+      return FLOAT;
+    } else if (type == Character.class) {
+      return CHAR;
+    } else if (type == Short.class) {
+      return SHORT;
+    } else if (type == Byte.class) {
+      return BYTE;
+    }
+    return REFERENCE;
+  }
+
+  private static void allowWidening(int to, int... from) {
+    for (int type : from) {
+      WIDENS[to][type] = true;
+    }
+  }
+
+  /**
+   * A memoized constructor and the runtime argument types it was resolved for.
+   */
+  private static class Entry {
+    final int hash;
+    final int constructor;
+    private final Class<?>[] argTypes;
+
+    Entry(int hash, Object[] args, int constructor) {
+      this.hash = hash;
+      this.constructor = constructor;
+      argTypes = new Class<?>[args.length];
+      for (int i = 0; i < args.length; ++i) {
+        argTypes[i] = args[i] == null ? null : args[i].getClass();
+      }
+    }
+
+    boolean matches(Object[] args) {
+      if (args.length != argTypes.length) {
+        return false;
+      }
+      for (int i = 0; i < args.length; ++i) {
+        if ((args[i] == null ? null : args[i].getClass()) != argTypes[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import javassist.ClassPath;
+import javassist.NotFoundException;
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.DuplicateMemberException;
+import javassist.bytecode.ExceptionsAttribute;
+import javassist.bytecode.MethodInfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.Set;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * A javassist class path which describes classes from javac's model of them, so that mocks can
+ * be generated for classes which the annotation processor cannot load, including classes compiled
+ * in the same javac invocation.
+ *
+ * For each class, it supplies a stub class file built from the class's {@link TypeElement}: the
+ * class's name, access flags, superclass and interfaces, and the name, descriptor, access flags
+ * and declared exceptions of each of its constructors and methods. The stubs have no code, fields
+ * or attributes; they hold exactly what
+ * {@link AndroidMockGenerator#createMocksForClass(javassist.CtClass)} reads, and are never
+ * written out or loaded. Generated mocks are never described, so that mocks left by an earlier
+ * build are generated again rather than taken for the classes they mock.
+ */
+class ElementClassPath implements ClassPath {
+  private final Elements elements;
+  private final Types types;
+
+  ElementClassPath(Elements elements, Types types) {
+    this.elements = elements;
+    this.types = types;
+  }
+
+  public InputStream openClassfile(String className) throws NotFoundException {
+    TypeElement type = getTypeElement(className);
+    if (type == null) {
+      return null;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try {
+      DataOutputStream output = new DataOutputStream(bytes);
+      makeClassFile(type).write(output);
+      output.flush();
+    } catch (IOException e) {
+      throw new NotFoundException("Could not describe " + className, e);
+    } catch (IllegalArgumentException e) {
+      throw new NotFoundException("Could not describe " + className + ": " + e.getMessage());
+    }
+    return new ByteArrayInputStream(bytes.toByteArray());
+  }
+
+  public URL find(String className) {
+    if (getTypeElement(className) == null) {
+      return null;
+    }
+    try {
+      return new URL("file:/ElementClassPath/" + className.replace('.', '/') + ".class");
+    } catch (MalformedURLException e) {
+      return null;
+    }
+  }
+
+  public void close() {
+  }
+
+  /**
+   * Returns the element for the class with the binary name {@code className}, or null if javac
+   * does not know of such a class, or it is a generated mock or {@code java.lang.Object}.
+   */
+  TypeElement getTypeElement(String className) {
+    // A ClassFile built by javassist always has a superclass, so Object is left to the other
+    // class paths.
+    if (className.startsWith("genmocks.") || className.equals(Object.class.getName())) {
+      return null;
+    }
+    TypeElement type = elements.getTypeElement(className.replace('$', '.'));
+    if (type == null || !elements.getBinaryName(type).contentEquals(className)) {
+      return null;
+    }
+    return type;
+  }
+
+  /**
+   * Builds the stub class file for {@code type}.
+   *
+   * @throws IllegalArgumentException if a type in the class's signatures cannot be resolved.
+   */
+  ClassFile makeClassFile(TypeElement type) {
+    String superClassName = null;
+    if (type.getSuperclass().getKind() == TypeKind.DECLARED) {
+      superClassName = getBinaryName(type.getSuperclass());
+    }
+    ClassFile classFile = new ClassFile(type.getKind().isInterface(),
+        elements.getBinaryName(type).toString(), superClassName);
+    classFile.setAccessFlags(classFile.getAccessFlags() | getClassAccessFlags(type));
+    for (TypeMirror superInterface : type.getInterfaces()) {
+      classFile.addInterface(getBinaryName(superInterface));
+    }
+    ConstPool constPool = classFile.getConstPool();
+    for (Element member : type.getEnclosedElements()) {
+      if (member.getKind() != ElementKind.METHOD && member.getKind() != ElementKind.CONSTRUCTOR) {
+        continue;
+      }
+      ExecutableElement executable = (ExecutableElement) member;
+      boolean isConstructor = executable.getKind() == ElementKind.CONSTRUCTOR;
+      MethodInfo method = new MethodInfo(constPool,
+          isConstructor ? MethodInfo.nameInit : executable.getSimpleName().toString(),
+          getDescriptor(type, executable));
+      method.setAccessFlags(getMethodAccessFlags(executable));
+      List<? extends TypeMirror> thrownTypes = executable.getThrownTypes();
+      if (!thrownTypes.isEmpty()) {
+        String[] exceptionNames = new String[thrownTypes.size()];
+        for (int i = 0; i < exceptionNames.length; ++i) {
+          exceptionNames[i] = getBinaryName(thrownTypes.get(i));
+        }
+        ExceptionsAttribute exceptions = new ExceptionsAttribute(constPool);
+        exceptions.setExceptions(exceptionNames);
+        method.setExceptionsAttribute(exceptions);
+      }
+      try {
+        classFile.addMethod(method);
+      } catch (DuplicateMemberException e) {
+        throw new IllegalArgumentException("Duplicate method " + method.getName()
+            + method.getDescriptor() + " in " + classFile.getName());
+      }
+    }
+    return classFile;
+  }
+
+  private int getClassAccessFlags(TypeElement type) {
+    Set<Modifier> modifiers = type.getModifiers();
+    int flags = 0;
+    // Class files only record whether a class is public; the rest is in InnerClasses attributes.
+    if (modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.PROTECTED)) {
+      flags |= AccessFlag.PUBLIC;
+    }
+    if (modifiers.contains(Modifier.FINAL)) {
+      flags |= AccessFlag.FINAL;
+    }
+    if (modifiers.contains(Modifier.ABSTRACT)) {
+      flags |= AccessFlag.ABSTRACT;
+    }
+    if (type.getKind() == ElementKind.ENUM) {
+      flags |= AccessFlag.ENUM;
+    } else if (type.getKind() == ElementKind.ANNOTATION_TYPE) {
+      flags |= AccessFlag.ANNOTATION;
+    }
+    return flags;
+  }
+
+  private int getMethodAccessFlags(ExecutableElement executable) {
+    Set<Modifier> modifiers = executable.getModifiers();
+    int flags = 0;
+    if (modifiers.contains(Modifier.PUBLIC)) {
+      flags |= AccessFlag.PUBLIC;
+    } else if (modifiers.contains(Modifier.PROTECTED)) {
+      flags |= AccessFlag.PROTECTED;
+    } else if (modifiers.contains(Modifier.PRIVATE)) {
+      flags |= AccessFlag.PRIVATE;
+    }
+    if (modifiers.contains(Modifier.STATIC)) {
+      flags |= AccessFlag.STATIC;
+    }
+    if (modifiers.contains(Modifier.FINAL)) {
+      flags |= AccessFlag.FINAL;
+    }
+    if (modifiers.contains(Modifier.SYNCHRONIZED)) {
+      flags |= AccessFlag.SYNCHRONIZED;
+    }
+    if (modifiers.contains(Modifier.NATIVE)) {
+      flags |= AccessFlag.NATIVE;
+    }
+    if (modifiers.contains(Modifier.ABSTRACT)) {
+      flags |= AccessFlag.ABSTRACT;
+    }
+    if (modifiers.contains(Modifier.STRICTFP)) {
+      flags |= AccessFlag.STRICT;
+    }
+    if (executable.isVarArgs()) {
+      flags |= AccessFlag.VARARGS;
+    }
+    return flags;
+  }
+
+  /**
+   * Returns the JVM descriptor of {@code executable}, a member of {@code type}. The constructors
+   * of inner classes take the enclosing instance as their first parameter, as javac compiles them.
+   */
+  private String getDescriptor(TypeElement type, ExecutableElement executable) {
+    StringBuilder descriptor = new StringBuilder("(");
+    if (executable.getKind() == ElementKind.CONSTRUCTOR
+        && type.getNestingKind() == NestingKind.MEMBER
+        && !type.getModifiers().contains(Modifier.STATIC)
+        && !type.getKind().isInterface() && type.getKind() != ElementKind.ENUM) {
+      descriptor.append(getDescriptor(type.getEnclosingElement().asType()));
+    }
+    for (Element parameter : executable.getParameters()) {
+      descriptor.append(getDescriptor(parameter.asType()));
+    }
+    descriptor.append(')');
+    descriptor.append(getDescriptor(executable.getReturnType()));
+    return descriptor.toString();
+  }
+
+  private String getDescriptor(TypeMirror type) {
+    TypeMirror erasure = types.erasure(type);
+    switch (erasure.getKind()) {
+      case BOOLEAN:
+        return "Z";
+      case BYTE:
+        return "B";
+      case CHAR:
+        return "C";
+      case SHORT:
+        return "S";
+      case INT:
+        return "I";
+      case LONG:
+        return "J";
+      case FLOAT:
+        return "F";
+      case DOUBLE:
+        return "D";
+      case VOID:
+        return "V";
+      case ARRAY:
+        return "[" + getDescriptor(((ArrayType) erasure).getComponentType());
+      case DECLARED:
+        return "L" + getBinaryName(erasure).replace('.', '/') + ";";
+      default:
+        throw new IllegalArgumentException("Cannot resolve type " + type);
+    }
+  }
+
+  private String getBinaryName(TypeMirror type) {
+    TypeMirror erasure = types.erasure(type);
+    if (erasure.getKind() != TypeKind.DECLARED) {
+      throw new IllegalArgumentException("Cannot resolve type " + type);
+    }
+    return elements.getBinaryName((TypeElement) ((DeclaredType) erasure).asElement()).toString();
+  }
+}
@@ -15,10 +15,15 @@
  */
 package com.google.android.testing.mocking;
 
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 /**
  * @author swoodward@google.com (Stephen Woodward)
@@ -31,7 +36,15 @@ public class FileUtils {
    * @return the appropriate interface name for the interface mock support file.
    */
   static String getInterfaceNameFor(Class<?> clazz) {
-    return "genmocks." + clazz.getName() + "DelegateInterface";
+    return getInterfaceNameFor(clazz.getName());
+  }
+
+  /**
+   * @param className the binary name of the mocked class.
+   * @return the appropriate interface name for the interface mock support file.
+   */
+  static String getInterfaceNameFor(String className) {
+    return "genmocks." + className + "DelegateInterface";
   }
   /**
    * @param clazz
@@ -39,7 +52,31 @@ public class FileUtils {
    * @return the appropriate subclass name for the subclass mock support file.
    */
   static String getSubclassNameFor(Class<?> clazz) {
-    return "genmocks." + clazz.getName() + "DelegateSubclass";
+    return getSubclassNameFor(clazz.getName());
+  }
+
+  /**
+   * @param className the binary name of the mocked class.
+   * @return the appropriate subclass name for the subclass mock support file.
+   */
+  static String getSubclassNameFor(String className) {
+    return "genmocks." + className + "DelegateSubclass";
+  }
+
+  /**
+   * @param clazz
+   * @return the appropriate class name for the factory mock support file.
+   */
+  static String getFactoryNameFor(Class<?> clazz) {
+    return getFactoryNameFor(clazz.getName());
+  }
+
+  /**
+   * @param className the binary name of the mocked class.
+   * @return the appropriate class name for the factory mock support file.
+   */
+  static String getFactoryNameFor(String className) {
+    return "genmocks." + className + "DelegateFactory";
   }
 
   /**
@@ -67,13 +104,103 @@ public class FileUtils {
         .substring(0, filename.length() - 6);
   }
 
-  static void saveClassToFolder(GeneratedClassFile clazz, String outputFolderName)
+  /**
+   * Saves {@code clazz} as a class file under {@code outputFolderName}, unless the class file
+   * already holds the same bytes, so that an unchanged class keeps its modification time. The
+   * file is written to a temporary file which then replaces it; see {@link #replaceFile}.
+   *
+   * @return true if the class file was written, false if it was unchanged.
+   */
+  static boolean saveClassToFolder(GeneratedClassFile clazz, String outputFolderName)
       throws FileNotFoundException, IOException {
     File classFolder = new File(outputFolderName);
     File targetFile = new File(classFolder, getFilenameFor(clazz.getClassName()));
-    targetFile.getParentFile().mkdirs();
-    FileOutputStream outputStream = new FileOutputStream(targetFile);
-    outputStream.write(clazz.getContents());
-    outputStream.close();
+    byte[] contents = clazz.getContents();
+    if (targetFile.length() == contents.length && Arrays.equals(contents, readFile(targetFile))) {
+      return false;
+    }
+    File directory = targetFile.getAbsoluteFile().getParentFile();
+    directory.mkdirs();
+    File temporaryFile = File.createTempFile(targetFile.getName(), ".tmp", directory);
+    try {
+      FileOutputStream outputStream = new FileOutputStream(temporaryFile);
+      try {
+        outputStream.write(contents);
+      } finally {
+        outputStream.close();
+      }
+      replaceFile(temporaryFile, targetFile);
+    } finally {
+      temporaryFile.delete();
+    }
+    return true;
+  }
+
+  /**
+   * Replaces {@code targetFile} with {@code temporaryFile} by renaming it, so that a reader never
+   * sees a partially written file. Where a rename replaces an existing file, as on Unix, the
+   * replacement is atomic. Where it does not, as on Windows, {@code targetFile} is deleted first,
+   * so a reader may briefly find no file at all.
+   *
+   * @throws IOException if {@code temporaryFile} cannot be renamed.
+   */
+  static void replaceFile(File temporaryFile, File targetFile) throws IOException {
+    if (!temporaryFile.renameTo(targetFile)) {
+      targetFile.delete();
+      if (!temporaryFile.renameTo(targetFile)) {
+        throw new IOException("Could not replace " + targetFile);
+      }
+    }
+  }
+
+  /**
+   * @return a new SHA-1 digest.
+   */
+  static MessageDigest newSha1Digest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("Internal error - SHA-1 is not supported", e);
+    }
+  }
+
+  /**
+   * @return the SHA-1 hash of {@code contents} as lower case hex digits.
+   */
+  static String sha1Hex(byte[] contents) {
+    MessageDigest digest = newSha1Digest();
+    digest.update(contents);
+    return sha1Hex(digest);
+  }
+
+  /**
+   * Completes {@code digest}, a digest returned by {@link #newSha1Digest()}.
+   *
+   * @return the hash as lower case hex digits.
+   */
+  static String sha1Hex(MessageDigest digest) {
+    StringBuilder hash = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hash.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return hash.toString();
+  }
+
+  /**
+   * @return the contents of {@code file}, or null if it cannot be read.
+   */
+  private static byte[] readFile(File file) {
+    try {
+      byte[] contents = new byte[(int) file.length()];
+      DataInputStream input = new DataInputStream(new FileInputStream(file));
+      try {
+        input.readFully(contents);
+      } finally {
+        input.close();
+      }
+      return contents;
+    } catch (IOException e) {
+      return null;
+    }
   }
 }
@@ -0,0 +1,260 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import javassist.CannotCompileException;
+import javassist.ClassClassPath;
+import javassist.ClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.NotFoundException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Generates mocks for many classes in a private ClassPool whose memory use is bounded.
+ *
+ * The session's ClassPool is set up once, when the session is created. The classes generated for
+ * each mocked class are removed from the pool as soon as their bytecode has been returned, and of
+ * the classes read from the class path (such as the superclasses of the mocked classes) only the
+ * most recently used are kept, up to a configurable limit. The rest are read again if they are
+ * needed later, so memory use stays flat however many classes are mocked.
+ *
+ * Since the generated classes are not kept, they cannot be loaded with
+ * {@link CtClass#toClass()} afterwards; use a generator on the default ClassPool for that. A
+ * session must only be used by one thread at a time.
+ */
+class GenerationSession {
+  static final int DEFAULT_MAX_RETAINED_CLASSES = 2000;
+
+  private final SessionClassPool classPool;
+  private final AndroidMockGenerator mockGenerator;
+  private ClassPath extraClassPath;
+
+  GenerationSession() {
+    this(DEFAULT_MAX_RETAINED_CLASSES);
+  }
+
+  /**
+   * @param maxRetainedClasses the maximum number of classes read from the class path which are
+   *        kept in the session's ClassPool between calls to {@link #createMocksForClass}.
+   */
+  GenerationSession(int maxRetainedClasses) {
+    if (maxRetainedClasses < 0) {
+      throw new IllegalArgumentException("maxRetainedClasses must not be negative: "
+          + maxRetainedClasses);
+    }
+    classPool = new SessionClassPool(maxRetainedClasses);
+    classPool.insertClassPath(new ClassClassPath(MockObject.class));
+    mockGenerator = new AndroidMockGenerator(classPool);
+  }
+
+  /**
+   * Creates a session which also reads classes from {@code jarFileName}, after the classes of the
+   * generating JVM. Call {@link #close()} when the session is no longer needed, to close the jar.
+   *
+   * @see #GenerationSession(int)
+   */
+  GenerationSession(int maxRetainedClasses, String jarFileName) throws IOException {
+    this(maxRetainedClasses);
+    try {
+      extraClassPath = classPool.appendClassPath(jarFileName);
+    } catch (NotFoundException e) {
+      IOException ioException = new IOException("Cannot read " + jarFileName);
+      ioException.initCause(e);
+      throw ioException;
+    }
+  }
+
+  /**
+   * Closes the jar passed to {@link #GenerationSession(int, String)}, if any.
+   */
+  void close() {
+    if (extraClassPath != null) {
+      classPool.removeClassPath(extraClassPath);
+      extraClassPath = null;
+    }
+  }
+
+  /**
+   * Returns the generator used by this session, for configuring it.
+   */
+  AndroidMockGenerator getMockGenerator() {
+    return mockGenerator;
+  }
+
+  /**
+   * Generates the mocks for {@code clazz}, then removes the generated classes from the session's
+   * ClassPool and trims it back to its limit.
+   *
+   * @see AndroidMockGenerator#createMocksForClass(Class)
+   */
+  List<GeneratedClassFile> createMocksForClass(Class<?> clazz) throws ClassNotFoundException,
+      IOException, CannotCompileException {
+    try {
+      return release(mockGenerator.createMocksForClass(clazz));
+    } finally {
+      trim();
+    }
+  }
+
+  /**
+   * Generates the mocks for the class named {@code className} from its class file, without
+   * loading the class, then removes the generated classes from the session's ClassPool and trims
+   * it back to its limit.
+   *
+   * @see AndroidMockGenerator#createMocksForClass(CtClass)
+   */
+  List<GeneratedClassFile> createMocksForClass(String className) throws ClassNotFoundException,
+      IOException, CannotCompileException {
+    try {
+      return release(mockGenerator.createMocksForClass(getCtClass(className)));
+    } finally {
+      trim();
+    }
+  }
+
+  /**
+   * Returns the fingerprint of the signature surface of the class named {@code className}, for
+   * this session's generator.
+   *
+   * @see ClassSurface#getFingerprint
+   */
+  String getSurfaceFingerprint(String className) throws ClassNotFoundException {
+    try {
+      return ClassSurface.getFingerprint(getCtClass(className),
+          mockGenerator.getConfiguration());
+    } catch (NotFoundException e) {
+      throw new ClassNotFoundException("Superclass not found for " + className, e);
+    } finally {
+      trim();
+    }
+  }
+
+  private CtClass getCtClass(String className) throws ClassNotFoundException {
+    try {
+      return classPool.get(className);
+    } catch (NotFoundException e) {
+      throw new ClassNotFoundException("Class not found when finding the class to be mocked: "
+          + className, e);
+    }
+  }
+
+  /**
+   * Trims the session's ClassPool back to its limit, and drops the generator's method tables for
+   * the classes removed from it, so that those are bounded by the same limit.
+   */
+  private void trim() {
+    for (String className : classPool.trim()) {
+      mockGenerator.forgetMethodTable(className);
+    }
+  }
+
+  private List<GeneratedClassFile> release(List<GeneratedClassFile> mocks) {
+    for (GeneratedClassFile mock : mocks) {
+      classPool.release(mock.getClassName());
+    }
+    return mocks;
+  }
+
+  /**
+   * @return the number of classes read from the class path which are currently kept in the
+   *         session's ClassPool.
+   */
+  int getRetainedClassCount() {
+    return classPool.getRetainedClassCount();
+  }
+
+  /**
+   * @return true if the session's ClassPool currently holds a class named {@code className}.
+   */
+  boolean isRetained(String className) {
+    return classPool.isCached(className);
+  }
+
+  /**
+   * A ClassPool which keeps track of the order in which the classes it has read are used, so that
+   * the least recently used ones can be removed.
+   */
+  private static class SessionClassPool extends ClassPool {
+    private final int maxRetainedClasses;
+    private final LinkedHashMap<String, Boolean> retainedClasses =
+        new LinkedHashMap<String, Boolean>(16, 0.75f, true);
+
+    SessionClassPool(int maxRetainedClasses) {
+      super(true);
+      this.maxRetainedClasses = maxRetainedClasses;
+    }
+
+    @Override
+    protected CtClass getCached(String className) {
+      CtClass clazz = super.getCached(className);
+      if (clazz != null) {
+        // Marks the class as recently used.
+        retainedClasses.get(className);
+      }
+      return clazz;
+    }
+
+    @Override
+    protected void cacheCtClass(String className, CtClass clazz, boolean dynamic) {
+      super.cacheCtClass(className, clazz, dynamic);
+      // Classes made by the generator are released explicitly once they have been written.
+      if (!dynamic) {
+        retainedClasses.put(className, Boolean.TRUE);
+      }
+    }
+
+    @Override
+    protected CtClass removeCached(String className) {
+      retainedClasses.remove(className);
+      return super.removeCached(className);
+    }
+
+    void release(String className) {
+      removeCached(className);
+    }
+
+    /**
+     * Removes the least recently used classes read from the class path, down to the limit.
+     *
+     * @return the names of the removed classes.
+     */
+    List<String> trim() {
+      List<String> removed = new ArrayList<String>();
+      Iterator<String> leastRecentlyUsed = retainedClasses.keySet().iterator();
+      while (retainedClasses.size() > maxRetainedClasses) {
+        String className = leastRecentlyUsed.next();
+        leastRecentlyUsed.remove();
+        super.removeCached(className);
+        removed.add(className);
+      }
+      return removed;
+    }
+
+    int getRetainedClassCount() {
+      return retainedClasses.size();
+    }
+
+    boolean isCached(String className) {
+      return super.getCached(className) != null;
+    }
+  }
+}
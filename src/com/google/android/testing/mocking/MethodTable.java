@@ -0,0 +1,212 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ExceptionsAttribute;
+import javassist.bytecode.MethodInfo;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * The methods of a class and of all of its superclasses, as used to generate the mocks for the
+ * class: one method per name and parameter list, the most derived declaration winning.
+ *
+ * Tables are built once per class and shared. A class's table is built by extending its
+ * superclass's table with the class's own declared methods, so the methods of common superclasses
+ * such as {@code Object} or {@code Context} are only examined once however many of their
+ * subclasses are mocked. The JVM descriptor and exception names of each method are computed when
+ * the table is built, so the interface and subclass generation do not compute them again.
+ *
+ * The entries are sorted by method name and parameter types. The mocks are generated in that
+ * order, so they do not depend on the order in which reflection, or a class file, lists the
+ * methods, and generating the mocks of the same class twice gives the same bytes.
+ *
+ * Tables can also be built from class files alone, by {@link #extend}, so that mocks can be
+ * generated without loading the mocked classes. Such tables are not shared between ClassPools;
+ * the caller keeps them.
+ *
+ * Tables are immutable and may be used from several threads.
+ */
+class MethodTable {
+  /**
+   * The tables built by {@link #forClass}. A table's methods refer to their class, so the tables
+   * are held softly; otherwise the weak keys would never be cleared.
+   */
+  private static final Map<Class<?>, SoftReference<MethodTable>> tables =
+      new WeakHashMap<Class<?>, SoftReference<MethodTable>>();
+
+  private final Entry[] entries;
+
+  private MethodTable(Entry[] entries) {
+    this.entries = entries;
+  }
+
+  /**
+   * Returns the table for {@code clazz}, building it, and the tables of its superclasses, if
+   * necessary.
+   */
+  static MethodTable forClass(Class<?> clazz) {
+    synchronized (tables) {
+      SoftReference<MethodTable> reference = tables.get(clazz);
+      MethodTable table = reference == null ? null : reference.get();
+      if (table == null) {
+        Class<?> superClass = clazz.getSuperclass();
+        Method[] declared = clazz.getDeclaredMethods();
+        Entry[] declaredEntries = new Entry[declared.length];
+        for (int i = 0; i < declared.length; ++i) {
+          declaredEntries[i] = new Entry(declared[i]);
+        }
+        table = build(superClass == null ? null : forClass(superClass), declaredEntries);
+        tables.put(clazz, new SoftReference<MethodTable>(table));
+      }
+      return table;
+    }
+  }
+
+  /**
+   * Returns the table for the class in {@code classFile}, given the table for its superclass, or
+   * null for {@code java.lang.Object}. Nothing is loaded: the methods are read from the class
+   * file.
+   */
+  static MethodTable extend(MethodTable superTable, ClassFile classFile) {
+    @SuppressWarnings("unchecked")
+    List<MethodInfo> methods = classFile.getMethods();
+    List<Entry> declaredEntries = new ArrayList<Entry>(methods.size());
+    for (MethodInfo method : methods) {
+      // Skips constructors and static initializers, which reflection does not list as methods.
+      if (!method.getName().startsWith("<")) {
+        declaredEntries.add(new Entry(method));
+      }
+    }
+    return build(superTable, declaredEntries.toArray(new Entry[declaredEntries.size()]));
+  }
+
+  private static MethodTable build(MethodTable superTable, Entry[] declared) {
+    Entry[] inherited = superTable == null ? new Entry[0] : superTable.entries;
+    if (declared.length == 0) {
+      return new MethodTable(inherited);
+    }
+    Map<String, Entry> entryMap = new TreeMap<String, Entry>();
+    for (Entry entry : inherited) {
+      entryMap.put(entry.key, entry);
+    }
+    for (Entry entry : declared) {
+      entryMap.put(entry.key, entry);
+    }
+    return new MethodTable(entryMap.values().toArray(new Entry[entryMap.size()]));
+  }
+
+  /**
+   * @return the entries for all of the methods in the table. The array must not be modified.
+   */
+  Entry[] getEntries() {
+    return entries;
+  }
+
+  /**
+   * @return all of the methods in the table, in a new array. Only available for tables built
+   *         by {@link #forClass}.
+   */
+  Method[] getMethods() {
+    Method[] methods = new Method[entries.length];
+    for (int i = 0; i < entries.length; ++i) {
+      methods[i] = entries[i].method;
+    }
+    return methods;
+  }
+
+  /**
+   * Returns {@code entries} sorted into the order in which {@link MockDispatcher#sortMethods}
+   * sorts the corresponding methods.
+   */
+  static Entry[] sortEntries(Entry[] entries) {
+    final String[] sortKeys = new String[entries.length];
+    Integer[] order = new Integer[entries.length];
+    for (int i = 0; i < entries.length; ++i) {
+      sortKeys[i] = entries[i].name + entries[i].descriptor;
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer first, Integer second) {
+        return sortKeys[first].compareTo(sortKeys[second]);
+      }
+    });
+    Entry[] sorted = new Entry[entries.length];
+    for (int i = 0; i < order.length; ++i) {
+      sorted[i] = entries[order[i]];
+    }
+    return sorted;
+  }
+
+  /**
+   * A method in a table, with the details needed to generate its mock methods.
+   */
+  static class Entry {
+    /** The method, or null if the table was built from class files. */
+    final Method method;
+    final String name;
+    /** The method's access flags, which use the same bits as {@link java.lang.reflect.Modifier}. */
+    final int modifiers;
+    final String descriptor;
+    final String[] exceptionNames;
+    /** The method's name and parameter descriptors, which identify it within the table. */
+    final String key;
+
+    Entry(Method method) {
+      this.method = method;
+      name = method.getName();
+      modifiers = method.getModifiers();
+      descriptor = MockClassInfo.getDescriptor(method.getParameterTypes(), method.getReturnType());
+      Class<?>[] exceptionTypes = method.getExceptionTypes();
+      exceptionNames = new String[exceptionTypes.length];
+      for (int i = 0; i < exceptionTypes.length; ++i) {
+        exceptionNames[i] = exceptionTypes[i].getName();
+      }
+      key = getKey(name, descriptor);
+    }
+
+    Entry(MethodInfo method) {
+      this.method = null;
+      name = method.getName();
+      modifiers = method.getAccessFlags();
+      descriptor = method.getDescriptor();
+      ExceptionsAttribute exceptionsAttribute = method.getExceptionsAttribute();
+      String[] exceptions =
+          exceptionsAttribute == null ? null : exceptionsAttribute.getExceptions();
+      exceptionNames = exceptions == null ? new String[0] : exceptions;
+      key = getKey(name, descriptor);
+    }
+
+    private static String getKey(String name, String descriptor) {
+      return name + descriptor.substring(0, descriptor.indexOf(')') + 1);
+    }
+
+    boolean isBridge() {
+      // Reflection reports ACC_BRIDGE as the volatile bit.
+      return (modifiers & AccessFlag.BRIDGE) != 0;
+    }
+  }
+}
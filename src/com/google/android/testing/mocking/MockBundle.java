@@ -0,0 +1,124 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A bundle of the prebuilt framework mocks for several API levels, as written by
+ * {@link MockBundleWriter}.
+ *
+ * Most framework classes do not change from one API level to the next, so most of the mocks in
+ * the per-level jars are the same. A bundle stores each distinct generated class once, in a pool
+ * of entries named {@code pool/<SHA-1 of the class bytes>}. For each API level, a manifest entry
+ * named {@code levels/<api level>} maps the name of each class generated for that level to its
+ * pool entry, one {@code <class name> <SHA-1>} line per class. The size of a bundle grows with the
+ * number of distinct mocks rather than with the number of levels times the number of classes.
+ *
+ * Manifests are read on first use. A bundle may be used from several threads.
+ */
+class MockBundle {
+  static final String POOL_PREFIX = "pool/";
+  static final String LEVEL_PREFIX = "levels/";
+
+  private final ZipFile zipFile;
+  private final Map<Integer, Map<String, String>> manifests =
+      new HashMap<Integer, Map<String, String>>();
+
+  MockBundle(File bundleFile) throws IOException {
+    zipFile = new ZipFile(bundleFile);
+  }
+
+  /**
+   * Returns the mock named {@code className} generated for {@code apiLevel}, or null if there is
+   * no such mock in the bundle.
+   *
+   * @throws IOException if the bundle has no mocks for {@code apiLevel}, or cannot be read.
+   */
+  synchronized GeneratedClassFile getClass(int apiLevel, String className) throws IOException {
+    String hash = getManifest(apiLevel).get(className);
+    if (hash == null) {
+      return null;
+    }
+    ZipEntry entry = zipFile.getEntry(POOL_PREFIX + hash);
+    if (entry == null) {
+      throw new IOException("Missing pool entry " + hash + " for " + className);
+    }
+    return new GeneratedClassFile(className, read(entry));
+  }
+
+  private Map<String, String> getManifest(int apiLevel) throws IOException {
+    Map<String, String> manifest = manifests.get(apiLevel);
+    if (manifest != null) {
+      return manifest;
+    }
+    ZipEntry entry = zipFile.getEntry(LEVEL_PREFIX + apiLevel);
+    if (entry == null) {
+      throw new IOException("No mocks for API level " + apiLevel + " in " + zipFile.getName());
+    }
+    manifest = new HashMap<String, String>();
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(zipFile.getInputStream(entry), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int space = line.indexOf(' ');
+        if (space > 0) {
+          manifest.put(line.substring(0, space), line.substring(space + 1));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+    manifests.put(apiLevel, manifest);
+    return manifest;
+  }
+
+  private byte[] read(ZipEntry entry) throws IOException {
+    InputStream input = zipFile.getInputStream(entry);
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int count;
+      while ((count = input.read(buffer)) != -1) {
+        bytes.write(buffer, 0, count);
+      }
+      return bytes.toByteArray();
+    } finally {
+      input.close();
+    }
+  }
+
+  synchronized void close() throws IOException {
+    zipFile.close();
+  }
+
+  /**
+   * @return the name of the pool entry for a class with the bytes {@code contents}.
+   */
+  static String getContentHash(byte[] contents) {
+    return FileUtils.sha1Hex(contents);
+  }
+}
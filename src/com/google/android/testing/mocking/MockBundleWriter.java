@@ -0,0 +1,109 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes the mocks for several API levels into a {@link MockBundle}.
+ *
+ * Call {@link #startLevel} before writing the mocks of each level. A class is added to the pool
+ * only if no class with the same bytes has been written before, for this or an earlier level;
+ * the level's manifest is written when the next level is started or the writer is closed. As in
+ * {@link MockJarWriter}, a class with the same name as one already written for the level is
+ * skipped. Its entries are given the same fixed time as those of a {@link MockJarWriter}.
+ */
+class MockBundleWriter implements GeneratedClassSink {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final ZipOutputStream output;
+  private final Set<String> pooledHashes = new HashSet<String>();
+  private final Map<String, String> manifest = new TreeMap<String, String>();
+  private int apiLevel = -1;
+
+  /**
+   * Creates {@code bundleFile}, replacing any existing file.
+   */
+  MockBundleWriter(File bundleFile) throws IOException {
+    output = new ZipOutputStream(
+        new BufferedOutputStream(new FileOutputStream(bundleFile), BUFFER_SIZE));
+  }
+
+  /**
+   * Finishes the current level, if any, and starts writing the mocks for {@code apiLevel}.
+   */
+  void startLevel(int apiLevel) throws IOException {
+    finishLevel();
+    this.apiLevel = apiLevel;
+  }
+
+  public void write(GeneratedClassFile clazz) throws IOException {
+    if (apiLevel < 0) {
+      throw new IllegalStateException("No API level started");
+    }
+    if (manifest.containsKey(clazz.getClassName())) {
+      return;
+    }
+    String hash = MockBundle.getContentHash(clazz.getContents());
+    if (pooledHashes.add(hash)) {
+      output.putNextEntry(MockJarWriter.newEntry(MockBundle.POOL_PREFIX + hash));
+      output.write(clazz.getContents());
+      output.closeEntry();
+    }
+    manifest.put(clazz.getClassName(), hash);
+  }
+
+  /**
+   * @return the number of distinct classes written to the pool so far.
+   */
+  int getPooledCount() {
+    return pooledHashes.size();
+  }
+
+  private void finishLevel() throws IOException {
+    if (apiLevel < 0) {
+      return;
+    }
+    StringBuilder lines = new StringBuilder();
+    for (Map.Entry<String, String> entry : manifest.entrySet()) {
+      lines.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+    }
+    output.putNextEntry(MockJarWriter.newEntry(MockBundle.LEVEL_PREFIX + apiLevel));
+    output.write(lines.toString().getBytes("UTF-8"));
+    output.closeEntry();
+    manifest.clear();
+    apiLevel = -1;
+  }
+
+  /**
+   * Writes the manifest of the last level and closes the bundle.
+   */
+  void close() throws IOException {
+    try {
+      finishLevel();
+    } finally {
+      output.close();
+    }
+  }
+}
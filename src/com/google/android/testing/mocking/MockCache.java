@@ -0,0 +1,188 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An on-disk cache of the classes generated to mock a class, so that unchanged classes do not
+ * have to be mocked again on every build.
+ *
+ * Usage: look the mocks up with {@code get(getKey(clazz))} and, on a miss, generate them and
+ * store them with {@link #put}.
+ *
+ * An entry is keyed by a hash of the bytecode of the mocked class and of each of its
+ * superclasses, together with the generator's version and configuration. A change to any of them
+ * yields a different key, so entries never need to be invalidated; stale entries are simply no
+ * longer used and may be deleted along with the rest of the directory at any time.
+ */
+class MockCache {
+  private static final String ENTRY_SUFFIX = ".mocks";
+
+  private final File directory;
+  private final String generatorConfiguration;
+  private int hits;
+  private int misses;
+
+  /**
+   * @param directory the directory holding the cache entries, which is created if necessary.
+   * @param generatorConfiguration a description of the generator's version and settings, as
+   *        returned by {@link AndroidMockGenerator#getConfiguration()}.
+   */
+  MockCache(File directory, String generatorConfiguration) {
+    this.directory = directory;
+    this.generatorConfiguration = generatorConfiguration;
+  }
+
+  int getHits() {
+    return hits;
+  }
+
+  int getMisses() {
+    return misses;
+  }
+
+  /**
+   * Returns the cache key for {@code clazz}, or null if the bytecode of the class or of one of its
+   * superclasses cannot be found.
+   */
+  String getKey(Class<?> clazz) throws IOException {
+    MessageDigest digest = FileUtils.newSha1Digest();
+    digest.update(generatorConfiguration.getBytes("UTF-8"));
+    for (Class<?> type = clazz; type != null; type = type.getSuperclass()) {
+      byte[] bytecode = getBytecode(type);
+      if (bytecode == null) {
+        return null;
+      }
+      digest.update((byte) 0);
+      digest.update(type.getName().getBytes("UTF-8"));
+      digest.update((byte) 0);
+      digest.update(bytecode);
+    }
+    return FileUtils.sha1Hex(digest);
+  }
+
+  private static byte[] getBytecode(Class<?> clazz) throws IOException {
+    String resource = clazz.getName().replace('.', '/') + ".class";
+    ClassLoader loader = clazz.getClassLoader();
+    InputStream input = loader == null ? ClassLoader.getSystemResourceAsStream(resource)
+        : loader.getResourceAsStream(resource);
+    if (input == null) {
+      return null;
+    }
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int count;
+      while ((count = input.read(buffer)) != -1) {
+        bytes.write(buffer, 0, count);
+      }
+      return bytes.toByteArray();
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Returns the cached mocks stored under {@code key}, or null if {@code key} is null, there are
+   * no mocks stored under it or the entry cannot be read. Updates the hit and miss counts.
+   */
+  List<GeneratedClassFile> get(String key) {
+    List<GeneratedClassFile> mocks = key == null ? null : read(key);
+    if (mocks == null) {
+      misses++;
+    } else {
+      hits++;
+    }
+    return mocks;
+  }
+
+  private List<GeneratedClassFile> read(String key) {
+    DataInputStream input;
+    try {
+      input = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(getEntryFile(key))));
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+    try {
+      int count = input.readInt();
+      List<GeneratedClassFile> mocks = new ArrayList<GeneratedClassFile>(count);
+      for (int i = 0; i < count; ++i) {
+        String className = input.readUTF();
+        byte[] contents = new byte[input.readInt()];
+        input.readFully(contents);
+        mocks.add(new GeneratedClassFile(className, contents));
+      }
+      return mocks;
+    } catch (IOException e) {
+      // A truncated or otherwise unreadable entry; it is overwritten when the mocks are stored.
+      return null;
+    } finally {
+      try {
+        input.close();
+      } catch (IOException e) {
+        // Nothing more to do.
+      }
+    }
+  }
+
+  /**
+   * Stores {@code mocks} under {@code key}, unless {@code key} is null. The entry is written to a
+   * temporary file first, so a concurrent or interrupted build never sees a partial entry.
+   */
+  void put(String key, List<GeneratedClassFile> mocks) throws IOException {
+    if (key == null) {
+      return;
+    }
+    directory.mkdirs();
+    File temporaryFile = File.createTempFile(key, ".tmp", directory);
+    try {
+      DataOutputStream output =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+      try {
+        output.writeInt(mocks.size());
+        for (GeneratedClassFile mock : mocks) {
+          output.writeUTF(mock.getClassName());
+          output.writeInt(mock.getContents().length);
+          output.write(mock.getContents());
+        }
+      } finally {
+        output.close();
+      }
+      FileUtils.replaceFile(temporaryFile, getEntryFile(key));
+    } finally {
+      temporaryFile.delete();
+    }
+  }
+
+  private File getEntryFile(String key) {
+    return new File(directory, key + ENTRY_SUFFIX);
+  }
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The generated mock support classes for a single mocked class, resolved once and then shared by
+ * every mock created for that class.
+ *
+ * Resolving the DelegateSubclass and DelegateInterface requires two {@link Class#forName}
+ * lookups, a scan of the subclass' constructors and a lookup of the setDelegate method. None of
+ * these change for the lifetime of the mocked class, so they are cached per ClassLoader of the
+ * mocked class. The cache holds the ClassLoader weakly and the resolved information softly. The
+ * resolved information refers to the mocked class, and so to its ClassLoader, so a ClassLoader
+ * with cached information is only unloaded once the garbage collector clears soft references,
+ * which it does before running out of memory.
+ *
+ * Mocks are instantiated through the generated {@link MockFactory} for the mocked class, which
+ * calls the subclass constructors directly. Mocks generated before factories existed have no
+ * factory, in which case the subclass is instantiated reflectively.
+ */
+class MockClassInfo<T> {
+  private static final Map<ClassLoader, Map<String, SoftReference<MockClassInfo<?>>>> cache =
+      new WeakHashMap<ClassLoader, Map<String, SoftReference<MockClassInfo<?>>>>();
+
+  private final Class<T> mockedClass;
+  private final Class<?> delegateInterface;
+  private final Class<? extends T> subclass;
+  private final ConstructorTable<T> constructorTable;
+  private final MockFactory factory;
+  private final Method setDelegateMethod;
+
+  private MockClassInfo(Class<T> mockedClass, Class<?> delegateInterface,
+      Class<? extends T> subclass) {
+    this.mockedClass = mockedClass;
+    this.delegateInterface = delegateInterface;
+    this.subclass = subclass;
+    this.constructorTable = new ConstructorTable<T>(subclass, getSortedConstructors(subclass));
+    this.factory = getFactoryFor(mockedClass);
+    if (factory != null) {
+      setDelegateMethod = null;
+      return;
+    }
+    try {
+      setDelegateMethod = subclass.getMethod("setDelegate___AndroidMock", delegateInterface);
+    } catch (NoSuchMethodException e) {
+      throw new RuntimeException("Internal error - No setDelegate method found for " + "class "
+          + subclass.getName() + " and param " + delegateInterface.getName(), e);
+    }
+  }
+
+  /**
+   * Returns the mock support information for {@code clazz}, resolving and caching it on first
+   * use.
+   *
+   * @param clazz the class being mocked.
+   * @return the resolved support classes for {@code clazz}.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> MockClassInfo<T> forClass(Class<T> clazz) {
+    ClassLoader classLoader = clazz.getClassLoader();
+    String className = clazz.getName();
+    synchronized (cache) {
+      Map<String, SoftReference<MockClassInfo<?>>> classes = cache.get(classLoader);
+      if (classes != null) {
+        SoftReference<MockClassInfo<?>> reference = classes.get(className);
+        MockClassInfo<?> info = reference == null ? null : reference.get();
+        if (info != null && info.mockedClass == clazz) {
+          return (MockClassInfo<T>) info;
+        }
+      }
+    }
+    MockClassInfo<T> info = resolve(clazz);
+    synchronized (cache) {
+      Map<String, SoftReference<MockClassInfo<?>>> classes = cache.get(classLoader);
+      if (classes == null) {
+        classes = new HashMap<String, SoftReference<MockClassInfo<?>>>();
+        cache.put(classLoader, classes);
+      }
+      classes.put(className, new SoftReference<MockClassInfo<?>>(info));
+    }
+    return info;
+  }
+
+  /**
+   * Resolves the mock support information for {@code clazz} without consulting the cache.
+   */
+  static <T> MockClassInfo<T> resolve(Class<T> clazz) {
+    return new MockClassInfo<T>(clazz, getInterfaceFor(clazz), getSubclassFor(clazz));
+  }
+
+  /**
+   * Discards all cached information. Only intended for tests and benchmarks.
+   */
+  static void clearCache() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  Class<T> getMockedClass() {
+    return mockedClass;
+  }
+
+  Class<?> getDelegateInterface() {
+    return delegateInterface;
+  }
+
+  Class<? extends T> getSubclass() {
+    return subclass;
+  }
+
+  /**
+   * Creates a new instance of the DelegateSubclass which forwards all calls to
+   * {@code realMock}.
+   *
+   * @param realMock the EasyMock mock of the DelegateInterface.
+   * @param args the arguments to pass to the constructor.
+   * @return the new mock object.
+   */
+  T newMock(Object realMock, Object... args) {
+    return newMock(realMock, constructorTable.resolve(args), args);
+  }
+
+  /**
+   * Creates a new instance of the DelegateSubclass which forwards all calls to
+   * {@code realMock}, calling the subclass constructor which matches {@code constructor}, a
+   * constructor of the mocked class, instead of choosing one from the arguments.
+   *
+   * @param realMock the EasyMock mock of the DelegateInterface.
+   * @param constructor the constructor of the mocked class to call.
+   * @param args the arguments to pass to the constructor.
+   * @return the new mock object.
+   */
+  T newMock(Object realMock, Constructor<?> constructor, Object... args) {
+    return newMock(realMock, constructorTable.indexOf(constructor.getParameterTypes()), args);
+  }
+
+  private T newMock(Object realMock, int constructorIndex, Object[] args) {
+    if (factory != null) {
+      Object newObject;
+      try {
+        newObject = factory.newMock(constructorIndex, realMock, args);
+      } catch (InvocationTargetException e) {
+        // Only failures of the mocked constructor are wrapped, as on the reflective path.
+        throw new ExceptionInInitializerError(e);
+      }
+      return subclass.cast(newObject);
+    }
+    Constructor<T> constructor = constructorTable.getConstructor(constructorIndex);
+    T newObject;
+    try {
+      newObject = constructor.newInstance(args);
+    } catch (InstantiationException e) {
+      throw new RuntimeException("Internal error instantiating new mock subclass"
+          + subclass.getName(), e);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(
+          "Internal error - the new mock subclass' constructor was inaccessible", e);
+    } catch (InvocationTargetException e) {
+      throw new ExceptionInInitializerError(e);
+    }
+    setDelegate(newObject, realMock);
+    return newObject;
+  }
+
+  /**
+   * Creates a new instance of the DelegateSubclass which forwards all calls to
+   * {@code realMock}, without calling any constructors of the mocked class.
+   *
+   * @param realMock the EasyMock mock of the DelegateInterface.
+   * @return the new mock object.
+   */
+  T newMockWithoutConstructor(Object realMock) {
+    T newObject = MockInstantiator.newInstance(subclass);
+    setDelegate(newObject, realMock);
+    return newObject;
+  }
+
+  private void setDelegate(T newObject, Object realMock) {
+    if (factory != null) {
+      factory.setDelegate(newObject, realMock);
+      return;
+    }
+    try {
+      setDelegateMethod.invoke(newObject, realMock);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Internal error setting the delegate, expected "
+          + newObject.getClass() + " to be subclass of " + mockedClass.getName());
+    } catch (InvocationTargetException e) {
+      throw new RuntimeException("Severe internal error, setDelegate threw an exception", e);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException("Internal error, setDelegate method was inaccessible", e);
+    }
+  }
+
+  /**
+   * Returns the public constructors of {@code clazz} sorted by their descriptors, which is the
+   * order used to number them in the generated factory.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> Constructor<T>[] getSortedConstructors(Class<? extends T> clazz) {
+    Constructor<T>[] constructors = (Constructor<T>[]) clazz.getConstructors();
+    final String[] descriptors = new String[constructors.length];
+    Integer[] order = new Integer[constructors.length];
+    for (int i = 0; i < constructors.length; ++i) {
+      descriptors[i] = getDescriptor(constructors[i].getParameterTypes());
+      order[i] = i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer first, Integer second) {
+        return descriptors[first].compareTo(descriptors[second]);
+      }
+    });
+    Constructor<T>[] sorted = constructors.clone();
+    for (int i = 0; i < order.length; ++i) {
+      sorted[i] = constructors[order[i]];
+    }
+    return sorted;
+  }
+
+  /**
+   * Returns the JVM descriptor of a constructor taking {@code paramTypes}.
+   */
+  static String getDescriptor(Class<?>[] paramTypes) {
+    return getDescriptor(paramTypes, Void.TYPE);
+  }
+
+  /**
+   * Returns the JVM descriptor of a method taking {@code paramTypes} and returning
+   * {@code returnType}.
+   */
+  static String getDescriptor(Class<?>[] paramTypes, Class<?> returnType) {
+    StringBuilder descriptor = new StringBuilder("(");
+    for (Class<?> paramType : paramTypes) {
+      appendDescriptor(descriptor, paramType);
+    }
+    descriptor.append(')');
+    appendDescriptor(descriptor, returnType);
+    return descriptor.toString();
+  }
+
+  private static void appendDescriptor(StringBuilder descriptor, Class<?> type) {
+    if (type.isArray()) {
+      descriptor.append(type.getName().replace('.', '/'));
+    } else if (!type.isPrimitive()) {
+      descriptor.append('L').append(type.getName().replace('.', '/')).append(';');
+    } else if (type == Boolean.TYPE) {
+      descriptor.append('Z');
+    } else if (type == Byte.TYPE) {
+      descriptor.append('B');
+    } else if (type == Character.TYPE) {
+      descriptor.append('C');
+    } else if (type == Short.TYPE) {
+      descriptor.append('S');
+    } else if (type == Integer.TYPE) {
+      descriptor.append('I');
+    } else if (type == Long.TYPE) {
+      descriptor.append('J');
+    } else if (type == Float.TYPE) {
+      descriptor.append('F');
+    } else if (type == Double.TYPE) {
+      descriptor.append('D');
+    } else {
+      descriptor.append('V');
+    }
+  }
+
+  /**
+   * Returns the generated factory for {@code clazz}, or null if its mocks were generated without
+   * one.
+   */
+  private static MockFactory getFactoryFor(Class<?> clazz) {
+    String className = FileUtils.getFactoryNameFor(clazz);
+    try {
+      return (MockFactory) Class.forName(className).newInstance();
+    } catch (ClassNotFoundException e) {
+      return null;
+    } catch (InstantiationException e) {
+      throw new RuntimeException("Internal error instantiating mock factory " + className, e);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(
+          "Internal error - the mock factory's constructor was inaccessible", e);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Class<? extends T> getSubclassFor(Class<T> clazz) {
+    String className = FileUtils.getSubclassNameFor(clazz);
+    try {
+      return (Class<? extends T>) Class.forName(className);
+    } catch (ClassNotFoundException e) {
+      throw new RuntimeException("Could not find class for " + className
+          + " which likely means that the mock-instrumented jar has not been created or else"
+          + " is not being used in the current runtime environment. Try running MockGeneratorMain"
+          + " in MockGenerator_deploy.jar or using the output of that execution as the input to"
+          + " the dex/apk generation.", e);
+    }
+  }
+
+  private static Class<?> getInterfaceFor(Class<?> clazz) {
+    try {
+      return Class.forName(FileUtils.getInterfaceNameFor(clazz));
+    } catch (ClassNotFoundException e) {
+      throw new RuntimeException("Could not find mock for " + clazz.getName()
+          + "  -- Make sure to run the MockGenerator.jar on your test jar, and to "
+          + "build the Android test APK using the modified jar created by MockGenerator", e);
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Records which classes each class requested mocks for with {@link UsesMocks}, and keeps the
+ * record between builds. When an incremental build recompiles only some classes, the processor
+ * uses it to find the mocks whose mocked classes were recompiled, and to forget the mocks which a
+ * recompiled class no longer requests.
+ *
+ * The record is a text file with one {@code <requesting class> <mocked class>} line per
+ * dependency, both as binary names. It is written to a temporary file first, so an interrupted
+ * build never leaves a partial record; a record which cannot be read is treated as empty.
+ */
+class MockDependencies {
+  private final File file;
+  private final Map<String, Set<String>> mockedClassesByRequester =
+      new TreeMap<String, Set<String>>();
+
+  /**
+   * Reads the dependencies recorded in {@code file}, if it exists.
+   */
+  MockDependencies(File file) {
+    this.file = file;
+    read();
+  }
+
+  private void read() {
+    BufferedReader reader;
+    try {
+      reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    } catch (FileNotFoundException e) {
+      return;
+    } catch (IOException e) {
+      return;
+    }
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        int space = line.indexOf(' ');
+        if (space > 0) {
+          getOrCreate(line.substring(0, space)).add(line.substring(space + 1));
+        }
+      }
+    } catch (IOException e) {
+      // Everything is regenerated when the record is incomplete.
+      mockedClassesByRequester.clear();
+    } finally {
+      try {
+        reader.close();
+      } catch (IOException e) {
+        // Nothing more to do.
+      }
+    }
+  }
+
+  private Set<String> getOrCreate(String requester) {
+    Set<String> mockedClasses = mockedClassesByRequester.get(requester);
+    if (mockedClasses == null) {
+      mockedClasses = new TreeSet<String>();
+      mockedClassesByRequester.put(requester, mockedClasses);
+    }
+    return mockedClasses;
+  }
+
+  /**
+   * Replaces the classes recorded as mocked by {@code requester} with {@code mockedClasses}.
+   */
+  void setMockedClasses(String requester, Set<String> mockedClasses) {
+    if (mockedClasses.isEmpty()) {
+      mockedClassesByRequester.remove(requester);
+    } else {
+      getOrCreate(requester).clear();
+      getOrCreate(requester).addAll(mockedClasses);
+    }
+  }
+
+  /**
+   * @return the classes recorded as mocked by {@code requester}.
+   */
+  Set<String> getMockedClasses(String requester) {
+    Set<String> mockedClasses = mockedClassesByRequester.get(requester);
+    return mockedClasses == null ? Collections.<String>emptySet()
+        : Collections.unmodifiableSet(mockedClasses);
+  }
+
+  /**
+   * @return true if {@code requester} is recorded as requesting any mocks.
+   */
+  boolean isRequester(String requester) {
+    return mockedClassesByRequester.containsKey(requester);
+  }
+
+  /**
+   * @return the classes recorded as requesting mocks of {@code mockedClass}.
+   */
+  Set<String> getRequesters(String mockedClass) {
+    Set<String> requesters = new TreeSet<String>();
+    for (Map.Entry<String, Set<String>> entry : mockedClassesByRequester.entrySet()) {
+      if (entry.getValue().contains(mockedClass)) {
+        requesters.add(entry.getKey());
+      }
+    }
+    return requesters;
+  }
+
+  /**
+   * Writes the dependencies to the file they were read from.
+   */
+  void save() throws IOException {
+    File directory = file.getAbsoluteFile().getParentFile();
+    directory.mkdirs();
+    File temporaryFile = File.createTempFile(file.getName(), ".tmp", directory);
+    try {
+      Writer writer = new OutputStreamWriter(new FileOutputStream(temporaryFile), "UTF-8");
+      try {
+        for (Map.Entry<String, Set<String>> entry : mockedClassesByRequester.entrySet()) {
+          for (String mockedClass : entry.getValue()) {
+            writer.write(entry.getKey() + " " + mockedClass + "\n");
+          }
+        }
+      } finally {
+        writer.close();
+      }
+      FileUtils.replaceFile(temporaryFile, file);
+    } finally {
+      temporaryFile.delete();
+    }
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Passes the calls made on a class mock straight to the EasyMock handler behind its
+ * DelegateInterface mock, instead of going through the {@link Proxy} which implements that
+ * interface.
+ *
+ * Subclasses generated with direct dispatch enabled identify each of their methods by an integer
+ * ID: the index of the method in the DelegateInterface's methods, sorted by name and then by JVM
+ * descriptor. The dispatcher maps the ID to the interface {@link Method} with an array lookup and
+ * calls the Proxy's {@link InvocationHandler} itself, which saves the call through the Proxy's
+ * interface method. The arguments are still passed to the handler in a new {@code Object[]}, as
+ * they would be by the Proxy. Primitive arguments are boxed through the {@code valueOf} caches of
+ * the wrapper classes.
+ *
+ * This class is used by generated code and is not intended to be called directly.
+ */
+public final class MockDispatcher {
+  private static final Object[] NO_ARGS = new Object[0];
+  /**
+   * The method tables by interface. The methods refer to their interface, so they are held softly;
+   * otherwise the weak keys would never be cleared and the interfaces' class loaders would be
+   * kept.
+   */
+  private static final Map<Class<?>, SoftReference<Method[]>> methodTables =
+      new WeakHashMap<Class<?>, SoftReference<Method[]>>();
+
+  private final Object proxy;
+  private final InvocationHandler handler;
+  private final Method[] methods;
+
+  private MockDispatcher(Object proxy, InvocationHandler handler, Method[] methods) {
+    this.proxy = proxy;
+    this.handler = handler;
+    this.methods = methods;
+  }
+
+  /**
+   * Returns a dispatcher for the calls made on a class mock whose delegate is {@code delegate}, or
+   * null if {@code delegate} is not a {@link Proxy} for a single interface, in which case the mock
+   * has to call the delegate itself.
+   */
+  public static MockDispatcher forDelegate(Object delegate) {
+    if (delegate == null || !Proxy.isProxyClass(delegate.getClass())) {
+      return null;
+    }
+    Class<?>[] interfaces = delegate.getClass().getInterfaces();
+    if (interfaces.length != 1) {
+      return null;
+    }
+    return new MockDispatcher(delegate, Proxy.getInvocationHandler(delegate),
+        getMethodTable(interfaces[0]));
+  }
+
+  /**
+   * Returns the methods of {@code delegateInterface} indexed by their method IDs.
+   */
+  static Method[] getMethodTable(Class<?> delegateInterface) {
+    synchronized (methodTables) {
+      SoftReference<Method[]> reference = methodTables.get(delegateInterface);
+      Method[] methods = reference == null ? null : reference.get();
+      if (methods == null) {
+        methods = delegateInterface.getMethods();
+        sortMethods(methods);
+        methodTables.put(delegateInterface, new SoftReference<Method[]>(methods));
+      }
+      return methods;
+    }
+  }
+
+  /**
+   * Sorts {@code methods} into method ID order.
+   */
+  static void sortMethods(Method[] methods) {
+    Arrays.sort(methods, new Comparator<Method>() {
+      public int compare(Method first, Method second) {
+        return getSortKey(first).compareTo(getSortKey(second));
+      }
+    });
+  }
+
+  private static String getSortKey(Method method) {
+    return method.getName()
+        + MockClassInfo.getDescriptor(method.getParameterTypes(), method.getReturnType());
+  }
+
+  public Object invoke(int methodId) {
+    return invoke(methodId, NO_ARGS);
+  }
+
+  public Object invoke(int methodId, Object[] args) {
+    try {
+      return handler.invoke(proxy, methods[methodId], args);
+    } catch (Throwable t) {
+      // EasyMock only throws exceptions which the mocked method may throw.
+      throw MockDispatcher.<RuntimeException>rethrow(t);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T extends Throwable> RuntimeException rethrow(Throwable t) throws T {
+    throw (T) t;
+  }
+
+  public static Object box(boolean value) {
+    return Boolean.valueOf(value);
+  }
+
+  public static Object box(byte value) {
+    return Byte.valueOf(value);
+  }
+
+  public static Object box(char value) {
+    return Character.valueOf(value);
+  }
+
+  public static Object box(short value) {
+    return Short.valueOf(value);
+  }
+
+  public static Object box(int value) {
+    return Integer.valueOf(value);
+  }
+
+  public static Object box(long value) {
+    return Long.valueOf(value);
+  }
+
+  public static Object box(float value) {
+    return Float.valueOf(value);
+  }
+
+  public static Object box(double value) {
+    return Double.valueOf(value);
+  }
+
+  public static boolean booleanValue(Object value) {
+    return ((Boolean) value).booleanValue();
+  }
+
+  public static byte byteValue(Object value) {
+    return ((Byte) value).byteValue();
+  }
+
+  public static char charValue(Object value) {
+    return ((Character) value).charValue();
+  }
+
+  public static short shortValue(Object value) {
+    return ((Short) value).shortValue();
+  }
+
+  public static int intValue(Object value) {
+    return ((Integer) value).intValue();
+  }
+
+  public static long longValue(Object value) {
+    return ((Long) value).longValue();
+  }
+
+  public static float floatValue(Object value) {
+    return ((Float) value).floatValue();
+  }
+
+  public static double doubleValue(Object value) {
+    return ((Double) value).doubleValue();
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * Base class of the generated factories which instantiate mock subclasses without reflection.
+ *
+ * A factory is generated alongside each DelegateSubclass and DelegateInterface pair. Each of the
+ * subclass' constructors is identified by its index in the constructors sorted by parameter
+ * descriptor.
+ *
+ * This class is public only so that the generated factories, which live in the genmocks
+ * package, can extend it. It is not intended to be used directly by tests.
+ */
+public abstract class MockFactory {
+  protected MockFactory() {
+  }
+
+  /**
+   * Creates a new instance of the mock subclass which forwards all calls to {@code delegate}.
+   *
+   * @param constructor the index of the subclass constructor to call.
+   * @param delegate the EasyMock mock of the DelegateInterface.
+   * @param args the constructor arguments, boxed where the parameter is primitive.
+   * @return the new mock object.
+   * @throws InvocationTargetException if the constructor of the mocked class throws; it wraps
+   *         what the constructor threw, as {@link java.lang.reflect.Constructor#newInstance} does.
+   */
+  public abstract Object newMock(int constructor, Object delegate, Object[] args)
+      throws InvocationTargetException;
+
+  /**
+   * Installs {@code delegate} on a mock subclass instance which was allocated without calling any
+   * of its constructors.
+   *
+   * @param mock an instance of the mock subclass.
+   * @param delegate the EasyMock mock of the DelegateInterface.
+   */
+  public abstract void setDelegate(Object mock, Object delegate);
+
+  /**
+   * Called by the generated {@link #newMock} when {@code constructor} is out of range.
+   */
+  protected Object noSuchConstructor(int constructor) {
+    throw new IllegalArgumentException("Internal error - " + getClass().getName()
+        + " has no constructor " + constructor);
+  }
+
+  /*
+   * The following convert boxed constructor arguments to the primitive parameter types. They
+   * accept every boxed type that AndroidMock considers assignable to the parameter type.
+   */
+
+  public static boolean toBoolean(Object arg) {
+    return ((Boolean) arg).booleanValue();
+  }
+
+  public static byte toByte(Object arg) {
+    return ((Byte) arg).byteValue();
+  }
+
+  public static char toChar(Object arg) {
+    if (arg instanceof Character) {
+      return ((Character) arg).charValue();
+    }
+    return (char) ((Number) arg).intValue();
+  }
+
+  public static short toShort(Object arg) {
+    if (arg instanceof Character) {
+      return (short) ((Character) arg).charValue();
+    }
+    return ((Number) arg).shortValue();
+  }
+
+  public static int toInt(Object arg) {
+    if (arg instanceof Character) {
+      return ((Character) arg).charValue();
+    }
+    return ((Number) arg).intValue();
+  }
+
+  public static long toLong(Object arg) {
+    if (arg instanceof Character) {
+      return ((Character) arg).charValue();
+    }
+    return ((Number) arg).longValue();
+  }
+
+  public static float toFloat(Object arg) {
+    if (arg instanceof Character) {
+      return ((Character) arg).charValue();
+    }
+    return ((Number) arg).floatValue();
+  }
+
+  public static double toDouble(Object arg) {
+    if (arg instanceof Character) {
+      return ((Character) arg).charValue();
+    }
+    return ((Number) arg).doubleValue();
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes generated classes as class files under a folder, such as the bin folder, using a small
+ * pool of writer threads.
+ *
+ * Each class is saved by {@link FileUtils#saveClassToFolder}, so a class file whose contents have
+ * not changed is left alone. A rebuild which generates the same mocks therefore writes nothing,
+ * and later build steps do not see the mocks as changed.
+ */
+class MockFolderWriter implements GeneratedClassSink {
+  static final int DEFAULT_THREADS = 4;
+
+  private final String outputFolderName;
+  private final ExecutorService executor;
+  private final List<Future<Boolean>> writes = new ArrayList<Future<Boolean>>();
+
+  MockFolderWriter(String outputFolderName, int threads) {
+    this.outputFolderName = outputFolderName;
+    executor = Executors.newFixedThreadPool(threads);
+  }
+
+  /**
+   * Queues {@code clazz} to be written. Failures are reported by {@link #close}.
+   */
+  public void write(final GeneratedClassFile clazz) {
+    writes.add(executor.submit(new Callable<Boolean>() {
+      public Boolean call() throws IOException {
+        return FileUtils.saveClassToFolder(clazz, outputFolderName);
+      }
+    }));
+  }
+
+  /**
+   * Waits for the queued classes to be written, and stops the writer threads.
+   *
+   * @return the number of classes which were not written because their class files were
+   *         unchanged.
+   * @throws IOException the first failure to write a class.
+   */
+  int close() throws IOException {
+    try {
+      int unchanged = 0;
+      for (Future<Boolean> write : writes) {
+        if (!waitFor(write)) {
+          unchanged++;
+        }
+      }
+      return unchanged;
+    } finally {
+      writes.clear();
+      executor.shutdownNow();
+    }
+  }
+
+  private static boolean waitFor(Future<Boolean> write) throws IOException {
+    try {
+      return write.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while saving mocks", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException("Internal error saving mocks", cause);
+    }
+  }
+}
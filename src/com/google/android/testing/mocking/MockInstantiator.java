@@ -0,0 +1,129 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Allocates instances of a class without running any of its constructors.
+ *
+ * The bytecode verifier does not allow a generated constructor to skip its superclass
+ * constructor, so this relies on the allocation hooks provided by the VM:
+ * {@code sun.misc.Unsafe.allocateInstance} on the JVM and on newer Android releases, and the
+ * serialization hooks of {@link java.io.ObjectStreamClass} or {@link java.io.ObjectInputStream} on
+ * older Dalvik releases. The hook is looked up once, the first time it is needed.
+ */
+class MockInstantiator {
+  private static Allocator allocator;
+
+  private MockInstantiator() {
+  }
+
+  /**
+   * Creates a new instance of {@code clazz} without calling any constructors. All of the
+   * instance's fields, including those declared by its superclasses, have their default values.
+   *
+   * @param clazz the class to instantiate.
+   * @return the new instance.
+   * @throws UnsupportedOperationException if the VM has no way to allocate an instance without
+   *         calling a constructor.
+   */
+  static <T> T newInstance(Class<T> clazz) {
+    Object instance;
+    try {
+      instance = getAllocator().allocate(clazz);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException("Internal error - could not allocate " + clazz.getName(), e);
+    } catch (InvocationTargetException e) {
+      throw new RuntimeException("Internal error - could not allocate " + clazz.getName(),
+          e.getCause());
+    }
+    return clazz.cast(instance);
+  }
+
+  private static synchronized Allocator getAllocator() {
+    if (allocator == null) {
+      allocator = findAllocator();
+    }
+    return allocator;
+  }
+
+  private static Allocator findAllocator() {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      return new Allocator(theUnsafe.get(null),
+          unsafeClass.getMethod("allocateInstance", Class.class));
+    } catch (Exception e) {
+      // Not available on this VM, try the next hook.
+    }
+    try {
+      Method getConstructorId =
+          java.io.ObjectStreamClass.class.getDeclaredMethod("getConstructorId", Class.class);
+      getConstructorId.setAccessible(true);
+      Method newInstance = java.io.ObjectStreamClass.class.getDeclaredMethod("newInstance",
+          Class.class, Integer.TYPE);
+      newInstance.setAccessible(true);
+      return new Allocator(null, newInstance, getConstructorId.invoke(null, Object.class));
+    } catch (Exception e) {
+      // Not available on this VM, try the next hook.
+    }
+    try {
+      Method newInstance = java.io.ObjectInputStream.class.getDeclaredMethod("newInstance",
+          Class.class, Class.class);
+      newInstance.setAccessible(true);
+      return new Allocator(null, newInstance, Object.class);
+    } catch (Exception e) {
+      throw new UnsupportedOperationException(
+          "Creating mocks without calling a constructor is not supported on this VM", e);
+    }
+  }
+
+  /**
+   * A VM allocation hook: a method which takes the class to allocate and, optionally, one extra
+   * argument that identifies the constructor to run instead, which is always Object's.
+   */
+  private static class Allocator {
+    private final Object receiver;
+    private final Method method;
+    private final boolean hasExtraArg;
+    private final Object extraArg;
+
+    Allocator(Object receiver, Method method) {
+      this.receiver = receiver;
+      this.method = method;
+      this.hasExtraArg = false;
+      this.extraArg = null;
+    }
+
+    Allocator(Object receiver, Method method, Object extraArg) {
+      this.receiver = receiver;
+      this.method = method;
+      this.hasExtraArg = true;
+      this.extraArg = extraArg;
+    }
+
+    Object allocate(Class<?> clazz) throws IllegalAccessException, InvocationTargetException {
+      if (hasExtraArg) {
+        return method.invoke(receiver, clazz, extraArg);
+      }
+      return method.invoke(receiver, clazz);
+    }
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.Deflater;
+
+/**
+ * Writes generated classes straight into a jar file, such as one of the framework mock jars.
+ *
+ * The classes are written through a single buffered stream as they are received, without
+ * staging them as separate files. When the writer is closed it adds a jar index
+ * ({@code META-INF/INDEX.LIST}) listing the packages in the jar, and a class index
+ * ({@link PrebuiltMockIndex#INDEX_NAME}) listing the entry and size of each class, so that the
+ * classes can be copied out of the jar without being loaded. A class with the same name as one
+ * already written is skipped.
+ *
+ * Every entry is given the same time, {@link #ENTRY_TIME}, so that writing the same classes in
+ * the same order always gives the same jar.
+ *
+ * A writer created to update an existing jar writes to a temporary file next to it, and when it
+ * is closed, copies the classes of the existing jar which were not written again and then
+ * replaces the existing jar with the temporary file.
+ */
+class MockJarWriter implements GeneratedClassSink {
+  static final String INDEX_NAME = "META-INF/INDEX.LIST";
+  /** The time of every entry: midnight on 1 January 2010, local time, as zip times are local. */
+  static final long ENTRY_TIME = new GregorianCalendar(2010, Calendar.JANUARY, 1).getTimeInMillis();
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File jarFile;
+  private final File temporaryFile;
+  private final JarOutputStream output;
+  private final Set<String> entryNames = new HashSet<String>();
+  private final Set<String> packages = new TreeSet<String>();
+  private final StringBuilder classIndex = new StringBuilder();
+
+  /**
+   * Creates {@code jarFile}, replacing any existing file.
+   */
+  MockJarWriter(File jarFile) throws IOException {
+    this(jarFile, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Creates {@code jarFile}, replacing any existing file, and compresses the classes written to it
+   * at {@code compressionLevel}: from {@link Deflater#NO_COMPRESSION} to
+   * {@link Deflater#BEST_COMPRESSION}, or {@link Deflater#DEFAULT_COMPRESSION}.
+   */
+  MockJarWriter(File jarFile, int compressionLevel) throws IOException {
+    this(jarFile, compressionLevel, false);
+  }
+
+  /**
+   * Creates a writer for {@code jarFile} as {@link #MockJarWriter(File, int)} does, but if
+   * {@code update} is true the classes already in {@code jarFile} are kept, unless classes with
+   * the same names are written.
+   */
+  MockJarWriter(File jarFile, int compressionLevel, boolean update) throws IOException {
+    if (compressionLevel != Deflater.DEFAULT_COMPRESSION
+        && (compressionLevel < Deflater.NO_COMPRESSION
+            || compressionLevel > Deflater.BEST_COMPRESSION)) {
+      throw new IllegalArgumentException("Invalid compression level: " + compressionLevel);
+    }
+    this.jarFile = jarFile;
+    temporaryFile = update ? File.createTempFile(jarFile.getName(), ".tmp",
+        jarFile.getAbsoluteFile().getParentFile()) : null;
+    Manifest manifest = new Manifest();
+    manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    output = new JarOutputStream(new BufferedOutputStream(
+        new FileOutputStream(update ? temporaryFile : jarFile), BUFFER_SIZE));
+    output.setLevel(compressionLevel);
+    output.putNextEntry(newEntry(JarFile.MANIFEST_NAME));
+    manifest.write(output);
+    output.closeEntry();
+  }
+
+  static JarEntry newEntry(String name) {
+    JarEntry entry = new JarEntry(name);
+    entry.setTime(ENTRY_TIME);
+    return entry;
+  }
+
+  public void write(GeneratedClassFile clazz) throws IOException {
+    String entryName = clazz.getClassName().replace('.', '/') + ".class";
+    if (!entryNames.add(entryName)) {
+      return;
+    }
+    int lastSlash = entryName.lastIndexOf('/');
+    if (lastSlash > 0 && packages.add(entryName.substring(0, lastSlash))) {
+      addDirectories(entryName.substring(0, lastSlash + 1));
+    }
+    output.putNextEntry(newEntry(entryName));
+    output.write(clazz.getContents());
+    output.closeEntry();
+    classIndex.append(clazz.getClassName()).append(' ').append(entryName).append(' ')
+        .append(clazz.getContents().length).append('\n');
+  }
+
+  /**
+   * Adds entries for {@code directory}, which ends with a slash, and its parent directories,
+   * unless they have been added already.
+   */
+  private void addDirectories(String directory) throws IOException {
+    int parentSlash = directory.lastIndexOf('/', directory.length() - 2);
+    if (parentSlash > 0) {
+      addDirectories(directory.substring(0, parentSlash + 1));
+    }
+    if (entryNames.add(directory)) {
+      output.putNextEntry(newEntry(directory));
+      output.closeEntry();
+    }
+  }
+
+  /**
+   * Copies each class in {@code jar} which has not been written to this jar.
+   */
+  private void copyClasses(JarFile jar) throws IOException {
+    for (JarEntry entry : Collections.list(jar.entries())) {
+      if (!entry.getName().endsWith(".class") || entryNames.contains(entry.getName())) {
+        continue;
+      }
+      byte[] contents = new byte[(int) entry.getSize()];
+      InputStream input = jar.getInputStream(entry);
+      try {
+        new DataInputStream(input).readFully(contents);
+      } finally {
+        input.close();
+      }
+      write(new GeneratedClassFile(FileUtils.getClassNameFor(entry.getName()), contents));
+    }
+  }
+
+  /**
+   * Writes the jar index and the class index, and closes the jar. A writer which updates an
+   * existing jar first copies the classes of the existing jar which were not written again, then
+   * replaces the existing jar.
+   */
+  void close() throws IOException {
+    try {
+      finish();
+    } finally {
+      if (temporaryFile != null) {
+        temporaryFile.delete();
+      }
+    }
+  }
+
+  private void finish() throws IOException {
+    try {
+      // An empty file, such as a new temporary file, holds no classes.
+      if (temporaryFile != null && jarFile.length() > 0) {
+        JarFile jar = new JarFile(jarFile);
+        try {
+          copyClasses(jar);
+        } finally {
+          jar.close();
+        }
+      }
+      output.putNextEntry(newEntry(PrebuiltMockIndex.INDEX_NAME));
+      output.write(classIndex.toString().getBytes("UTF-8"));
+      output.closeEntry();
+      StringBuilder index = new StringBuilder("JarIndex-Version: 1.0\n\n");
+      index.append(jarFile.getName()).append('\n');
+      for (String packageName : packages) {
+        index.append(packageName).append('\n');
+      }
+      index.append('\n');
+      output.putNextEntry(newEntry(INDEX_NAME));
+      output.write(index.toString().getBytes("UTF-8"));
+      output.closeEntry();
+    } finally {
+      output.close();
+    }
+    if (temporaryFile != null) {
+      FileUtils.replaceFile(temporaryFile, jarFile);
+    }
+  }
+}
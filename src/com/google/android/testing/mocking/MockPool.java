@@ -0,0 +1,287 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of reusable mock objects, for test suites which create the same mock types many times.
+ *
+ * {@link #acquire(Class)} hands out a previously released mock of the requested type if one is
+ * available and creates a new one otherwise. {@link #release(Object)} resets the mock with
+ * {@link AndroidMock#reset(Object...)}, which returns it to record state with no expectations, and
+ * makes it available to later calls to {@code acquire}. A released mock must not be used again
+ * by the code that released it.
+ *
+ * Class mocks are created with {@link AndroidMock#createMockWithoutConstructor(Class)} or its
+ * nice and strict equivalents, so that a recycled mock is indistinguishable from a new one. All
+ * mocks handed out by a pool are of the same kind: default, nice or strict.
+ *
+ * Each mocked type has its own pool of idle mocks, bounded by the capacity given when the pool
+ * is created; mocks released while the pool for their type is full are discarded. In front of
+ * that, each thread keeps up to four of its most recently released mocks of each type for
+ * itself, so acquiring and releasing from a single thread does not contend with other threads.
+ *
+ * Example:
+ * <pre>
+ *   private static final MockPool MOCKS = MockPool.createNicePool(8);
+ *
+ *   public void testSomething() {
+ *     Context context = MOCKS.acquire(Context.class);
+ *     ...
+ *     MOCKS.release(context);
+ *   }
+ * </pre>
+ */
+public class MockPool {
+  private static final int THREAD_LOCAL_CAPACITY = 4;
+
+  private static final int DEFAULT = 0;
+  private static final int NICE = 1;
+  private static final int STRICT = 2;
+
+  private final int kind;
+  private final int capacity;
+  private final ConcurrentMap<Class<?>, Partition> partitionsByMockedClass =
+      new ConcurrentHashMap<Class<?>, Partition>();
+  private final ConcurrentMap<Class<?>, Partition> partitionsByMockClass =
+      new ConcurrentHashMap<Class<?>, Partition>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong discards = new AtomicLong();
+
+  private MockPool(int kind, int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("Pool capacity must not be negative: " + capacity);
+    }
+    this.kind = kind;
+    this.capacity = capacity;
+  }
+
+  /**
+   * Creates a pool of mocks with order checking disabled.
+   *
+   * @param capacity the maximum number of idle mocks shared between threads for each mocked
+   *        type.
+   * @return the new pool.
+   */
+  public static MockPool createPool(int capacity) {
+    return new MockPool(DEFAULT, capacity);
+  }
+
+  /**
+   * Creates a pool of nice mocks, which return {@code 0}, {@code null} or {@code false} for
+   * unexpected invocations.
+   *
+   * @param capacity the maximum number of idle mocks shared between threads for each mocked
+   *        type.
+   * @return the new pool.
+   */
+  public static MockPool createNicePool(int capacity) {
+    return new MockPool(NICE, capacity);
+  }
+
+  /**
+   * Creates a pool of mocks with order checking enabled.
+   *
+   * @param capacity the maximum number of idle mocks shared between threads for each mocked
+   *        type.
+   * @return the new pool.
+   */
+  public static MockPool createStrictPool(int capacity) {
+    return new MockPool(STRICT, capacity);
+  }
+
+  /**
+   * Returns a mock of {@code toMock} in record state, reusing a released mock if possible.
+   *
+   * @param <T> the type of the class or interface to be mocked.
+   * @param toMock the class or interface to be mocked.
+   * @return the mock object.
+   */
+  public <T> T acquire(Class<T> toMock) {
+    Partition partition = partitionsByMockedClass.get(toMock);
+    if (partition != null) {
+      Object mock = partition.poll();
+      if (mock != null) {
+        hits.incrementAndGet();
+        return toMock.cast(mock);
+      }
+    }
+    misses.incrementAndGet();
+    T mock = createMock(toMock);
+    if (partition == null) {
+      partition = new Partition(capacity);
+      Partition existing = partitionsByMockedClass.putIfAbsent(toMock, partition);
+      if (existing != null) {
+        partition = existing;
+      }
+      partitionsByMockClass.putIfAbsent(mock.getClass(), partition);
+    }
+    return mock;
+  }
+
+  /**
+   * Resets {@code mock} and returns it to the pool. The caller must not use {@code mock} after
+   * releasing it.
+   *
+   * @param mock a mock previously returned by {@link #acquire(Class)} on this pool.
+   * @throws IllegalArgumentException if no mock of the same type was acquired from this pool.
+   * @throws IllegalStateException if {@code mock} has already been released, and is idle in the
+   *         shared pool or in this thread's pool.
+   */
+  public void release(Object mock) {
+    Partition partition = partitionsByMockClass.get(mock.getClass());
+    if (partition == null) {
+      throw new IllegalArgumentException("Mock was not acquired from this pool: "
+          + mock.getClass().getName());
+    }
+    if (partition.contains(mock)) {
+      throw new IllegalStateException("Mock was released twice: " + mock.getClass().getName());
+    }
+    AndroidMock.reset(mock);
+    if (!partition.offer(mock)) {
+      discards.incrementAndGet();
+    }
+  }
+
+  /**
+   * @return the number of calls to {@link #acquire(Class)} which reused a released mock.
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of calls to {@link #acquire(Class)} which created a new mock.
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return the number of released mocks which were discarded because the pool was full.
+   */
+  public long getDiscards() {
+    return discards.get();
+  }
+
+  /**
+   * @return the fraction of calls to {@link #acquire(Class)} which reused a released mock, or
+   *         {@code 0} if {@code acquire} has not been called.
+   */
+  public double getHitRate() {
+    long hitCount = hits.get();
+    long total = hitCount + misses.get();
+    return total == 0 ? 0 : (double) hitCount / total;
+  }
+
+  @Override
+  public String toString() {
+    return "MockPool[hits=" + getHits() + ", misses=" + getMisses() + ", discards="
+        + getDiscards() + ", hitRate=" + getHitRate() + "]";
+  }
+
+  private <T> T createMock(Class<T> toMock) {
+    switch (kind) {
+      case NICE:
+        return AndroidMock.createNiceMockWithoutConstructor(toMock);
+      case STRICT:
+        return AndroidMock.createStrictMockWithoutConstructor(toMock);
+      default:
+        return AndroidMock.createMockWithoutConstructor(toMock);
+    }
+  }
+
+  /**
+   * The idle mocks of a single mocked type: a small stack per thread in front of a bounded stack
+   * shared by all threads.
+   */
+  private static class Partition {
+    private final Object[] shared;
+    private int sharedSize;
+    private final ThreadLocal<LocalStack> local = new ThreadLocal<LocalStack>() {
+      @Override
+      protected LocalStack initialValue() {
+        return new LocalStack();
+      }
+    };
+
+    Partition(int capacity) {
+      shared = new Object[capacity];
+    }
+
+    Object poll() {
+      LocalStack stack = local.get();
+      if (stack.size > 0) {
+        Object mock = stack.mocks[--stack.size];
+        stack.mocks[stack.size] = null;
+        return mock;
+      }
+      synchronized (this) {
+        if (sharedSize == 0) {
+          return null;
+        }
+        Object mock = shared[--sharedSize];
+        shared[sharedSize] = null;
+        return mock;
+      }
+    }
+
+    /**
+     * @return true if {@code mock} itself is idle in this thread's stack or the shared stack.
+     *         The stacks are small, so they are searched by identity.
+     */
+    boolean contains(Object mock) {
+      LocalStack stack = local.get();
+      for (int i = 0; i < stack.size; ++i) {
+        if (stack.mocks[i] == mock) {
+          return true;
+        }
+      }
+      synchronized (this) {
+        for (int i = 0; i < sharedSize; ++i) {
+          if (shared[i] == mock) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+
+    boolean offer(Object mock) {
+      LocalStack stack = local.get();
+      if (stack.size < stack.mocks.length && stack.size < shared.length) {
+        stack.mocks[stack.size++] = mock;
+        return true;
+      }
+      synchronized (this) {
+        if (sharedSize == shared.length) {
+          return false;
+        }
+        shared[sharedSize++] = mock;
+        return true;
+      }
+    }
+  }
+
+  private static class LocalStack {
+    final Object[] mocks = new Object[THREAD_LOCAL_CAPACITY];
+    int size;
+  }
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.ExecutableType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * Generates the Java source of the DelegateInterface, DelegateSubclass and DelegateFactory for a
+ * class, from javac's model of the class, so that javac can compile the mocks alongside the
+ * tests. Neither javassist nor the mocked class is loaded.
+ *
+ * The generated classes behave as those generated by {@link AndroidMockGenerator} with its
+ * default delegate dispatch: the subclass passes each call to its delegate, and the factory
+ * numbers the subclass' constructors in the order in which {@link MockClassInfo} sorts them.
+ * Since the source must compile, only public classes are mocked, only their public and protected
+ * methods and constructors are mocked, and members whose signatures use types which are not
+ * public are skipped. A class with an abstract method which is skipped is not mocked, since its
+ * subclass could not implement the method. All types are erased, as seen from the mocked class.
+ */
+class MockSourceGenerator {
+  private final Elements elements;
+  private final Types types;
+
+  MockSourceGenerator(Elements elements, Types types) {
+    this.elements = elements;
+    this.types = types;
+  }
+
+  /**
+   * The generated source of a class.
+   */
+  static class MockSource {
+    private final String className;
+    private final String source;
+
+    MockSource(String className, String source) {
+      this.className = className;
+      this.source = source;
+    }
+
+    /** @return the binary name of the class. */
+    String getClassName() {
+      return className;
+    }
+
+    String getSource() {
+      return source;
+    }
+  }
+
+  /**
+   * Returns the reason that mocks cannot be generated for {@code type}, or null if they can, or
+   * if {@code type} is an interface, which needs no generated mocks.
+   */
+  String getUnsupportedReason(TypeElement type) {
+    if (type.getKind().isInterface()) {
+      return null;
+    } else if (type.getKind() == ElementKind.ENUM) {
+      return "Cannot mock an Enum";
+    } else if (type.getModifiers().contains(Modifier.FINAL)) {
+      return "Cannot mock a Final class";
+    } else if (!isAccessible(type)) {
+      return "Cannot mock a class which is not public";
+    } else if (getConstructors(type).isEmpty()) {
+      return "Cannot mock a class with no public constructors";
+    } else if (hasSkippedAbstractMethod(type)) {
+      return "Cannot mock a class with abstract methods which are not public or use types which "
+          + "are not public";
+    }
+    return null;
+  }
+
+  /**
+   * @return true if {@code type} has an abstract method, which it does not implement, that
+   *         {@link #getMethods} skips.
+   */
+  private boolean hasSkippedAbstractMethod(TypeElement type) {
+    DeclaredType classType = (DeclaredType) types.erasure(type.asType());
+    Set<String> abstractKeys = new HashSet<String>();
+    Set<String> implementedKeys = new HashSet<String>();
+    for (Element element : elements.getAllMembers(type)) {
+      if (element.getKind() == ElementKind.METHOD
+          && !element.getModifiers().contains(Modifier.STATIC)) {
+        String key = getKey(getMember(classType, (ExecutableElement) element));
+        if (element.getModifiers().contains(Modifier.ABSTRACT)) {
+          abstractKeys.add(key);
+        } else {
+          implementedKeys.add(key);
+        }
+      }
+    }
+    abstractKeys.removeAll(implementedKeys);
+    for (Member method : getMethods(type)) {
+      abstractKeys.remove(getKey(method));
+    }
+    return !abstractKeys.isEmpty();
+  }
+
+  /**
+   * Returns the sources of the DelegateInterface, DelegateSubclass and DelegateFactory for
+   * {@code type}, or none if {@link #getUnsupportedReason} gives a reason or {@code type} is an
+   * interface.
+   */
+  List<MockSource> createMockSources(TypeElement type) {
+    if (type.getKind().isInterface() || getUnsupportedReason(type) != null) {
+      return Collections.emptyList();
+    }
+    String className = elements.getBinaryName(type).toString();
+    List<Member> methods = getMethods(type);
+    List<Member> constructors = getConstructors(type);
+    return Arrays.asList(
+        new MockSource(FileUtils.getInterfaceNameFor(className),
+            getInterfaceSource(className, methods)),
+        new MockSource(FileUtils.getSubclassNameFor(className),
+            getSubclassSource(type, className, methods, constructors)),
+        new MockSource(FileUtils.getFactoryNameFor(className),
+            getFactorySource(className, constructors)));
+  }
+
+  /**
+   * A method or constructor of the mocked class, with its types erased as seen from that class.
+   */
+  private static class Member {
+    final String name;
+    final TypeMirror returnType;
+    final List<TypeMirror> parameterTypes;
+    final List<TypeMirror> thrownTypes;
+    final boolean isVarArgs;
+
+    Member(String name, TypeMirror returnType, List<TypeMirror> parameterTypes,
+        List<TypeMirror> thrownTypes, boolean isVarArgs) {
+      this.name = name;
+      this.returnType = returnType;
+      this.parameterTypes = parameterTypes;
+      this.thrownTypes = thrownTypes;
+      this.isVarArgs = isVarArgs;
+    }
+  }
+
+  /**
+   * Returns the mockable methods of {@code type}, including those it inherits, sorted by name and
+   * parameter types as {@link MethodTable} sorts them.
+   */
+  private List<Member> getMethods(TypeElement type) {
+    DeclaredType classType = (DeclaredType) types.erasure(type.asType());
+    Map<String, Member> methods = new TreeMap<String, Member>();
+    Map<String, Boolean> fromClass = new TreeMap<String, Boolean>();
+    List<String> finalKeys = new ArrayList<String>();
+    for (Element element : elements.getAllMembers(type)) {
+      if (element.getKind() != ElementKind.METHOD) {
+        continue;
+      }
+      ExecutableElement method = (ExecutableElement) element;
+      Set<Modifier> modifiers = method.getModifiers();
+      if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.PRIVATE)) {
+        continue;
+      }
+      Member member = getMember(classType, method);
+      String key = getKey(member);
+      if (modifiers.contains(Modifier.FINAL)) {
+        finalKeys.add(key);
+        continue;
+      }
+      if (!modifiers.contains(Modifier.PUBLIC) && !modifiers.contains(Modifier.PROTECTED)
+          || isForbiddenMethod(key) || !isAccessible(member)) {
+        continue;
+      }
+      // A class's method is kept over an interface method which it implements.
+      boolean isClassMethod = !method.getEnclosingElement().getKind().isInterface();
+      if (!methods.containsKey(key) || isClassMethod && !fromClass.get(key)) {
+        methods.put(key, member);
+        fromClass.put(key, isClassMethod);
+      }
+    }
+    methods.keySet().removeAll(finalKeys);
+    return new ArrayList<Member>(methods.values());
+  }
+
+  private boolean isForbiddenMethod(String key) {
+    return key.equals("equals(java.lang.Object)") || key.equals("hashCode()")
+        || key.equals("toString()");
+  }
+
+  /**
+   * Returns the public and protected constructors of {@code type} whose signatures only use
+   * public types. The constructor of an inner class takes the enclosing instance first.
+   */
+  private List<Member> getConstructors(TypeElement type) {
+    DeclaredType classType = (DeclaredType) types.erasure(type.asType());
+    List<Member> constructors = new ArrayList<Member>();
+    for (Element element : type.getEnclosedElements()) {
+      Set<Modifier> modifiers = element.getModifiers();
+      if (element.getKind() != ElementKind.CONSTRUCTOR
+          || !modifiers.contains(Modifier.PUBLIC) && !modifiers.contains(Modifier.PROTECTED)) {
+        continue;
+      }
+      Member constructor = getMember(classType, (ExecutableElement) element);
+      if (isInnerClass(type)) {
+        constructor.parameterTypes.add(0, types.erasure(type.getEnclosingElement().asType()));
+      }
+      if (isAccessible(constructor)) {
+        constructors.add(constructor);
+      }
+    }
+    return constructors;
+  }
+
+  private boolean isInnerClass(TypeElement type) {
+    return type.getNestingKind() == NestingKind.MEMBER
+        && !type.getModifiers().contains(Modifier.STATIC);
+  }
+
+  private Member getMember(DeclaredType classType, ExecutableElement executable) {
+    ExecutableType memberType = (ExecutableType) types.asMemberOf(classType, executable);
+    List<TypeMirror> parameterTypes = new ArrayList<TypeMirror>();
+    for (TypeMirror parameterType : memberType.getParameterTypes()) {
+      parameterTypes.add(types.erasure(parameterType));
+    }
+    List<TypeMirror> thrownTypes = new ArrayList<TypeMirror>();
+    for (TypeMirror thrownType : memberType.getThrownTypes()) {
+      thrownTypes.add(types.erasure(thrownType));
+    }
+    return new Member(executable.getSimpleName().toString(),
+        types.erasure(memberType.getReturnType()), parameterTypes, thrownTypes,
+        executable.isVarArgs());
+  }
+
+  private String getKey(Member member) {
+    StringBuilder key = new StringBuilder(member.name).append('(');
+    for (int i = 0; i < member.parameterTypes.size(); ++i) {
+      key.append(i == 0 ? "" : ",").append(getSourceName(member.parameterTypes.get(i)));
+    }
+    return key.append(')').toString();
+  }
+
+  private boolean isAccessible(Member member) {
+    List<TypeMirror> memberTypes = new ArrayList<TypeMirror>();
+    memberTypes.add(member.returnType);
+    memberTypes.addAll(member.parameterTypes);
+    memberTypes.addAll(member.thrownTypes);
+    for (TypeMirror type : memberTypes) {
+      if (type.getKind() == TypeKind.ARRAY) {
+        type = ((ArrayType) type).getComponentType();
+      }
+      if (type.getKind() == TypeKind.DECLARED
+          && !isAccessible((TypeElement) ((DeclaredType) type).asElement())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if {@code type}, and each class enclosing it, is public.
+   */
+  private boolean isAccessible(TypeElement type) {
+    for (Element element = type; element instanceof TypeElement;
+        element = element.getEnclosingElement()) {
+      if (!element.getModifiers().contains(Modifier.PUBLIC)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String getSourceName(TypeMirror type) {
+    switch (type.getKind()) {
+      case ARRAY:
+        return getSourceName(((ArrayType) type).getComponentType()) + "[]";
+      case DECLARED:
+        return ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+      default:
+        return type.getKind().name().toLowerCase();
+    }
+  }
+
+  private String getDescriptor(TypeMirror type) {
+    switch (type.getKind()) {
+      case BOOLEAN:
+        return "Z";
+      case BYTE:
+        return "B";
+      case CHAR:
+        return "C";
+      case SHORT:
+        return "S";
+      case INT:
+        return "I";
+      case LONG:
+        return "J";
+      case FLOAT:
+        return "F";
+      case DOUBLE:
+        return "D";
+      case ARRAY:
+        return "[" + getDescriptor(((ArrayType) type).getComponentType());
+      default:
+        return "L" + elements.getBinaryName((TypeElement) ((DeclaredType) type).asElement())
+            .toString().replace('.', '/') + ";";
+    }
+  }
+
+  private String getPackageName(String className) {
+    return className.substring(0, className.lastIndexOf('.'));
+  }
+
+  private String getSimpleName(String className) {
+    return className.substring(className.lastIndexOf('.') + 1);
+  }
+
+  private void appendHeader(StringBuilder source, String mockName) {
+    source.append("package ").append(getPackageName(mockName)).append(";\n\n");
+    source.append("@SuppressWarnings({\"deprecation\", \"unchecked\"})\n");
+  }
+
+  /**
+   * Appends {@code member}'s parameter list, naming the parameters {@code arg0} onwards, and its
+   * throws clause.
+   */
+  private void appendParameters(StringBuilder source, Member member) {
+    source.append('(');
+    for (int i = 0; i < member.parameterTypes.size(); ++i) {
+      String typeName = getSourceName(member.parameterTypes.get(i));
+      if (member.isVarArgs && i == member.parameterTypes.size() - 1) {
+        typeName = typeName.substring(0, typeName.length() - 2) + "...";
+      }
+      source.append(i == 0 ? "" : ", ").append(typeName).append(" arg").append(i);
+    }
+    source.append(')');
+    for (int i = 0; i < member.thrownTypes.size(); ++i) {
+      source.append(i == 0 ? " throws " : ", ").append(getSourceName(member.thrownTypes.get(i)));
+    }
+  }
+
+  private String getArguments(Member member, int first) {
+    StringBuilder arguments = new StringBuilder();
+    for (int i = first; i < member.parameterTypes.size(); ++i) {
+      arguments.append(i == first ? "" : ", ").append("arg").append(i);
+    }
+    return arguments.toString();
+  }
+
+  private String getInterfaceSource(String className, List<Member> methods) {
+    String interfaceName = FileUtils.getInterfaceNameFor(className);
+    StringBuilder source = new StringBuilder();
+    appendHeader(source, interfaceName);
+    source.append("public interface ").append(getSimpleName(interfaceName)).append(" {\n");
+    for (Member method : methods) {
+      source.append("  ").append(getSourceName(method.returnType)).append(' ')
+          .append(method.name);
+      appendParameters(source, method);
+      source.append(";\n");
+    }
+    return source.append("}\n").toString();
+  }
+
+  private String getSubclassSource(TypeElement type, String className, List<Member> methods,
+      List<Member> constructors) {
+    String interfaceName = FileUtils.getInterfaceNameFor(className);
+    String subclassName = FileUtils.getSubclassNameFor(className);
+    String simpleName = getSimpleName(subclassName);
+    String delegate = "this." + getDelegateFieldName();
+    StringBuilder source = new StringBuilder();
+    appendHeader(source, subclassName);
+    source.append("public class ").append(simpleName).append(" extends ")
+        .append(type.getQualifiedName()).append("\n    implements ").append(interfaceName)
+        .append(", ").append(MockObject.class.getName()).append(" {\n");
+    source.append("  ").append(interfaceName).append(' ').append(getDelegateFieldName())
+        .append(";\n");
+    for (Member constructor : constructors) {
+      source.append("\n  public ").append(simpleName);
+      appendParameters(source, constructor);
+      source.append(" {\n    ");
+      if (isInnerClass(type)) {
+        source.append("arg0.super(").append(getArguments(constructor, 1));
+      } else {
+        source.append("super(").append(getArguments(constructor, 0));
+      }
+      source.append(");\n  }\n");
+      // The factory method takes the delegate followed by the constructor's parameters.
+      source.append("\n  public static ").append(subclassName).append(' ')
+          .append(getFactoryMethodName()).append('(').append(interfaceName).append(" delegate");
+      StringBuilder parameters = new StringBuilder();
+      appendParameters(parameters, constructor);
+      source.append(parameters.charAt(1) == ')' ? "" : ", ").append(parameters.substring(1));
+      source.append(" {\n    ").append(subclassName).append(" mock = new ").append(subclassName)
+          .append('(').append(getArguments(constructor, 0)).append(");\n");
+      source.append("    mock.").append(getDelegateFieldName())
+          .append(" = delegate;\n    return mock;\n  }\n");
+    }
+    source.append("\n  public Object getDelegate___AndroidMock() {\n    return ").append(delegate)
+        .append(";\n  }\n");
+    source.append("\n  public void setDelegate___AndroidMock(").append(interfaceName)
+        .append(" obj) {\n    ").append(delegate).append(" = obj;\n  }\n");
+    for (Member method : methods) {
+      source.append("\n  public ").append(getSourceName(method.returnType)).append(' ')
+          .append(method.name);
+      appendParameters(source, method);
+      source.append(" {\n    if (").append(delegate).append(" == null) {\n      return")
+          .append(getReturnDefault(method.returnType)).append(";\n    }\n    ");
+      if (method.returnType.getKind() != TypeKind.VOID) {
+        source.append("return ");
+      }
+      source.append(delegate).append('.').append(method.name).append('(')
+          .append(getArguments(method, 0)).append(");\n  }\n");
+    }
+    return source.append("}\n").toString();
+  }
+
+  private String getReturnDefault(TypeMirror returnType) {
+    switch (returnType.getKind()) {
+      case VOID:
+        return "";
+      case BOOLEAN:
+        return " false";
+      case ARRAY:
+      case DECLARED:
+        return " null";
+      default:
+        return " (" + getSourceName(returnType) + ") 0";
+    }
+  }
+
+  /**
+   * Returns the source of the factory, which identifies a constructor by its index in the
+   * subclass' constructors sorted by descriptor. Anything thrown by a constructor is wrapped in an
+   * InvocationTargetException, as it is by the factories {@link AndroidMockGenerator} generates.
+   */
+  private String getFactorySource(String className, List<Member> constructors) {
+    String interfaceName = FileUtils.getInterfaceNameFor(className);
+    String subclassName = FileUtils.getSubclassNameFor(className);
+    String factoryName = FileUtils.getFactoryNameFor(className);
+    Map<String, Member> sortedConstructors = new TreeMap<String, Member>();
+    for (Member constructor : constructors) {
+      StringBuilder descriptor = new StringBuilder("(");
+      for (TypeMirror parameterType : constructor.parameterTypes) {
+        descriptor.append(getDescriptor(parameterType));
+      }
+      sortedConstructors.put(descriptor.append(")V").toString(), constructor);
+    }
+    StringBuilder source = new StringBuilder();
+    appendHeader(source, factoryName);
+    source.append("public class ").append(getSimpleName(factoryName)).append(" extends ")
+        .append(MockFactory.class.getName()).append(" {\n");
+    source.append("  public Object newMock(int constructor, Object delegate, Object[] args)\n")
+        .append("      throws java.lang.reflect.InvocationTargetException {\n");
+    int index = 0;
+    for (Member constructor : sortedConstructors.values()) {
+      // The arguments are converted first, so that only what the constructor throws is wrapped.
+      source.append("    if (constructor == ").append(index++).append(") {\n");
+      for (int i = 0; i < constructor.parameterTypes.size(); ++i) {
+        TypeMirror parameterType = constructor.parameterTypes.get(i);
+        source.append("      ").append(getSourceName(parameterType)).append(" arg").append(i)
+            .append(" = ").append(getUnboxingSource(parameterType, "args[" + i + "]"))
+            .append(";\n");
+      }
+      source.append("      try {\n        return ").append(subclassName).append('.')
+          .append(getFactoryMethodName()).append("((").append(interfaceName).append(") delegate");
+      if (!constructor.parameterTypes.isEmpty()) {
+        source.append(", ").append(getArguments(constructor, 0));
+      }
+      source.append(");\n      } catch (Throwable e) {\n")
+          .append("        throw new java.lang.reflect.InvocationTargetException(e);\n")
+          .append("      }\n    }\n");
+    }
+    source.append("    return noSuchConstructor(constructor);\n  }\n");
+    source.append("\n  public void setDelegate(Object mock, Object delegate) {\n    ((")
+        .append(subclassName).append(") mock).setDelegate___AndroidMock((").append(interfaceName)
+        .append(") delegate);\n  }\n");
+    return source.append("}\n").toString();
+  }
+
+  private String getUnboxingSource(TypeMirror type, String arg) {
+    if (!type.getKind().isPrimitive()) {
+      return "(" + getSourceName(type) + ") " + arg;
+    }
+    String name = getSourceName(type);
+    return MockFactory.class.getName() + ".to" + Character.toUpperCase(name.charAt(0))
+        + name.substring(1) + "(" + arg + ")";
+  }
+
+  private String getDelegateFieldName() {
+    return "delegateMockObject";
+  }
+
+  private String getFactoryMethodName() {
+    return "newMock___AndroidMock";
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The prebuilt framework mocks listed by the class indexes of the framework mock jars on a class
+ * path, from which the mocks can be copied without loading or parsing them.
+ *
+ * {@link MockJarWriter} writes a class index, {@value #INDEX_NAME}, into each jar. It has one
+ * {@code <class name> <entry name> <size>} line per class in the jar. As with classes, a mock in
+ * a jar earlier in the class path hides a mock of the same name in a later jar. Jars without an
+ * index, such as those built before indexes were written, are not listed.
+ */
+class PrebuiltMockIndex {
+  static final String INDEX_NAME = "META-INF/genmocks.index";
+
+  private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+  /**
+   * Reads the class indexes of all of the jars on {@code classLoader}'s class path.
+   */
+  PrebuiltMockIndex(ClassLoader classLoader) throws IOException {
+    for (URL indexUrl : Collections.list(classLoader.getResources(INDEX_NAME))) {
+      read(indexUrl);
+    }
+  }
+
+  private void read(URL indexUrl) throws IOException {
+    String indexLocation = indexUrl.toString();
+    String base = indexLocation.substring(0, indexLocation.length() - INDEX_NAME.length());
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(indexUrl.openStream(), "UTF-8"));
+    try {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split(" ");
+        if (fields.length == 3 && !entries.containsKey(fields[0])) {
+          entries.put(fields[0], new Entry(new URL(base + fields[1]), Integer.parseInt(fields[2])));
+        }
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * @return true if the prebuilt mock named {@code className} is in an indexed jar.
+   */
+  boolean contains(String className) {
+    return entries.containsKey(className);
+  }
+
+  /**
+   * Returns the stored bytes of the prebuilt mock named {@code className}, or null if it is not
+   * in any indexed jar.
+   */
+  GeneratedClassFile getClass(String className) throws IOException {
+    Entry entry = entries.get(className);
+    if (entry == null) {
+      return null;
+    }
+    byte[] contents = new byte[entry.size];
+    InputStream input = entry.url.openStream();
+    try {
+      new DataInputStream(input).readFully(contents);
+    } finally {
+      input.close();
+    }
+    return new GeneratedClassFile(className, contents);
+  }
+
+  private static class Entry {
+    final URL url;
+    final int size;
+
+    Entry(URL url, int size) {
+      this.url = url;
+      this.size = size;
+    }
+  }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records how long each phase of mock processing takes, for each mocked class, and how many
+ * bytes of mocks each class produces, so that the classes which cost the most build time can be
+ * found. {@link UsesMocksProcessor} writes the record as a JSON report with its
+ * {@link UsesMocksProcessor#TIMING_REPORT} option.
+ *
+ * The report has a {@code phases} list, with the total time, count and bytes of each phase in
+ * the order below, and a {@code classes} list, with the total time of each mocked class, the bytes
+ * of mocks written for it, and the time and bytes of each of its phases, slowest class first.
+ * Times are in milliseconds.
+ */
+class ProcessorTimings {
+  /** Finding the classes to mock from the {@link UsesMocks} annotations. */
+  static final String DISCOVERY = "discovery";
+  /** Loading, or finding the model of, a class to mock. */
+  static final String RESOLUTION = "resolution";
+  /** Generating the mocks of a class. */
+  static final String GENERATION = "generation";
+  /** Copying the prebuilt mocks of a framework class. */
+  static final String PREBUILT_COPY = "prebuilt_copy";
+  /** Writing the mocks of a class to the class output, mock jar or source output. */
+  static final String WRITE = "write";
+
+  private static final String[] PHASES =
+      new String[] {DISCOVERY, RESOLUTION, GENERATION, PREBUILT_COPY, WRITE};
+
+  /**
+   * The total time, count and bytes of one phase, or of one class.
+   */
+  private static class Total {
+    long nanos;
+    int count;
+    long bytes;
+
+    void add(long nanos, long bytes) {
+      this.nanos += nanos;
+      this.bytes += bytes;
+      ++count;
+    }
+  }
+
+  /**
+   * The totals of one mocked class, overall and by phase.
+   */
+  private static class ClassTotal {
+    long nanos;
+    long bytesWritten;
+    final Map<String, Total> phases = new LinkedHashMap<String, Total>();
+  }
+
+  private final Map<String, Total> phases = new LinkedHashMap<String, Total>();
+  private final Map<String, ClassTotal> classes = new TreeMap<String, ClassTotal>();
+
+  ProcessorTimings() {
+    for (String phase : PHASES) {
+      phases.put(phase, new Total());
+    }
+  }
+
+  /**
+   * @return the start time to pass to {@link #record}.
+   */
+  long start() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Records that {@code phase}, started at {@code start}, has just finished for the class named
+   * {@code className}, or for no class in particular if it is null, and produced {@code bytes}
+   * bytes.
+   */
+  void record(String phase, String className, long start, long bytes) {
+    long nanos = System.nanoTime() - start;
+    phases.get(phase).add(nanos, bytes);
+    if (className != null) {
+      ClassTotal classTotal = classes.get(className);
+      if (classTotal == null) {
+        classTotal = new ClassTotal();
+        classes.put(className, classTotal);
+      }
+      classTotal.nanos += nanos;
+      if (phase.equals(WRITE)) {
+        classTotal.bytesWritten += bytes;
+      }
+      Total phaseTotal = classTotal.phases.get(phase);
+      if (phaseTotal == null) {
+        phaseTotal = new Total();
+        classTotal.phases.put(phase, phaseTotal);
+      }
+      phaseTotal.add(nanos, bytes);
+    }
+  }
+
+  /**
+   * @return the total bytes of {@code mocks}.
+   */
+  static long getSize(List<GeneratedClassFile> mocks) {
+    long bytes = 0;
+    for (GeneratedClassFile mock : mocks) {
+      bytes += mock.getContents().length;
+    }
+    return bytes;
+  }
+
+  /**
+   * @return the names of the mocked classes, slowest first.
+   */
+  List<String> getClassNames() {
+    List<String> classNames = new ArrayList<String>(classes.keySet());
+    Collections.sort(classNames, new Comparator<String>() {
+      public int compare(String first, String second) {
+        long difference = classes.get(second).nanos - classes.get(first).nanos;
+        return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+      }
+    });
+    return classNames;
+  }
+
+  /**
+   * Writes the report to {@code file}.
+   */
+  void save(File file) throws IOException {
+    File directory = file.getAbsoluteFile().getParentFile();
+    directory.mkdirs();
+    Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+    try {
+      writer.write(toJson());
+    } finally {
+      writer.close();
+    }
+  }
+
+  String toJson() {
+    StringBuilder json = new StringBuilder("{\n  \"phases\": [");
+    String separator = "\n";
+    for (Map.Entry<String, Total> entry : phases.entrySet()) {
+      Total total = entry.getValue();
+      json.append(separator).append("    {\"phase\": ").append(quote(entry.getKey()))
+          .append(", ").append(getMillis(total.nanos)).append(", \"count\": ").append(total.count)
+          .append(", \"bytes\": ").append(total.bytes).append("}");
+      separator = ",\n";
+    }
+    json.append("\n  ],\n  \"classes\": [");
+    separator = "\n";
+    for (String className : getClassNames()) {
+      ClassTotal classTotal = classes.get(className);
+      json.append(separator).append("    {\"class\": ").append(quote(className)).append(", ")
+          .append(getMillis(classTotal.nanos)).append(", \"bytes\": ")
+          .append(classTotal.bytesWritten).append(", \"phases\": {");
+      String phaseSeparator = "";
+      for (Map.Entry<String, Total> entry : classTotal.phases.entrySet()) {
+        json.append(phaseSeparator).append(quote(entry.getKey())).append(": {");
+        json.append(getMillis(entry.getValue().nanos)).append(", \"bytes\": ")
+            .append(entry.getValue().bytes).append("}");
+        phaseSeparator = ", ";
+      }
+      json.append("}}");
+      separator = ",\n";
+    }
+    return json.append("\n  ]\n}\n").toString();
+  }
+
+  private String getMillis(long nanos) {
+    return "\"millis\": " + String.format(Locale.US, "%.3f", nanos / 1000000.0);
+  }
+
+  private String quote(String value) {
+    return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+}
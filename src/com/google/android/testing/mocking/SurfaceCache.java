@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import javassist.CannotCompileException;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the mocks generated for each distinct class surface, so that when the framework mocks for
+ * several API levels are generated in one run, a class which has not changed between levels is
+ * only mocked once.
+ *
+ * Classes are identified by {@link ClassSurface} fingerprints, which include the class name. Only
+ * the mocks of the current level and of the level before it are kept: call {@link #startLevel()}
+ * before each level, which drops those of older levels. The cache counts how many classes it has
+ * reused and how many it has had to generate, for reporting per level. It may be used by several
+ * {@link GenerationSession}s at once, within a level.
+ */
+class SurfaceCache {
+  private volatile Map<String, List<GeneratedClassFile>> previousLevel =
+      new ConcurrentHashMap<String, List<GeneratedClassFile>>();
+  private volatile Map<String, List<GeneratedClassFile>> currentLevel =
+      new ConcurrentHashMap<String, List<GeneratedClassFile>>();
+  private final AtomicInteger reused = new AtomicInteger();
+  private final AtomicInteger regenerated = new AtomicInteger();
+
+  /**
+   * Returns the mocks for the class named {@code className} in {@code session}'s class path,
+   * reusing the mocks of a class with the same surface in this level or the previous one if
+   * there is one.
+   */
+  List<GeneratedClassFile> getMocks(GenerationSession session, String className)
+      throws ClassNotFoundException, IOException, CannotCompileException {
+    String fingerprint = session.getSurfaceFingerprint(className);
+    List<GeneratedClassFile> mocks = currentLevel.get(fingerprint);
+    if (mocks == null) {
+      mocks = previousLevel.get(fingerprint);
+    }
+    if (mocks != null) {
+      currentLevel.put(fingerprint, mocks);
+      reused.incrementAndGet();
+      return mocks;
+    }
+    mocks = session.createMocksForClass(className);
+    currentLevel.put(fingerprint, mocks);
+    regenerated.incrementAndGet();
+    return mocks;
+  }
+
+  /**
+   * Starts a new level: the mocks of the level before the one just finished are dropped, and the
+   * counts are reset.
+   */
+  void startLevel() {
+    previousLevel = currentLevel;
+    currentLevel = new ConcurrentHashMap<String, List<GeneratedClassFile>>();
+    resetCounts();
+  }
+
+  /**
+   * @return the number of classes whose mocks were reused since the counts were last reset.
+   */
+  int getReusedCount() {
+    return reused.get();
+  }
+
+  /**
+   * @return the number of classes whose mocks were generated since the counts were last reset.
+   */
+  int getRegeneratedCount() {
+    return regenerated.get();
+  }
+
+  void resetCounts() {
+    reused.set(0);
+    regenerated.set(0);
+  }
+}
@@ -17,13 +17,21 @@ package com.google.android.testing.mocking;
 
 import javassist.CannotCompileException;
 
-import java.io.FileNotFoundException;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.zip.Deflater;
 
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.RoundEnvironment;
@@ -53,17 +61,111 @@ import javax.tools.JavaFileObject;
 @SupportedOptions({
     UsesMocksProcessor.REGENERATE_FRAMEWORK_MOCKS,
     UsesMocksProcessor.LOGFILE,
-    UsesMocksProcessor.BIN_DIR
+    UsesMocksProcessor.BIN_DIR,
+    UsesMocksProcessor.DIRECT_DISPATCH,
+    UsesMocksProcessor.COMPILE_METHOD_SOURCE,
+    UsesMocksProcessor.MOCK_CACHE_DIR,
+    UsesMocksProcessor.FRAMEWORK_MOCK_BUNDLE,
+    UsesMocksProcessor.FRAMEWORK_API_LEVEL,
+    UsesMocksProcessor.MODEL_BASED_MOCKS,
+    UsesMocksProcessor.MOCK_DEPENDENCY_FILE,
+    UsesMocksProcessor.MOCK_JAR,
+    UsesMocksProcessor.MOCK_JAR_COMPRESSION,
+    UsesMocksProcessor.SOURCE_MOCKS,
+    UsesMocksProcessor.TIMING_REPORT
 })
 public class UsesMocksProcessor extends AbstractProcessor {
   public static final String LOGFILE = "logfile";
   public static final String REGENERATE_FRAMEWORK_MOCKS = "RegenerateFrameworkMocks";
   public static final String BIN_DIR = "bin_dir";
-  private AndroidMockGenerator mockGenerator = new AndroidMockGenerator();
-  private AndroidFrameworkMockGenerator frameworkMockGenerator =
-      new AndroidFrameworkMockGenerator();
+  public static final String DIRECT_DISPATCH = "DirectDispatch";
+  public static final String COMPILE_METHOD_SOURCE = "CompileMethodSource";
+  public static final String MOCK_CACHE_DIR = "mock_cache_dir";
+  public static final String FRAMEWORK_MOCK_BUNDLE = "framework_mock_bundle";
+  public static final String FRAMEWORK_API_LEVEL = "framework_api_level";
+  /**
+   * Generates the mocks from javac's model of the mocked classes, without loading them. The mock
+   * methods are always emitted as bytecode, and the mock cache is not used.
+   */
+  public static final String MODEL_BASED_MOCKS = "ModelBasedMocks";
+  /**
+   * The file in which the mocks requested by each class are recorded between builds, so that an
+   * incremental build regenerates the mocks of the mocked classes it recompiles. The mocks of
+   * the mocked classes being compiled are always generated from javac's model of them, as with
+   * {@link #MODEL_BASED_MOCKS}, since their class files may be out of date.
+   */
+  public static final String MOCK_DEPENDENCY_FILE = "mock_dependency_file";
+  /**
+   * Writes all of the mocks generated by a compilation into this jar file, instead of writing
+   * each of them to the class output. Each compilation replaces the mocks it regenerates and keeps
+   * the others, so that an incremental build does not lose the mocks of the classes it does not
+   * compile. The jar must be added to the test classpath, and to the classes packaged with the
+   * tests, by the build.
+   */
+  public static final String MOCK_JAR = "mock_jar";
+  /**
+   * The compression level, from 0 (stored) to 9, of the {@link #MOCK_JAR}. Defaults to the
+   * default level of {@link java.util.zip.Deflater}.
+   */
+  public static final String MOCK_JAR_COMPRESSION = "mock_jar_compression";
+  /**
+   * Writes the DelegateInterface, DelegateSubclass and DelegateFactory of each mocked class as
+   * Java source, which javac compiles along with the tests, instead of generating their bytecode
+   * with javassist. The classes to mock are found from javac's model of them, as with
+   * {@link #MODEL_BASED_MOCKS}. Framework classes still use the prebuilt framework mocks, unless
+   * they are regenerated. The generated subclasses always call their delegates, so this option
+   * cannot be combined with {@link #DIRECT_DISPATCH}.
+   */
+  public static final String SOURCE_MOCKS = "SourceMocks";
+  /**
+   * The file to which a JSON report of the time spent in each phase of mock processing, and of
+   * the time and bytes of mocks for each mocked class, is written at the end of the compilation;
+   * see {@link ProcessorTimings}.
+   */
+  public static final String TIMING_REPORT = "timing_report";
+  private AndroidMockGenerator mockGenerator;
+  /** Generates mocks from javac's model of the classes; see {@link #MODEL_BASED_MOCKS}. */
+  private AndroidMockGenerator modelMockGenerator;
+  private AndroidFrameworkMockGenerator frameworkMockGenerator;
+  private MockSourceGenerator mockSourceGenerator;
+  private MockCache mockCache;
+  private MockBundle mockBundle;
+  /** The names of all classes requested by a {@link UsesMocks} annotation in any round so far. */
+  private final Set<String> requestedClassNames = new HashSet<String>();
+  /** The names of all classes whose mocks have been generated or looked up in any round so far. */
+  private final Set<String> mockedClassNames = new HashSet<String>();
+  /** The elements which requested the mocks of each class, by the class's name. */
+  private final Map<String, Set<Element>> requestingElements =
+      new HashMap<String, Set<Element>>();
+  /** The names of the classes each class requested mocks for, by the requesting class's name. */
+  private final Map<String, Set<String>> requestedClassNamesByRequester =
+      new HashMap<String, Set<String>>();
+  /** The name of the class mocked by each generated class, by the generated class's name. */
+  private final Map<String, String> mockedClassNamesByMock = new HashMap<String, String>();
+  private MockDependencies mockDependencies;
+  /**
+   * The names of the classes being compiled in the current round, when there is a
+   * {@link #MOCK_DEPENDENCY_FILE}. Their mocks are generated from javac's model of them, since
+   * loading them would find the class files of an earlier build.
+   */
+  private final Set<String> compiledClassNames = new HashSet<String>();
+  private MockJarWriter mockJarWriter;
+  private final ProcessorTimings timings = new ProcessorTimings();
   ProcessorLogger logger;
 
+  /**
+   * With a {@link #MOCK_DEPENDENCY_FILE}, the processor is run for every round, since any class
+   * being compiled may be a mocked class, or may no longer request its mocks. It never claims the
+   * annotations it sees.
+   */
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    if (isInitialized() && processingEnv.getOptions().get(MOCK_DEPENDENCY_FILE) != null) {
+      return Collections.singleton("*");
+    }
+    return super.getSupportedAnnotationTypes();
+  }
+
   /**
    * Main entry point of the processor.  This is called by the Annotation framework.
    * {@link javax.annotation.processing.AbstractProcessor} for more details.
@@ -72,9 +174,28 @@ public class UsesMocksProcessor extends AbstractProcessor {
   public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment environment) {
     try {
       prepareLogger();
-      List<Class<?>> classesToMock = getClassesToMock(environment);
-      Set<GeneratedClassFile> mockedClassesSet = getMocksFor(classesToMock);
+      prepareMockDependencies();
+      Set<GeneratedClassFile> mockedClassesSet;
+      if (processingEnv.getOptions().get(SOURCE_MOCKS) != null) {
+        mockedClassesSet = getSourceMocksFor(getClassNamesToMock(environment));
+      } else if (processingEnv.getOptions().get(MODEL_BASED_MOCKS) != null) {
+        mockedClassesSet = getModelMocksFor(getClassNamesToMock(environment));
+      } else {
+        List<String> classNamesToMock = getClassNamesToMock(environment);
+        List<String> compiledClassNamesToMock = removeCompiledClassNames(classNamesToMock);
+        mockedClassesSet = getMocksFor(loadClasses(classNamesToMock));
+        if (!compiledClassNamesToMock.isEmpty()) {
+          mockedClassesSet.addAll(getModelMocksFor(compiledClassNamesToMock));
+        }
+      }
       writeMocks(mockedClassesSet);
+      if (environment.processingOver()) {
+        closeMockJar();
+        if (mockDependencies != null) {
+          mockDependencies.save();
+        }
+        saveTimingReport();
+      }
     } catch (Exception e) {
       logger.printMessage(Kind.ERROR, e);
     } finally {
@@ -93,29 +214,120 @@ public class UsesMocksProcessor extends AbstractProcessor {
   private Set<GeneratedClassFile> getMocksFor(List<Class<?>> classesToMock) throws IOException,
       CannotCompileException {
     logger.printMessage(Kind.NOTE, "Found " + classesToMock.size() + " classes to mock");
-    boolean regenerateFrameworkMocks = processingEnv.getOptions().get(
-        REGENERATE_FRAMEWORK_MOCKS) != null;
-    if (regenerateFrameworkMocks) {
-      logger.printMessage(Kind.NOTE, "Regenerating Framework Mocks on Request");
-    }
+    boolean regenerateFrameworkMocks = configureGenerators();
     Set<GeneratedClassFile> mockedClassesSet =
         getClassMocks(classesToMock, regenerateFrameworkMocks);
     logger.printMessage(Kind.NOTE, "Found " + mockedClassesSet.size()
         + " mocked classes to save");
+    if (mockCache != null) {
+      logger.printMessage(Kind.NOTE, "Mock cache: " + mockCache.getHits() + " hits, "
+          + mockCache.getMisses() + " misses");
+    }
     return mockedClassesSet;
   }
 
+  /**
+   * Returns the same classes as {@link #getMocksFor(List)}, for the classes with the binary
+   * names in {@code classNamesToMock}, working from javac's model of the classes.
+   */
+  private Set<GeneratedClassFile> getModelMocksFor(List<String> classNamesToMock)
+      throws IOException, CannotCompileException {
+    logger.printMessage(Kind.NOTE, "Found " + classNamesToMock.size() + " classes to mock");
+    boolean regenerateFrameworkMocks = configureGenerators();
+    Set<GeneratedClassFile> mockedClassesSet =
+        getModelClassMocks(classNamesToMock, regenerateFrameworkMocks);
+    logger.printMessage(Kind.NOTE, "Found " + mockedClassesSet.size()
+        + " mocked classes to save");
+    return mockedClassesSet;
+  }
+
+  /**
+   * Applies the processor options to the mock generators.
+   *
+   * @return true if the framework mocks are to be regenerated.
+   */
+  private boolean configureGenerators() throws IOException {
+    boolean regenerateFrameworkMocks = processingEnv.getOptions().get(
+        REGENERATE_FRAMEWORK_MOCKS) != null;
+    if (regenerateFrameworkMocks) {
+      logger.printMessage(Kind.NOTE, "Regenerating Framework Mocks on Request");
+    }
+    if (processingEnv.getOptions().get(DIRECT_DISPATCH) != null) {
+      logger.printMessage(Kind.NOTE, "Generating mocks with direct dispatch");
+      getAndroidMockGenerator().setDirectDispatch(true);
+    }
+    if (processingEnv.getOptions().get(COMPILE_METHOD_SOURCE) != null) {
+      logger.printMessage(Kind.NOTE, "Compiling mock methods from source");
+      getAndroidMockGenerator().setEmitBytecode(false);
+    }
+    String mockCacheDir = processingEnv.getOptions().get(MOCK_CACHE_DIR);
+    if (mockCacheDir != null && mockCache == null) {
+      mockCache = new MockCache(new File(mockCacheDir.trim()),
+          getAndroidMockGenerator().getConfiguration());
+    }
+    configureMockBundle();
+    return regenerateFrameworkMocks;
+  }
+
+  /**
+   * Makes the framework mock generator read the prebuilt framework mocks from the
+   * {@link #FRAMEWORK_MOCK_BUNDLE}, if one is given.
+   */
+  private void configureMockBundle() throws IOException {
+    String mockBundleName = processingEnv.getOptions().get(FRAMEWORK_MOCK_BUNDLE);
+    if (mockBundleName != null && mockBundle == null) {
+      String apiLevel = processingEnv.getOptions().get(FRAMEWORK_API_LEVEL);
+      if (apiLevel == null) {
+        throw new IllegalArgumentException("The " + FRAMEWORK_MOCK_BUNDLE + " option requires the "
+            + FRAMEWORK_API_LEVEL + " option");
+      }
+      logger.printMessage(Kind.NOTE, "Using framework mocks for API level " + apiLevel.trim()
+          + " from " + mockBundleName.trim());
+      mockBundle = new MockBundle(new File(mockBundleName.trim()));
+      getAndroidFrameworkMockGenerator().setMockBundle(mockBundle,
+          Integer.parseInt(apiLevel.trim()));
+    }
+  }
+
   /**
    * @param environment the environment for this round of processing as provided to the main
    *        {@link #process(Set, RoundEnvironment)} method.
-   * @return a List of Class objects for the classes that need to be mocked.
+   * @return the binary names of the classes that need to be mocked.
    */
-  private List<Class<?>> getClassesToMock(RoundEnvironment environment) {
+  private List<String> getClassNamesToMock(RoundEnvironment environment) {
     logger.printMessage(Kind.NOTE, "Start Processing Annotations");
-    List<Class<?>> classesToMock = new ArrayList<Class<?>>();
-    classesToMock.addAll(
-        findClassesToMock(environment.getElementsAnnotatedWith(UsesMocks.class)));
-    return classesToMock;
+    long start = timings.start();
+    List<String> classNames =
+        findClassNamesToMock(environment.getElementsAnnotatedWith(UsesMocks.class));
+    if (mockDependencies != null) {
+      List<TypeElement> rootTypes = new ArrayList<TypeElement>();
+      addTypes(environment.getRootElements(), rootTypes);
+      compiledClassNames.clear();
+      for (TypeElement type : rootTypes) {
+        compiledClassNames.add(toClassPath(type));
+      }
+      classNames.addAll(findRecompiledMockedClassNames(rootTypes));
+      recordMockDependencies(rootTypes);
+    }
+    timings.record(ProcessorTimings.DISCOVERY, null, start, 0);
+    return classNames;
+  }
+
+  /**
+   * Removes the names of the classes being compiled in this round from {@code classNames}.
+   *
+   * @return the removed names.
+   */
+  private List<String> removeCompiledClassNames(List<String> classNames) {
+    List<String> removed = new ArrayList<String>();
+    for (Iterator<String> i = classNames.iterator(); i.hasNext();) {
+      String className = i.next();
+      if (compiledClassNames.contains(className)) {
+        removed.add(className);
+        i.remove();
+      }
+    }
+    return removed;
   }
 
   private void prepareLogger() {
@@ -124,6 +336,79 @@ public class UsesMocksProcessor extends AbstractProcessor {
     }
   }
 
+  private void prepareMockDependencies() {
+    String mockDependencyFile = processingEnv.getOptions().get(MOCK_DEPENDENCY_FILE);
+    if (mockDependencyFile != null && mockDependencies == null) {
+      mockDependencies = new MockDependencies(new File(mockDependencyFile.trim()));
+    }
+  }
+
+  /**
+   * Adds each type in {@code elements}, and each type nested in them, to {@code types}.
+   */
+  private void addTypes(Collection<? extends Element> elements, List<TypeElement> types) {
+    for (Element element : elements) {
+      if (element instanceof TypeElement) {
+        types.add((TypeElement) element);
+        addTypes(element.getEnclosedElements(), types);
+      }
+    }
+  }
+
+  /**
+   * Returns the names of the classes in {@code rootTypes}, the classes being compiled in this
+   * round, whose mocks were requested in an earlier build and have not yet been requested in this
+   * one. Their mocks are regenerated even if the classes which requested them are not being
+   * compiled.
+   */
+  private List<String> findRecompiledMockedClassNames(List<TypeElement> rootTypes) {
+    List<String> classNames = new ArrayList<String>();
+    for (TypeElement type : rootTypes) {
+      String className = toClassPath(type);
+      Set<String> requesters = mockDependencies.getRequesters(className);
+      if (!requesters.isEmpty() && requestedClassNames.add(className)) {
+        logger.printMessage(Kind.NOTE, "Regenerating the mocks of " + className
+            + ", requested by " + requesters);
+        getRequestingElements(className).add(type);
+        classNames.add(className);
+      }
+    }
+    return classNames;
+  }
+
+  /**
+   * Records the mocks requested by each class in {@code rootTypes}, replacing what was recorded
+   * for it in an earlier build.
+   */
+  private void recordMockDependencies(List<TypeElement> rootTypes) {
+    for (TypeElement type : rootTypes) {
+      String requester = toClassPath(type);
+      Set<String> classNames = requestedClassNamesByRequester.get(requester);
+      if (classNames != null || mockDependencies.isRequester(requester)) {
+        mockDependencies.setMockedClasses(requester,
+            classNames == null ? new HashSet<String>() : classNames);
+      }
+    }
+  }
+
+  private Set<Element> getRequestingElements(String className) {
+    Set<Element> elements = requestingElements.get(className);
+    if (elements == null) {
+      elements = new LinkedHashSet<Element>();
+      requestingElements.put(className, elements);
+    }
+    return elements;
+  }
+
+  /**
+   * @return the elements which requested the mocks of the class mocked by the generated class
+   *         named {@code mockName}, for the Filer to associate with the generated class.
+   */
+  private Element[] getOriginatingElements(String mockName) {
+    Set<Element> elements = requestingElements.get(mockedClassNamesByMock.get(mockName));
+    return elements == null ? new Element[0] : elements.toArray(new Element[elements.size()]);
+  }
+
   private String toClassPath(TypeElement element) {
     if (element.getNestingKind().isNested()) {
       return toClassPath((TypeElement) element.getEnclosingElement()) + "$" +
@@ -136,13 +421,39 @@ public class UsesMocksProcessor extends AbstractProcessor {
    * Finds all of the classes that should be mocked, based on {@link UsesMocks} annotations
    * in the various source files being compiled.
    * 
+   * Each class is returned, and loaded, only the first time it is found in any round of the
+   * compilation; the mocks for it are written in that round.
+   * 
    * @param annotatedElements a Set of all elements holding {@link UsesMocks} annotations.
    * @return all of the classes that should be mocked.
    */
   List<Class<?>> findClassesToMock(Set<? extends Element> annotatedElements) {
-    logger.printMessage(Kind.NOTE, "Processing " + annotatedElements);
+    return loadClasses(findClassNamesToMock(annotatedElements));
+  }
+
+  private List<Class<?>> loadClasses(List<String> classNames) {
     List<Class<?>> classList = new ArrayList<Class<?>>();
+    for (String classPath : classNames) {
+      long start = timings.start();
+      try {
+        classList.add(Class.forName(classPath, false, getClass().getClassLoader()));
+        timings.record(ProcessorTimings.RESOLUTION, classPath, start, 0);
+      } catch (ClassNotFoundException e) {
+        logger.reportClasspathError(classPath, e);
+      }
+    }
+    return classList;
+  }
+
+  /**
+   * Finds the binary names of all of the classes that should be mocked, as
+   * {@link #findClassesToMock} does, without loading the classes.
+   */
+  List<String> findClassNamesToMock(Set<? extends Element> annotatedElements) {
+    logger.printMessage(Kind.NOTE, "Processing " + annotatedElements);
+    List<String> classNames = new ArrayList<String>();
     for (Element annotation : annotatedElements) {
+      String requester = getRequester(annotation);
       List<? extends AnnotationMirror> mirrors = annotation.getAnnotationMirrors();
       for (AnnotationMirror mirror : mirrors) {
         if (mirror.getAnnotationType().toString().equals(UsesMocks.class.getName())) {
@@ -165,23 +476,43 @@ public class UsesMocksProcessor extends AbstractProcessor {
                   classPath = classPath.substring(0, classPath.length() - 6);
                 }
               }
-              logger.printMessage(Kind.NOTE, "Adding Class to Mocking List: " + classPath);
-              try {
-                classList.add(Class.forName(classPath, false, getClass().getClassLoader()));
-              } catch (ClassNotFoundException e) {
-                logger.reportClasspathError(classPath, e);
+              getRequestingElements(classPath).add(annotation);
+              if (requester != null) {
+                Set<String> requested = requestedClassNamesByRequester.get(requester);
+                if (requested == null) {
+                  requested = new HashSet<String>();
+                  requestedClassNamesByRequester.put(requester, requested);
+                }
+                requested.add(classPath);
               }
+              if (!requestedClassNames.add(classPath)) {
+                continue;
+              }
+              logger.printMessage(Kind.NOTE, "Adding Class to Mocking List: " + classPath);
+              classNames.add(classPath);
             }
           }
         }
       }
     }
-    return classList;
+    return classNames;
+  }
+
+  /**
+   * @return the name of the class holding {@code annotatedElement}, or null if there is none.
+   */
+  private String getRequester(Element annotatedElement) {
+    Element element = annotatedElement;
+    while (element != null && !(element instanceof TypeElement)) {
+      element = element.getEnclosingElement();
+    }
+    return element == null ? null : toClassPath((TypeElement) element);
   }
 
   /**
    * Gets a set of GeneratedClassFiles to represent all of the support classes required to
-   * mock the List of classes provided in {@code classesToMock}.
+   * mock the List of classes provided in {@code classesToMock}. Classes which have already been
+   * mocked by this processor, in this or an earlier round, are skipped.
    * @param classesToMock the list of classes to be mocked.
    * @param regenerateFrameworkMocks if true, then mocks for the framework classes will be created
    *        instead of pulled from the existing set of framework support classes.
@@ -191,12 +522,20 @@ public class UsesMocksProcessor extends AbstractProcessor {
       boolean regenerateFrameworkMocks) throws IOException, CannotCompileException {
     Set<GeneratedClassFile> mockedClassesSet = new HashSet<GeneratedClassFile>();
     for (Class<?> clazz : classesToMock) {
+      if (!mockedClassNames.add(clazz.getName())) {
+        continue;
+      }
       try {
         logger.printMessage(Kind.NOTE, "Mocking " + clazz);
         if (!AndroidMock.isAndroidClass(clazz) || regenerateFrameworkMocks) {
-          mockedClassesSet.addAll(getAndroidMockGenerator().createMocksForClass(clazz));
+          long start = timings.start();
+          List<GeneratedClassFile> mocks = createMocksForClass(clazz);
+          timings.record(ProcessorTimings.GENERATION, clazz.getName(), start,
+              ProcessorTimings.getSize(mocks));
+          addMocks(mockedClassesSet, clazz.getName(), mocks);
         } else {
-          mockedClassesSet.addAll(getAndroidFrameworkMockGenerator().getMocksForClass(clazz));
+          addMocks(mockedClassesSet, clazz.getName(),
+              getAndroidFrameworkMockGenerator().getMocksForClass(clazz));
         }
       } catch (ClassNotFoundException e) {
         logger.reportClasspathError(clazz.getName(), e);
@@ -207,7 +546,177 @@ public class UsesMocksProcessor extends AbstractProcessor {
     return mockedClassesSet;
   }
 
+  /**
+   * Adds {@code mocks}, the mocks of the class named {@code className}, to {@code mockedClassesSet}
+   * and remembers which class each of them mocks.
+   */
+  private void addMocks(Set<GeneratedClassFile> mockedClassesSet, String className,
+      List<GeneratedClassFile> mocks) {
+    for (GeneratedClassFile mock : mocks) {
+      mockedClassNamesByMock.put(mock.getClassName(), className);
+    }
+    mockedClassesSet.addAll(mocks);
+  }
+
+  /**
+   * Generates the mocks for {@code clazz}, or reuses them from the mock cache if the cache is
+   * enabled and neither the class nor its superclasses have changed.
+   */
+  private List<GeneratedClassFile> createMocksForClass(Class<?> clazz)
+      throws ClassNotFoundException, IOException, CannotCompileException {
+    if (mockCache == null) {
+      return getAndroidMockGenerator().createMocksForClass(clazz);
+    }
+    String key = mockCache.getKey(clazz);
+    List<GeneratedClassFile> mocks = mockCache.get(key);
+    if (mocks == null) {
+      mocks = getAndroidMockGenerator().createMocksForClass(clazz);
+      try {
+        mockCache.put(key, mocks);
+      } catch (IOException e) {
+        logger.printMessage(Kind.WARNING, "Could not cache the mocks for " + clazz.getName()
+            + ": " + e.getMessage());
+      }
+    }
+    return mocks;
+  }
+
+  /**
+   * Gets the support classes required to mock the classes with the binary names in
+   * {@code classNamesToMock}, as {@link #getClassMocks} does, but generates them from javac's
+   * model of the classes. Neither the mocked classes nor their superclasses are loaded, so they
+   * need not be on the processor's class path and may be compiled in the same javac invocation.
+   */
+  Set<GeneratedClassFile> getModelClassMocks(List<String> classNamesToMock,
+      boolean regenerateFrameworkMocks) throws IOException, CannotCompileException {
+    Set<GeneratedClassFile> mockedClassesSet = new HashSet<GeneratedClassFile>();
+    for (String className : classNamesToMock) {
+      if (!mockedClassNames.add(className)) {
+        continue;
+      }
+      try {
+        logger.printMessage(Kind.NOTE, "Mocking " + className);
+        int lastDot = className.lastIndexOf('.');
+        String packageName = lastDot < 0 ? "" : className.substring(0, lastDot);
+        if (!AndroidMock.isAndroidPackage(packageName) || regenerateFrameworkMocks) {
+          long start = timings.start();
+          List<GeneratedClassFile> mocks = getModelMockGenerator().createMocksForClass(className);
+          timings.record(ProcessorTimings.GENERATION, className, start,
+              ProcessorTimings.getSize(mocks));
+          addMocks(mockedClassesSet, className, mocks);
+        } else {
+          addMocks(mockedClassesSet, className,
+              getAndroidFrameworkMockGenerator().getMocksForClass(className));
+        }
+      } catch (ClassNotFoundException e) {
+        logger.reportClasspathError(className, e);
+      }
+    }
+    return mockedClassesSet;
+  }
+
+  private AndroidMockGenerator getModelMockGenerator() {
+    if (modelMockGenerator == null) {
+      modelMockGenerator = AndroidMockGenerator.forModel(processingEnv.getElementUtils(),
+          processingEnv.getTypeUtils());
+      modelMockGenerator.setDirectDispatch(getAndroidMockGenerator().isDirectDispatch());
+    }
+    return modelMockGenerator;
+  }
+
+  /**
+   * Writes the mocks for the classes with the binary names in {@code classNamesToMock} as Java
+   * source; see {@link #SOURCE_MOCKS}.
+   *
+   * @return the prebuilt mocks of the framework classes in {@code classNamesToMock}, which are
+   *         written as class files.
+   */
+  private Set<GeneratedClassFile> getSourceMocksFor(List<String> classNamesToMock)
+      throws IOException {
+    logger.printMessage(Kind.NOTE, "Found " + classNamesToMock.size() + " classes to mock");
+    if (processingEnv.getOptions().get(DIRECT_DISPATCH) != null) {
+      throw new IllegalArgumentException("The " + SOURCE_MOCKS + " option cannot be used with the "
+          + DIRECT_DISPATCH + " option");
+    }
+    boolean regenerateFrameworkMocks = processingEnv.getOptions().get(
+        REGENERATE_FRAMEWORK_MOCKS) != null;
+    configureMockBundle();
+    Set<GeneratedClassFile> frameworkMocks = new HashSet<GeneratedClassFile>();
+    for (String className : classNamesToMock) {
+      if (!mockedClassNames.add(className)) {
+        continue;
+      }
+      try {
+        logger.printMessage(Kind.NOTE, "Mocking " + className);
+        int lastDot = className.lastIndexOf('.');
+        String packageName = lastDot < 0 ? "" : className.substring(0, lastDot);
+        if (!AndroidMock.isAndroidPackage(packageName) || regenerateFrameworkMocks) {
+          writeMockSources(className);
+        } else {
+          addMocks(frameworkMocks, className,
+              getAndroidFrameworkMockGenerator().getMocksForClass(className));
+        }
+      } catch (ClassNotFoundException e) {
+        logger.reportClasspathError(className, e);
+      }
+    }
+    return frameworkMocks;
+  }
+
+  private void writeMockSources(String className) throws ClassNotFoundException {
+    long start = timings.start();
+    TypeElement type = processingEnv.getElementUtils().getTypeElement(className.replace('$', '.'));
+    if (type == null
+        || !processingEnv.getElementUtils().getBinaryName(type).contentEquals(className)) {
+      throw new ClassNotFoundException(className);
+    }
+    timings.record(ProcessorTimings.RESOLUTION, className, start, 0);
+    String reason = getMockSourceGenerator().getUnsupportedReason(type);
+    if (reason != null) {
+      logger.printMessage(Kind.WARNING, reason + ": " + className);
+      return;
+    }
+    start = timings.start();
+    List<MockSourceGenerator.MockSource> mocks = getMockSourceGenerator().createMockSources(type);
+    long bytes = 0;
+    for (MockSourceGenerator.MockSource mock : mocks) {
+      bytes += mock.getSource().length();
+    }
+    timings.record(ProcessorTimings.GENERATION, className, start, bytes);
+    for (MockSourceGenerator.MockSource mock : mocks) {
+      mockedClassNamesByMock.put(mock.getClassName(), className);
+      try {
+        logger.printMessage(Kind.NOTE, "Saving source of " + mock.getClassName());
+        start = timings.start();
+        JavaFileObject sourceFile = processingEnv.getFiler().createSourceFile(
+            mock.getClassName(), getOriginatingElements(mock.getClassName()));
+        Writer writer = sourceFile.openWriter();
+        try {
+          writer.write(mock.getSource());
+        } finally {
+          writer.close();
+        }
+        timings.record(ProcessorTimings.WRITE, className, start, mock.getSource().length());
+      } catch (IOException e) {
+        logger.printMessage(Kind.ERROR, "Internal Error saving mock: " + mock.getClassName());
+        logger.printMessage(Kind.ERROR, e);
+      }
+    }
+  }
+
+  private MockSourceGenerator getMockSourceGenerator() {
+    if (mockSourceGenerator == null) {
+      mockSourceGenerator = new MockSourceGenerator(processingEnv.getElementUtils(),
+          processingEnv.getTypeUtils());
+    }
+    return mockSourceGenerator;
+  }
+
   private AndroidFrameworkMockGenerator getAndroidFrameworkMockGenerator() {
+    if (frameworkMockGenerator == null) {
+      frameworkMockGenerator = new AndroidFrameworkMockGenerator();
+      frameworkMockGenerator.setTimings(timings);
+    }
     return frameworkMockGenerator;
   }
 
@@ -217,46 +726,136 @@ public class UsesMocksProcessor extends AbstractProcessor {
    * In Eclipse, additional information is needed as the Eclipse annotation processor framework
    * is missing key functionality required by this method.  Instead the classes are saved using
    * a FileOutputStream and the -Abin_dir processor option must be set.
+   * With the {@link #MOCK_JAR} option the mocks are added to the mock jar instead.
    * @param mockedClassesSet the set of mocks to be saved.
    */
   void writeMocks(Set<GeneratedClassFile> mockedClassesSet) {
+    String mockJarName = processingEnv.getOptions().get(MOCK_JAR);
+    if (mockJarName != null) {
+      writeMocksToJar(mockedClassesSet, mockJarName.trim());
+      return;
+    }
+    MockFolderWriter eclipseWriter = null;
     for (GeneratedClassFile clazz : mockedClassesSet) {
       OutputStream classFileStream;
+      long start = timings.start();
       try {
         logger.printMessage(Kind.NOTE, "Saving " + clazz.getClassName());
-        JavaFileObject classFile = processingEnv.getFiler().createClassFile(clazz.getClassName());
+        JavaFileObject classFile = processingEnv.getFiler().createClassFile(clazz.getClassName(),
+            getOriginatingElements(clazz.getClassName()));
         classFileStream = classFile.openOutputStream();
         classFileStream.write(clazz.getContents());
         classFileStream.close();
+        recordWrite(clazz, start);
       } catch (IOException e) {
         logger.printMessage(Kind.ERROR, "Internal Error saving mock: " + clazz.getClassName());
         logger.printMessage(Kind.ERROR, e);
       } catch (UnsupportedOperationException e) {
         // Eclipse annotation processing doesn't support class creation.
         logger.printMessage(Kind.NOTE, "Saving via Eclipse " + clazz.getClassName());
-        saveMocksEclipse(clazz, processingEnv.getOptions().get(BIN_DIR).toString().trim());
+        if (eclipseWriter == null) {
+          eclipseWriter = new MockFolderWriter(
+              processingEnv.getOptions().get(BIN_DIR).toString().trim(),
+              MockFolderWriter.DEFAULT_THREADS);
+        }
+        eclipseWriter.write(clazz);
+        recordWrite(clazz, start);
       }
     }
+    if (eclipseWriter != null) {
+      // The classes are saved in the background, so the wait is not attributed to any class.
+      long start = timings.start();
+      saveMocksEclipse(eclipseWriter);
+      timings.record(ProcessorTimings.WRITE, null, start, 0);
+    }
     logger.printMessage(Kind.NOTE, "Finished Processing Mocks");
   }
 
   /**
-   * Workaround to save the mocks for Eclipse's annotation processing framework which doesn't
-   * support the JavaFileObject object.
-   * @param clazz the class to save.
-   * @param outputFolderName the output folder where the class will be saved.
+   * Adds the mocks in {@code mockedClassesSet} to the mock jar, creating it in the first round.
+   * The jar is completed by {@link #closeMockJar} in the last round.
    */
-  private void saveMocksEclipse(GeneratedClassFile clazz, String outputFolderName) {
+  private void writeMocksToJar(Set<GeneratedClassFile> mockedClassesSet, String mockJarName) {
     try {
-      FileUtils.saveClassToFolder(clazz, outputFolderName);
-    } catch (FileNotFoundException e) {
+      if (mockJarWriter == null) {
+        File mockJar = new File(mockJarName);
+        if (mockJar.getParentFile() != null) {
+          mockJar.getParentFile().mkdirs();
+        }
+        mockJarWriter = new MockJarWriter(mockJar, getMockJarCompression(), true);
+      }
+      for (GeneratedClassFile clazz : mockedClassesSet) {
+        logger.printMessage(Kind.NOTE, "Saving " + clazz.getClassName() + " to " + mockJarName);
+        long start = timings.start();
+        mockJarWriter.write(clazz);
+        recordWrite(clazz, start);
+      }
+    } catch (IOException e) {
+      logger.printMessage(Kind.ERROR, "Internal Error saving mocks to " + mockJarName);
       logger.printMessage(Kind.ERROR, e);
+    }
+    logger.printMessage(Kind.NOTE, "Finished Processing Mocks");
+  }
+
+  private void recordWrite(GeneratedClassFile clazz, long start) {
+    timings.record(ProcessorTimings.WRITE, mockedClassNamesByMock.get(clazz.getClassName()),
+        start, clazz.getContents().length);
+  }
+
+  private int getMockJarCompression() {
+    String compression = processingEnv.getOptions().get(MOCK_JAR_COMPRESSION);
+    return compression == null
+        ? Deflater.DEFAULT_COMPRESSION : Integer.parseInt(compression.trim());
+  }
+
+  /**
+   * Writes the indexes of the mock jar, if one is being written, and closes it.
+   */
+  private void closeMockJar() throws IOException {
+    if (mockJarWriter != null) {
+      MockJarWriter writer = mockJarWriter;
+      mockJarWriter = null;
+      writer.close();
+    }
+  }
+
+  /**
+   * Writes the {@link #TIMING_REPORT}, if one was requested.
+   */
+  private void saveTimingReport() {
+    String timingReport = processingEnv.getOptions().get(TIMING_REPORT);
+    if (timingReport != null) {
+      try {
+        timings.save(new File(timingReport.trim()));
+        logger.printMessage(Kind.NOTE, "Wrote the mock timing report to " + timingReport.trim());
+      } catch (IOException e) {
+        logger.printMessage(Kind.WARNING, "Could not write the mock timing report "
+            + timingReport.trim() + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Workaround to save the mocks for Eclipse's annotation processing framework which doesn't
+   * support the JavaFileObject object. Waits for the classes queued on {@code eclipseWriter} to
+   * be saved to the -Abin_dir folder; class files which are unchanged are not rewritten.
+   * @param eclipseWriter the writer to which the classes to save have been written.
+   */
+  private void saveMocksEclipse(MockFolderWriter eclipseWriter) {
+    try {
+      int unchanged = eclipseWriter.close();
+      if (unchanged > 0) {
+        logger.printMessage(Kind.NOTE, "Left " + unchanged + " unchanged mocks in place");
+      }
     } catch (IOException e) {
       logger.printMessage(Kind.ERROR, e);
     }
   }
 
   private AndroidMockGenerator getAndroidMockGenerator() {
+    if (mockGenerator == null) {
+      mockGenerator = new AndroidMockGenerator();
+    }
     return mockGenerator;
   }
 }
@@ -95,7 +95,8 @@ public class AndroidFrameworkMockGeneratorTest extends TestCase {
     List<String> expectedNames = new ArrayList<String>();
     expectedNames.addAll(Arrays.asList(new String[] {
         "genmocks.java.lang.ObjectDelegateSubclass",
-        "genmocks.java.lang.ObjectDelegateInterface"}));
+        "genmocks.java.lang.ObjectDelegateInterface",
+        "genmocks.java.lang.ObjectDelegateFactory"}));
     List<String> actualNames = getClassNames(classes);
     assertUnorderedContentsSame(expectedNames, actualNames);
   }
@@ -113,6 +114,12 @@ public class AndroidFrameworkMockGeneratorTest extends TestCase {
     }
   }
 
+  public void testGetClassNames() {
+    assertEquals(Arrays.asList("java.lang.Object",
+        "com.google.android.testing.mocking.AndroidFrameworkMockGeneratorTest$Inner"),
+        getMockGenerator().getClassNames(getMockJarEntries()));
+  }
+
   public void testIsClassFile() {
     assertTrue(getMockGenerator().jarEntryIsClassFile(new JarEntry("something.class")));
     assertTrue(getMockGenerator().jarEntryIsClassFile(new JarEntry("/Foo/Bar.class")));
@@ -143,6 +150,7 @@ public class AndroidFrameworkMockGeneratorTest extends TestCase {
     String[] expectedClassNames = new String[] {
         "genmocks.java.util.HashtableDelegateSubclass",
         "genmocks.java.util.HashtableDelegateInterface",
+        "genmocks.java.util.HashtableDelegateFactory",
     };
     assertEquals(expectedClassNames.length, mocks.size());
     for (int i = 0; i < mocks.size(); ++i) {
@@ -151,6 +159,114 @@ public class AndroidFrameworkMockGeneratorTest extends TestCase {
     cleanupGeneratedClasses(createdClasses.toArray(new CtClass[0]));
   }
 
+  public void testGetMocksForClassFromBundle() throws ClassNotFoundException, IOException,
+      CannotCompileException {
+    AndroidFrameworkMockGenerator mockGenerator = getMockGenerator();
+    List<GeneratedClassFile> createdMocks =
+        mockGenerator.createMocksForClass(ClassHasDelegateMethods.class);
+    File bundleFile =
+        File.createTempFile("mocks", AndroidFrameworkMockGenerator.MOCK_BUNDLE_SUFFIX);
+    MockBundle bundle = null;
+    try {
+      MockBundleWriter writer = new MockBundleWriter(bundleFile);
+      writer.startLevel(7);
+      for (GeneratedClassFile mock : createdMocks) {
+        writer.write(mock);
+      }
+      writer.close();
+      bundle = new MockBundle(bundleFile);
+      mockGenerator.setMockBundle(bundle, 7);
+
+      List<GeneratedClassFile> mocks =
+          mockGenerator.getMocksForClass(ClassHasDelegateMethods.class);
+      assertEquals(3, mocks.size());
+      assertEquals(FileUtils.getSubclassNameFor(ClassHasDelegateMethods.class),
+          mocks.get(0).getClassName());
+      assertEquals(FileUtils.getInterfaceNameFor(ClassHasDelegateMethods.class),
+          mocks.get(1).getClassName());
+      assertEquals(FileUtils.getFactoryNameFor(ClassHasDelegateMethods.class),
+          mocks.get(2).getClassName());
+      for (GeneratedClassFile mock : mocks) {
+        GeneratedClassFile created = createdMocks.get(createdMocks.indexOf(mock));
+        assertTrue(mock.getClassName(),
+            Arrays.equals(created.getContents(), mock.getContents()));
+      }
+      try {
+        mockGenerator.getMocksForClass(ClassHasOverloadedMethods.class);
+        fail("Expected a ClassNotFoundException");
+      } catch (ClassNotFoundException e) {
+        // Expected
+      }
+    } finally {
+      if (bundle != null) {
+        bundle.close();
+      }
+      bundleFile.delete();
+    }
+  }
+
+  public void testGenerateMocksInParallelMatchesSerial() throws ClassNotFoundException,
+      IOException, CannotCompileException {
+    List<String> classList = new ArrayList<String>();
+    classList.add(ClassDoesWorkInConstructor.class.getName());
+    classList.add(ClassHasDelegateMethods.class.getName());
+    classList.add(ClassHasOverloadedMethods.class.getName());
+    classList.add(ClassHasNoDefaultConstructor.class.getName());
+    classList.add(ClassHasStaticMethods.class.getName());
+    List<GeneratedClassFile> serial = new ArrayList<GeneratedClassFile>(
+        AndroidFrameworkMockGenerator.generateMocks(classList, 1, 0));
+    List<GeneratedClassFile> parallel = new ArrayList<GeneratedClassFile>(
+        AndroidFrameworkMockGenerator.generateMocks(classList, 4, 100));
+
+    assertEquals(classList.size() * 3, serial.size());
+    assertEquals(FileUtils.getInterfaceNameFor(ClassDoesWorkInConstructor.class),
+        serial.get(0).getClassName());
+    assertEquals(getClassNames(serial), getClassNames(parallel));
+    for (int i = 0; i < serial.size(); ++i) {
+      assertTrue(serial.get(i).getClassName(),
+          Arrays.equals(serial.get(i).getContents(), parallel.get(i).getContents()));
+    }
+  }
+
+  public void testGenerateMocksToSinkMatchesSet() throws ClassNotFoundException,
+      IOException, CannotCompileException {
+    List<String> classList = new ArrayList<String>();
+    classList.add(ClassHasDelegateMethods.class.getName());
+    classList.add(ClassHasOverloadedMethods.class.getName());
+    classList.add(ClassHasStaticMethods.class.getName());
+    final List<GeneratedClassFile> streamed = new ArrayList<GeneratedClassFile>();
+    AndroidFrameworkMockGenerator.generateMocks(classList, 2, 100, new GeneratedClassSink() {
+      public void write(GeneratedClassFile clazz) {
+        streamed.add(clazz);
+      }
+    });
+    List<GeneratedClassFile> collected = new ArrayList<GeneratedClassFile>(
+        AndroidFrameworkMockGenerator.generateMocks(classList, 1, 100));
+
+    assertEquals(getClassNames(collected), getClassNames(streamed));
+    for (int i = 0; i < collected.size(); ++i) {
+      assertTrue(collected.get(i).getClassName(),
+          Arrays.equals(collected.get(i).getContents(), streamed.get(i).getContents()));
+    }
+  }
+
+  public void testGenerateMocksReportsSinkFailure() throws ClassNotFoundException,
+      CannotCompileException {
+    List<String> classList = new ArrayList<String>();
+    classList.add(ClassHasDelegateMethods.class.getName());
+    classList.add(ClassHasOverloadedMethods.class.getName());
+    try {
+      AndroidFrameworkMockGenerator.generateMocks(classList, 2, 100, new GeneratedClassSink() {
+        public void write(GeneratedClassFile clazz) throws IOException {
+          throw new IOException("disk full");
+        }
+      });
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      assertEquals("disk full", e.getMessage());
+    }
+  }
+
   class Inner {
   }
 }
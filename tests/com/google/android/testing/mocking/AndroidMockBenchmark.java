@@ -0,0 +1,170 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+
+import java.lang.reflect.Constructor;
+import java.util.List;
+import java.util.SimpleTimeZone;
+
+/**
+ * Measures the cost of creating class mocks through {@link AndroidMock}.
+ *
+ * Not run as part of the unit tests; use the {@code benchmark} target or run the main method
+ * directly with the test classpath.
+ */
+public class AndroidMockBenchmark {
+  private static final int WARMUP_ITERATIONS = 20000;
+  private static final int ITERATIONS = 200000;
+
+  public static void main(String[] args) throws Exception {
+    prepareMocks(SimpleTimeZone.class);
+    System.out.println("createMock(SimpleTimeZone.class, 0, \"GMT\")");
+    benchmarkCreateMock();
+    System.out.println("Constructor resolution for SimpleTimeZone(int, String, int x 8)");
+    benchmarkResolveConstructor();
+    System.out.println("MockPool.acquire(SimpleTimeZone.class) and release");
+    benchmarkMockPool();
+    prepareMocks(ProxyDispatched.class);
+    AndroidMockGenerator directDispatchGenerator = new AndroidMockGenerator();
+    directDispatchGenerator.setDirectDispatch(true);
+    prepareMocks(directDispatchGenerator, DirectDispatched.class);
+    System.out.println("Calls to add(int, int) on a replayed class mock");
+    benchmarkDispatch();
+  }
+
+  static void prepareMocks(Class<?> clazz) throws Exception {
+    prepareMocks(new AndroidMockGenerator(), clazz);
+  }
+
+  static void prepareMocks(AndroidMockGenerator mockGenerator, Class<?> clazz) throws Exception {
+    List<GeneratedClassFile> mockClasses = mockGenerator.createMocksForClass(clazz);
+    for (GeneratedClassFile mockClass : mockClasses) {
+      try {
+        ClassPool.getDefault().get(mockClass.getClassName()).toClass();
+      } catch (CannotCompileException e) {
+        // Already loaded.
+      }
+    }
+  }
+
+  private static void benchmarkCreateMock() {
+    for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+      MockClassInfo.clearCache();
+      AndroidMock.createMock(SimpleTimeZone.class, 0, "GMT");
+      AndroidMock.createMock(SimpleTimeZone.class, 0, "GMT");
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; ++i) {
+      MockClassInfo.clearCache();
+      AndroidMock.createMock(SimpleTimeZone.class, 0, "GMT");
+    }
+    report("uncached", start);
+
+    start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; ++i) {
+      AndroidMock.createMock(SimpleTimeZone.class, 0, "GMT");
+    }
+    report("cached", start);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void benchmarkResolveConstructor() {
+    Constructor<SimpleTimeZone>[] constructors =
+        (Constructor<SimpleTimeZone>[]) SimpleTimeZone.class.getConstructors();
+    Object[] args = new Object[] {0, "GMT", 1, 1, 1, 0, 2, 1, 1, 0};
+    ConstructorTable<SimpleTimeZone> table =
+        new ConstructorTable<SimpleTimeZone>(SimpleTimeZone.class, constructors);
+    for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+      AndroidMock.getConstructorFor(SimpleTimeZone.class, args);
+      table.resolve(args);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; ++i) {
+      AndroidMock.getConstructorFor(SimpleTimeZone.class, args);
+    }
+    report("unmemoized", start);
+
+    start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; ++i) {
+      table.resolve(args);
+    }
+    report("memoized", start);
+  }
+
+  private static void benchmarkMockPool() {
+    MockPool pool = MockPool.createPool(4);
+    for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+      pool.release(pool.acquire(SimpleTimeZone.class));
+      AndroidMock.createMockWithoutConstructor(SimpleTimeZone.class);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; ++i) {
+      AndroidMock.createMockWithoutConstructor(SimpleTimeZone.class);
+    }
+    report("createMockWithoutConstructor", start);
+
+    start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; ++i) {
+      pool.release(pool.acquire(SimpleTimeZone.class));
+    }
+    report("pooled", start);
+    System.out.println("  " + pool);
+  }
+
+  private static void benchmarkDispatch() {
+    ProxyDispatched proxyMock = AndroidMock.createMock(ProxyDispatched.class);
+    AndroidMock.expect(proxyMock.add(1, 2)).andStubReturn(3);
+    AndroidMock.replay(proxyMock);
+    DirectDispatched directMock = AndroidMock.createMock(DirectDispatched.class);
+    AndroidMock.expect(directMock.add(1, 2)).andStubReturn(3);
+    AndroidMock.replay(directMock);
+    for (int i = 0; i < WARMUP_ITERATIONS; ++i) {
+      proxyMock.add(1, 2);
+      directMock.add(1, 2);
+    }
+    long start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; ++i) {
+      proxyMock.add(1, 2);
+    }
+    report("proxy", start);
+
+    start = System.nanoTime();
+    for (int i = 0; i < ITERATIONS; ++i) {
+      directMock.add(1, 2);
+    }
+    report("direct dispatch", start);
+  }
+
+  static void report(String label, long startNanos) {
+    long elapsed = System.nanoTime() - startNanos;
+    System.out.println("  " + label + ": " + (elapsed / ITERATIONS) + " ns per call");
+  }
+
+  public static class ProxyDispatched {
+    public int add(int first, int second) {
+      return first + second;
+    }
+  }
+
+  public static class DirectDispatched {
+    public int add(int first, int second) {
+      return first + second;
+    }
+  }
+}
@@ -16,6 +16,7 @@
 package com.google.android.testing.mocking;
 
 import javassist.CannotCompileException;
+import javassist.ClassClassPath;
 import javassist.ClassPool;
 import javassist.CtClass;
 import javassist.CtMethod;
@@ -24,6 +25,7 @@ import javassist.NotFoundException;
 import junit.framework.TestCase;
 
 import java.io.IOException;
+import java.io.Writer;
 import java.lang.reflect.Method;
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -88,7 +90,7 @@ public class AndroidMockGeneratorTest extends TestCase {
         "intValue", "longValue", "shortValue"}));
     if (includeDelegateMethods) {
       expectedNames.addAll(Arrays.asList(new String[] {"getDelegate___AndroidMock",
-          "setDelegate___AndroidMock"}));
+          "setDelegate___AndroidMock", "newMock___AndroidMock"}));
     }
     return expectedNames;
   }
@@ -471,6 +473,37 @@ public class AndroidMockGeneratorTest extends TestCase {
     cleanupGeneratedClasses(generatedInterface, generatedClass);
   }
 
+  public void testBytecodeAndSourceMethodsMatch() throws ClassNotFoundException,
+      NotFoundException {
+    AndroidMockGenerator mockGenerator = getAndroidMockGenerator();
+    List<String> bytecodeMethods = getMethodDescriptions(mockGenerator, Writer.class);
+    mockGenerator.setEmitBytecode(false);
+    List<String> sourceMethods = getMethodDescriptions(mockGenerator, Writer.class);
+    assertFalse(bytecodeMethods.isEmpty());
+    assertUnorderedContentsSame(sourceMethods, bytecodeMethods);
+  }
+
+  private List<String> getMethodDescriptions(AndroidMockGenerator mockGenerator, Class<?> clazz)
+      throws ClassNotFoundException, NotFoundException {
+    CtClass generatedInterface = mockGenerator.generateInterface(clazz);
+    CtClass generatedClass = mockGenerator.generateSkeletalClass(clazz, generatedInterface);
+    mockGenerator.addMethods(clazz, generatedClass);
+    List<String> descriptions = new ArrayList<String>();
+    for (CtClass generated : new CtClass[] {generatedInterface, generatedClass}) {
+      for (CtMethod method : generated.getDeclaredMethods()) {
+        StringBuilder description = new StringBuilder(generated.getSimpleName());
+        description.append(" ").append(method.getModifiers()).append(" ");
+        description.append(method.getName()).append(method.getSignature());
+        for (CtClass exceptionType : method.getExceptionTypes()) {
+          description.append(" ").append(exceptionType.getName());
+        }
+        descriptions.add(description.toString());
+      }
+    }
+    cleanupGeneratedClasses(generatedInterface, generatedClass);
+    return descriptions;
+  }
+
   public void testGetAllMethods() throws ClassNotFoundException {
     AndroidMockGenerator mockGenerator = getAndroidMockGenerator();
     CtClass generatedInterface = mockGenerator.generateInterface(
@@ -498,7 +531,7 @@ public class AndroidMockGeneratorTest extends TestCase {
 
   public void testAddInterfaceMethods() {
     AndroidMockGenerator mockGenerator = getAndroidMockGenerator();
-    CtClass generatedInterface = AndroidMockGenerator.getClassPool().makeInterface("testInterface");
+    CtClass generatedInterface = mockGenerator.getClassPool().makeInterface("testInterface");
 
     mockGenerator.addInterfaceMethods(Number.class, generatedInterface);
 
@@ -529,13 +562,48 @@ public class AndroidMockGeneratorTest extends TestCase {
     List<String> expectedNames = new ArrayList<String>();
     String subclassName = "genmocks.java.lang.ObjectDelegateSubclass";
     String interfaceName = "genmocks.java.lang.ObjectDelegateInterface";
+    String factoryName = "genmocks.java.lang.ObjectDelegateFactory";
     expectedNames.addAll(Arrays.asList(new String[] {subclassName,
-        interfaceName}));
+        interfaceName, factoryName}));
     List<String> actualNames = getClassNames(classes);
     assertUnorderedContentsSame(expectedNames, actualNames);
     cleanupGeneratedClasses(
         ClassPool.getDefault().get(subclassName),
-        ClassPool.getDefault().get(interfaceName));
+        ClassPool.getDefault().get(interfaceName),
+        ClassPool.getDefault().get(factoryName));
+  }
+
+  private List<GeneratedClassFile> createMocksInNewClassPool(Class<?> clazz)
+      throws ClassNotFoundException, IOException, CannotCompileException, NotFoundException {
+    ClassPool classPool = new ClassPool(true);
+    classPool.insertClassPath(new ClassClassPath(clazz));
+    AndroidMockGenerator mockGenerator = new AndroidMockGenerator(classPool);
+    return mockGenerator.createMocksForClass(classPool.get(clazz.getName()));
+  }
+
+  public void testMocksAreReproducible() throws ClassNotFoundException, IOException,
+      CannotCompileException, NotFoundException {
+    List<GeneratedClassFile> first = createMocksInNewClassPool(ClassHasOverloadedMethods.class);
+    List<GeneratedClassFile> second = createMocksInNewClassPool(ClassHasOverloadedMethods.class);
+
+    assertEquals(3, first.size());
+    assertEquals(getClassNames(first), getClassNames(second));
+    for (int i = 0; i < first.size(); ++i) {
+      assertTrue(first.get(i).getClassName(),
+          Arrays.equals(first.get(i).getContents(), second.get(i).getContents()));
+    }
+  }
+
+  public void testGetFactoryMethodSource() throws ClassNotFoundException {
+    AndroidMockGenerator mockGenerator = getAndroidMockGenerator();
+    CtClass generatedInterface = mockGenerator.generateInterface(Object.class);
+    CtClass generatedClass = mockGenerator.generateSkeletalClass(Object.class, generatedInterface);
+    String expectedSource = "{ genmocks.java.lang.ObjectDelegateSubclass mock = "
+        + "new genmocks.java.lang.ObjectDelegateSubclass($2,$3); "
+        + "mock.delegateMockObject = $1; return mock; }";
+
+    assertEquals(expectedSource, mockGenerator.getFactoryMethodSource(generatedClass, 3));
+    cleanupGeneratedClasses(generatedInterface, generatedClass);
   }
 
   public void testGetSetDelegateMethodSource() {
@@ -548,6 +616,54 @@ public class AndroidMockGeneratorTest extends TestCase {
     assertEquals(expectedSource, mockGenerator.getSetDelegateMethodSource(generatedInterface));
   }
 
+  public void testGetSetDelegateMethodSourceDirectDispatch() {
+    AndroidMockGenerator mockGenerator = getAndroidMockGenerator();
+    mockGenerator.setDirectDispatch(true);
+    CtClass generatedInterface = mockGenerator.generateInterface(Object.class);
+    String expectedSource =
+        "public void setDelegate___AndroidMock(genmocks.java.lang.ObjectDelegateInterface obj) {"
+            + " this.delegateMockObject = obj; this.dispatcher___AndroidMock = "
+            + "com.google.android.testing.mocking.MockDispatcher#forDelegate((Object) obj);}";
+
+    assertEquals(expectedSource, mockGenerator.getSetDelegateMethodSource(generatedInterface));
+  }
+
+  public void testGetDirectDispatchMethodSource() throws SecurityException,
+      NoSuchMethodException {
+    AndroidMockGenerator mockGenerator = getAndroidMockGenerator();
+    Method method = ClassUsesDirectDispatch.class.getMethod("add", Integer.TYPE, Integer.TYPE);
+    assertEquals("public int add(int arg0,int arg1){if(this.delegateMockObject==null){"
+        + "return (int)0;}if(this.dispatcher___AndroidMock==null){"
+        + "return this.delegateMockObject.add(arg0,arg1);}"
+        + "Object[] args=new Object[2];"
+        + "args[0]=com.google.android.testing.mocking.MockDispatcher#box(arg0);"
+        + "args[1]=com.google.android.testing.mocking.MockDispatcher#box(arg1);"
+        + "return com.google.android.testing.mocking.MockDispatcher#intValue("
+        + "this.dispatcher___AndroidMock.invoke(3,args));}",
+        mockGenerator.getDirectDispatchMethodSource(method, 3));
+    method = ClassUsesDirectDispatch.class.getMethod("clear");
+    assertEquals("public void clear(){if(this.delegateMockObject==null){return ;}"
+        + "if(this.dispatcher___AndroidMock==null){this.delegateMockObject.clear();return;}"
+        + "this.dispatcher___AndroidMock.invoke(0);}",
+        mockGenerator.getDirectDispatchMethodSource(method, 0));
+  }
+
+  public void testGetDirectDispatchMethodSourceManyParams() throws SecurityException,
+      NoSuchMethodException {
+    Method method = ClassUsesDirectDispatch.class.getMethod("join", String.class, Long.TYPE,
+        Character.TYPE, Boolean.TYPE);
+    assertEquals("public java.lang.String join(java.lang.String arg0,long arg1,char arg2,"
+        + "boolean arg3){if(this.delegateMockObject==null){return null;}"
+        + "if(this.dispatcher___AndroidMock==null){"
+        + "return this.delegateMockObject.join(arg0,arg1,arg2,arg3);}"
+        + "Object[] args=new Object[4];args[0]=(Object)arg0;"
+        + "args[1]=com.google.android.testing.mocking.MockDispatcher#box(arg1);"
+        + "args[2]=com.google.android.testing.mocking.MockDispatcher#box(arg2);"
+        + "args[3]=com.google.android.testing.mocking.MockDispatcher#box(arg3);"
+        + "return (java.lang.String)this.dispatcher___AndroidMock.invoke(1,args);}",
+        getAndroidMockGenerator().getDirectDispatchMethodSource(method, 1));
+  }
+
   public void testIsForbiddenMethod() throws SecurityException, NoSuchMethodException {
     Method[] forbiddenMethods =
         new Method[] {Object.class.getMethod("equals", Object.class),
@@ -27,13 +27,17 @@ import javassist.expr.MethodCall;
 import junit.framework.TestCase;
 
 import org.easymock.Capture;
+import org.easymock.ConstructorArgs;
 import org.easymock.IAnswer;
+import org.easymock.IMocksControl;
 import org.easymock.LogicalOperator;
 import org.easymock.internal.matchers.Equals;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInput;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
@@ -68,7 +72,19 @@ public class AndroidMockTest extends TestCase {
           "com.google.android.testing.mocking.AndroidMock.createNiceMock("
               + "java.lang.Class,java.lang.Object[])",
           "com.google.android.testing.mocking.AndroidMock.createNiceMock("
-              + "java.lang.String,java.lang.Class,java.lang.Object[])"}));
+              + "java.lang.String,java.lang.Class,java.lang.Object[])",
+          "com.google.android.testing.mocking.AndroidMock.createMockWithoutConstructor("
+              + "java.lang.Class)",
+          "com.google.android.testing.mocking.AndroidMock.createMockWithoutConstructor("
+              + "java.lang.String,java.lang.Class)",
+          "com.google.android.testing.mocking.AndroidMock.createNiceMockWithoutConstructor("
+              + "java.lang.Class)",
+          "com.google.android.testing.mocking.AndroidMock.createNiceMockWithoutConstructor("
+              + "java.lang.String,java.lang.Class)",
+          "com.google.android.testing.mocking.AndroidMock.createStrictMockWithoutConstructor("
+              + "java.lang.Class)",
+          "com.google.android.testing.mocking.AndroidMock.createStrictMockWithoutConstructor("
+              + "java.lang.String,java.lang.Class)"}));
 
   private CtMethod[] getForwardedMethods() throws NotFoundException {
     List<CtMethod> methods =
@@ -191,6 +207,45 @@ public class AndroidMockTest extends TestCase {
     AndroidMock.verify(mockTimeZone);
   }
 
+  public void testCreateMockReusesResolvedMockClasses() throws ClassNotFoundException,
+      IOException, CannotCompileException, NotFoundException {
+    List<GeneratedClassFile> mockClasses =
+        new AndroidMockGenerator().createMocksForClass(SimpleTimeZone.class);
+    compileClasses(mockClasses);
+    MockClassInfo<SimpleTimeZone> mockClassInfo = MockClassInfo.forClass(SimpleTimeZone.class);
+    assertSame(mockClassInfo, MockClassInfo.forClass(SimpleTimeZone.class));
+    assertEquals(FileUtils.getSubclassNameFor(SimpleTimeZone.class),
+        mockClassInfo.getSubclass().getName());
+    assertEquals(FileUtils.getInterfaceNameFor(SimpleTimeZone.class),
+        mockClassInfo.getDelegateInterface().getName());
+
+    SimpleTimeZone first = AndroidMock.createMock(SimpleTimeZone.class, 0, "GMT");
+    SimpleTimeZone second = AndroidMock.createMock(SimpleTimeZone.class, 0, "GMT");
+    assertNotSame(first, second);
+    assertSame(first.getClass(), second.getClass());
+  }
+
+  public void testCreateMockUsesGeneratedFactory() throws ClassNotFoundException, IOException,
+      CannotCompileException, NotFoundException {
+    List<GeneratedClassFile> mockClasses = new AndroidMockGenerator().createMocksForClass(
+        ConstructorCreationTests.TestClass.class);
+    compileClasses(mockClasses);
+    assertNotNull(Class.forName(
+        FileUtils.getFactoryNameFor(ConstructorCreationTests.TestClass.class)));
+
+    ConstructorCreationTests.TestClass floatMock =
+        AndroidMock.createMock(ConstructorCreationTests.TestClass.class, 1, 2.0f);
+    assertEquals(1, floatMock.v1);
+    assertTrue(floatMock.usedFloatConstructor);
+    ConstructorCreationTests.TestClass doubleMock =
+        AndroidMock.createMock(ConstructorCreationTests.TestClass.class, 3, 4.0);
+    assertEquals(3, doubleMock.v1);
+    assertFalse(doubleMock.usedFloatConstructor);
+    ConstructorCreationTests.TestClass charMock =
+        AndroidMock.createMock(ConstructorCreationTests.TestClass.class, 'a');
+    assertEquals('a', charMock.v1);
+  }
+
   public void testCreateMockUsingProtectedConstructors() throws ClassNotFoundException,
       IOException, CannotCompileException, NotFoundException {
     List<GeneratedClassFile> mockClasses =
@@ -439,6 +494,131 @@ public class AndroidMockTest extends TestCase {
     ClassDoesWorkInConstructor mock = AndroidMock.createMock(ClassDoesWorkInConstructor.class);
   }
 
+  public void testCreateMockWrapsConstructorExceptions() throws ClassNotFoundException,
+      IOException, CannotCompileException, NotFoundException {
+    compileClasses(new AndroidMockGenerator().createMocksForClass(ThrowsInConstructor.class));
+    try {
+      AndroidMock.createMock(ThrowsInConstructor.class, 1);
+      fail("The constructor's exception was not thrown");
+    } catch (ExceptionInInitializerError e) {
+      assertTrue(e.getCause() instanceof InvocationTargetException);
+      assertTrue(e.getCause().getCause() instanceof IOException);
+    }
+  }
+
+  public void testCreateMockWithoutConstructor() throws ClassNotFoundException, IOException,
+      CannotCompileException, NotFoundException {
+    List<GeneratedClassFile> mockClasses =
+        new AndroidMockGenerator().createMocksForClass(ClassDoesWorkInConstructor.class);
+    compileClasses(mockClasses);
+    ClassDoesWorkInConstructor mock =
+        AndroidMock.createStrictMockWithoutConstructor(ClassDoesWorkInConstructor.class);
+    AndroidMock.expect(mock.fooInt(5)).andReturn(42);
+    AndroidMock.replay(mock);
+    assertEquals(42, mock.fooInt(5));
+    AndroidMock.verify(mock);
+  }
+
+  public void testCreateMockWithoutConstructorSkipsConstructor() throws ClassNotFoundException,
+      IOException, CannotCompileException, NotFoundException {
+    List<GeneratedClassFile> mockClasses = new AndroidMockGenerator().createMocksForClass(
+        ConstructorCreationTests.TestClass.class);
+    compileClasses(mockClasses);
+    ConstructorCreationTests.TestClass mock =
+        AndroidMock.createNiceMockWithoutConstructor(ConstructorCreationTests.TestClass.class);
+    assertEquals(0, mock.v1);
+    assertFalse(mock.usedFloatConstructor);
+    assertEquals(FileUtils.getSubclassNameFor(ConstructorCreationTests.TestClass.class),
+        mock.getClass().getName());
+  }
+
+  public void testCreateMockWithDirectDispatch() throws ClassNotFoundException, IOException,
+      CannotCompileException, NotFoundException, NoSuchFieldException, IllegalAccessException {
+    AndroidMockGenerator mockGenerator = new AndroidMockGenerator();
+    mockGenerator.setDirectDispatch(true);
+    compileClasses(mockGenerator.createMocksForClass(ClassUsesDirectDispatch.class));
+    ClassUsesDirectDispatch mock = AndroidMock.createStrictMock(ClassUsesDirectDispatch.class);
+    Field dispatcher = mock.getClass().getDeclaredField("dispatcher___AndroidMock");
+    dispatcher.setAccessible(true);
+    assertNotNull(dispatcher.get(mock));
+
+    AndroidMock.expect(mock.add(1, 2)).andReturn(3);
+    AndroidMock.expect(mock.scale(1.5)).andReturn(3.0);
+    AndroidMock.expect(mock.join("a", 2L, ',', true)).andReturn("a,2");
+    mock.clear();
+    AndroidMock.replay(mock);
+    assertEquals(3, mock.add(1, 2));
+    assertEquals(3.0, mock.scale(1.5));
+    assertEquals("a,2", mock.join("a", 2L, ',', true));
+    mock.clear();
+    AndroidMock.verify(mock);
+  }
+
+  public void testCreateStrictControlChecksOrderAcrossClassMocks()
+      throws ClassNotFoundException, IOException, CannotCompileException, NotFoundException {
+    List<GeneratedClassFile> mockClasses =
+        new AndroidMockGenerator().createMocksForClass(ClassDoesWorkInConstructor.class);
+    compileClasses(mockClasses);
+    IMocksControl control = AndroidMock.createStrictControl();
+    ClassDoesWorkInConstructor first = control.createMock(ClassDoesWorkInConstructor.class);
+    Runnable second = control.createMock(Runnable.class);
+    AndroidMock.expect(first.fooInt(1)).andReturn(2);
+    second.run();
+    AndroidMock.expect(first.fooInt(3)).andReturn(4);
+    control.replay();
+    assertEquals(2, first.fooInt(1));
+    try {
+      first.fooInt(3);
+      fail("Out of order call across mocks was not detected");
+    } catch (AssertionError e) {
+      // expected
+    }
+
+    control.reset();
+    AndroidMock.expect(first.fooInt(1)).andReturn(2);
+    second.run();
+    control.replay();
+    assertEquals(2, first.fooInt(1));
+    second.run();
+    control.verify();
+  }
+
+  public void testCreateControlUsesConstructorArgs() throws ClassNotFoundException, IOException,
+      CannotCompileException, NotFoundException, NoSuchMethodException {
+    List<GeneratedClassFile> mockClasses = new AndroidMockGenerator().createMocksForClass(
+        ConstructorCreationTests.TestClass.class);
+    compileClasses(mockClasses);
+    IMocksControl control = AndroidMock.createControl();
+    ConstructorCreationTests.TestClass mock = control.createMock(
+        ConstructorCreationTests.TestClass.class, new ConstructorArgs(
+            ConstructorCreationTests.TestClass.class.getConstructor(Integer.TYPE, Float.TYPE),
+            5, 1.0f));
+    assertEquals(5, mock.v1);
+    assertTrue(mock.usedFloatConstructor);
+    try {
+      control.createMock(ConstructorCreationTests.TestClass.class,
+          Object.class.getMethod("hashCode"));
+      fail("Partial class mock was created");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  public void testCreateControlUsesChosenConstructor() throws ClassNotFoundException,
+      IOException, CannotCompileException, NotFoundException, NoSuchMethodException {
+    compileClasses(new AndroidMockGenerator().createMocksForClass(
+        HasOverloadedConstructors.class));
+    IMocksControl control = AndroidMock.createControl();
+    HasOverloadedConstructors mock = control.createMock(HasOverloadedConstructors.class,
+        new ConstructorArgs(HasOverloadedConstructors.class.getConstructor(Object.class),
+            (Object) null));
+    assertEquals("Object", mock.constructor);
+    mock = control.createMock(HasOverloadedConstructors.class,
+        new ConstructorArgs(HasOverloadedConstructors.class.getConstructor(String.class),
+            (Object) null));
+    assertEquals("String", mock.constructor);
+  }
+
   public void testAllForwardedMethods() throws CannotCompileException, NotFoundException {
     for (CtMethod method : getForwardedMethods()) {
       MethodVerifier verifier = new MethodVerifier(method);
@@ -906,4 +1086,22 @@ public class AndroidMockTest extends TestCase {
       return methodCalled;
     }
   }
+
+  public static class ThrowsInConstructor {
+    public ThrowsInConstructor(int value) throws IOException {
+      throw new IOException("Constructor failed");
+    }
+  }
+
+  public static class HasOverloadedConstructors {
+    public String constructor;
+
+    public HasOverloadedConstructors(Object value) {
+      constructor = "Object";
+    }
+
+    public HasOverloadedConstructors(String value) {
+      constructor = "String";
+    }
+  }
 }
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.NotFoundException;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests for the {@link ClassSurface} class.
+ */
+public class ClassSurfaceTest extends TestCase {
+  private ClassPool classPool;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    classPool = new ClassPool(true);
+    classPool.insertClassPath(new ClassClassPath(getClass()));
+  }
+
+  private String getFingerprint(Class<?> clazz, String configuration) throws NotFoundException {
+    return ClassSurface.getFingerprint(classPool.get(clazz.getName()), configuration);
+  }
+
+  public void testSameClassHasSameFingerprint() throws NotFoundException {
+    String fingerprint = getFingerprint(ClassHasDelegateMethods.class, "1");
+    assertEquals(40, fingerprint.length());
+
+    ClassPool otherPool = new ClassPool(true);
+    otherPool.insertClassPath(new ClassClassPath(getClass()));
+    assertEquals(fingerprint, ClassSurface.getFingerprint(
+        otherPool.get(ClassHasDelegateMethods.class.getName()), "1"));
+  }
+
+  public void testConfigurationChangesFingerprint() throws NotFoundException {
+    assertFalse(getFingerprint(ClassHasDelegateMethods.class, "1").equals(
+        getFingerprint(ClassHasDelegateMethods.class, "2")));
+  }
+
+  public void testSurfaceChangesFingerprint() throws NotFoundException {
+    assertFalse(getFingerprint(Base.class, "1").equals(getFingerprint(Derived.class, "1")));
+    assertFalse(getFingerprint(Base.class, "1").equals(getFingerprint(SameMethods.class, "1")));
+  }
+
+  static class Base {
+    public int compute(int value) {
+      return value;
+    }
+  }
+
+  static class Derived extends Base {
+    @Override
+    public int compute(int value) {
+      return value + 1;
+    }
+  }
+
+  static class SameMethods {
+    public int compute(int value) {
+      return value;
+    }
+  }
+}
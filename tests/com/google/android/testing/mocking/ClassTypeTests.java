@@ -79,7 +79,8 @@ public class ClassTypeTests extends TestCase {
   private List<String> getExpectedNames(Class<?> clazz) {
     return new ArrayList<String>(Arrays.asList(new String[] {
         "genmocks." + clazz.getCanonicalName() + "DelegateInterface",
-        "genmocks." + clazz.getCanonicalName() + "DelegateSubclass"}));
+        "genmocks." + clazz.getCanonicalName() + "DelegateSubclass",
+        "genmocks." + clazz.getCanonicalName() + "DelegateFactory"}));
   }
 
   private Iterable<String> getMethodNames(GeneratedClassFile clazz) throws IOException {
@@ -127,7 +128,10 @@ public class ClassTypeTests extends TestCase {
     expectedMethods.put(expectedNames.get(0), new ArrayList<String>(Arrays.asList(new String[] {
         "finalize", "clone"})));
     expectedMethods.put(expectedNames.get(1), new ArrayList<String>(Arrays.asList(new String[] {
-        "finalize", "clone", "setDelegate___AndroidMock", "getDelegate___AndroidMock"})));
+        "finalize", "clone", "setDelegate___AndroidMock", "getDelegate___AndroidMock",
+        "newMock___AndroidMock"})));
+    expectedMethods.put(expectedNames.get(2), new ArrayList<String>(Arrays.asList(new String[] {
+        "newMock", "setDelegate"})));
     expectedMethods.get(expectedNames.get(0)).addAll(
         getMethodNames(clazz.getDeclaredMethods(), exclusions));
     expectedMethods.get(expectedNames.get(1)).addAll(
@@ -158,7 +162,7 @@ public class ClassTypeTests extends TestCase {
     AndroidMockGenerator mockGenerator = getAndroidMockGenerator();
     List<GeneratedClassFile> classes =
         mockGenerator.createMocksForClass(ClassHasDelegateMethods.class);
-    assertEquals(2, classes.size());
+    assertEquals(3, classes.size());
     assertAllMethodNames(expectedNames, expectedMethods, classes);
   }
 
@@ -172,7 +176,7 @@ public class ClassTypeTests extends TestCase {
     AndroidMockGenerator mockGenerator = getAndroidMockGenerator();
     List<GeneratedClassFile> classes =
         mockGenerator.createMocksForClass(ClassHasFinalMethods.class);
-    assertEquals(2, classes.size());
+    assertEquals(3, classes.size());
     assertAllMethodNames(expectedNames, expectedMethods, classes);
   }
 
@@ -181,7 +185,7 @@ public class ClassTypeTests extends TestCase {
     AndroidMockGenerator mockGenerator = getAndroidMockGenerator();
     List<GeneratedClassFile> classes =
         mockGenerator.createMocksForClass(ClassHasNoDefaultConstructor.class);
-    assertEquals(2, classes.size());
+    assertEquals(3, classes.size());
   }
 
   public void testClassHasNoPublicConstructors() throws ClassNotFoundException, IOException,
@@ -201,7 +205,7 @@ public class ClassTypeTests extends TestCase {
     AndroidMockGenerator mockGenerator = getAndroidMockGenerator();
     List<GeneratedClassFile> classes =
         mockGenerator.createMocksForClass(ClassHasOverloadedMethods.class);
-    assertEquals(2, classes.size());
+    assertEquals(3, classes.size());
     assertAllMethodNames(expectedNames, expectedMethods, classes);
   }
 
@@ -215,7 +219,7 @@ public class ClassTypeTests extends TestCase {
     AndroidMockGenerator mockGenerator = getAndroidMockGenerator();
     List<GeneratedClassFile> classes =
         mockGenerator.createMocksForClass(ClassHasStaticMethods.class);
-    assertEquals(2, classes.size());
+    assertEquals(3, classes.size());
     assertAllMethodNames(expectedNames, expectedMethods, classes);
   }
 
@@ -257,7 +261,7 @@ public class ClassTypeTests extends TestCase {
       CannotCompileException {
     AndroidMockGenerator mockGenerator = getAndroidMockGenerator();
     List<GeneratedClassFile> classes = mockGenerator.createMocksForClass(Object.class);
-    assertEquals(2, classes.size());
+    assertEquals(3, classes.size());
   }
 
   public void testClassIsPrimitive() throws ClassNotFoundException, IOException,
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+/**
+ * Support class for testing mocks generated with direct dispatch.
+ */
+public class ClassUsesDirectDispatch {
+  public int add(int first, int second) {
+    throw new IllegalStateException("I wasn't mocked!!");
+  }
+
+  public double scale(double value) {
+    throw new IllegalStateException("I wasn't mocked!!");
+  }
+
+  public String join(String prefix, long number, char separator, boolean flag) {
+    throw new IllegalStateException("I wasn't mocked!!");
+  }
+
+  public void clear() {
+    throw new IllegalStateException("I wasn't mocked!!");
+  }
+}
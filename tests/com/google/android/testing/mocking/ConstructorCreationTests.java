@@ -108,6 +108,36 @@ public class ConstructorCreationTests extends TestCase {
     }
   }
 
+  private void checkTableConstructor(ConstructorTable<TestClass> table, Object[] args,
+      Type[] expectedTypes) {
+    Type[] types = table.getConstructor(table.resolve(args)).getGenericParameterTypes();
+    assertEquals(expectedTypes.length, types.length);
+    for (int i = 0; i < expectedTypes.length; ++i) {
+      assertEquals(expectedTypes[i], types[i]);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testConstructorTableMemoizesByArgumentTypes() {
+    ConstructorTable<TestClass> table = new ConstructorTable<TestClass>(TestClass.class,
+        (Constructor<TestClass>[]) TestClass.class.getConstructors());
+    for (int i = 0; i < 2; ++i) {
+      checkTableConstructor(table, new Object[]{1, 2.0f}, new Type[]{Integer.TYPE, Float.TYPE});
+      checkTableConstructor(table, new Object[]{1, 2.0}, new Type[]{Integer.TYPE, Double.TYPE});
+      checkTableConstructor(table, new Object[]{'a'}, new Type[]{Integer.TYPE});
+      checkTableConstructor(table, new Object[]{new Foo(1)}, new Type[]{Foo.class});
+      checkTableConstructor(table, new Object[]{null}, new Type[]{Foo.class});
+      checkTableConstructor(table, new Object[]{new Foo(1), null},
+          new Type[]{Foo.class, Bar.class});
+    }
+    try {
+      table.resolve(new Object[]{new Foo(1), 2});
+      fail("A constructor was found");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
   public void testCorrectConstructor() {
     checkConstructor(
             new Object[]{new Foo(1)},
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ExceptionsAttribute;
+import javassist.bytecode.MethodInfo;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.processing.ProcessingEnvironment;
+
+/**
+ * Tests for the {@link ElementClassPath} class. Each test runs javac in this JVM, with a processor
+ * which generates mocks from javac's model of the classes.
+ */
+public class ElementClassPathTest extends TestCase {
+  /**
+   * Compiles {@code source} as the class named {@code className}, and returns the mocks
+   * generated from javac's model for each of {@code classNamesToMock}.
+   */
+  private List<List<GeneratedClassFile>> generateFromModel(String className, String source,
+      final String... classNamesToMock) throws Exception {
+    final List<List<GeneratedClassFile>> mocks = new ArrayList<List<GeneratedClassFile>>();
+    assertTrue(InMemoryCompiler.processModel(className, source,
+        new InMemoryCompiler.ModelCallback() {
+          public void process(ProcessingEnvironment processingEnv) throws Exception {
+            ClassPool classPool = new ClassPool();
+            classPool.appendClassPath(new ElementClassPath(processingEnv.getElementUtils(),
+                processingEnv.getTypeUtils()));
+            classPool.appendClassPath(new ClassClassPath(ElementClassPathTest.class));
+            classPool.appendSystemPath();
+            AndroidMockGenerator generator = new AndroidMockGenerator(classPool);
+            for (String classNameToMock : classNamesToMock) {
+              mocks.add(generator.createMocksForClass(classPool.get(classNameToMock)));
+            }
+          }
+        }));
+    return mocks;
+  }
+
+  private List<GeneratedClassFile> generateFromClassFiles(Class<?> clazz) throws Exception {
+    ClassPool classPool = new ClassPool(true);
+    classPool.insertClassPath(new ClassClassPath(getClass()));
+    return new AndroidMockGenerator(classPool).createMocksForClass(
+        classPool.get(clazz.getName()));
+  }
+
+  private List<String> describe(GeneratedClassFile generatedClass) throws IOException {
+    ClassFile classFile = new ClassFile(
+        new DataInputStream(new ByteArrayInputStream(generatedClass.getContents())));
+    List<String> descriptions = new ArrayList<String>();
+    descriptions.add(classFile.getName() + " extends " + classFile.getSuperclass()
+        + " implements " + Arrays.toString(classFile.getInterfaces()));
+    @SuppressWarnings("unchecked")
+    List<MethodInfo> methods = classFile.getMethods();
+    for (MethodInfo method : methods) {
+      ExceptionsAttribute exceptions = method.getExceptionsAttribute();
+      descriptions.add(method.getAccessFlags() + " " + method.getName() + method.getDescriptor()
+          + " throws " + (exceptions == null ? "[]" : Arrays.toString(exceptions.getExceptions())));
+    }
+    Collections.sort(descriptions.subList(1, descriptions.size()));
+    return descriptions;
+  }
+
+  private void assertSameMocks(List<GeneratedClassFile> expected,
+      List<GeneratedClassFile> actual) throws IOException {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); ++i) {
+      assertEquals(describe(expected.get(i)), describe(actual.get(i)));
+    }
+  }
+
+  public void testModelMatchesClassFiles() throws Exception {
+    Class<?>[] classes = new Class<?>[] {ClassHasOverloadedMethods.class,
+        ClassDoesWorkInConstructor.class, ClassHasNoDefaultConstructor.class,
+        ClassHasStaticMethods.class, Generic.class};
+    String[] classNames = new String[classes.length];
+    for (int i = 0; i < classes.length; ++i) {
+      classNames[i] = classes[i].getName();
+    }
+    List<List<GeneratedClassFile>> mocks =
+        generateFromModel("test.Empty", "package test; class Empty {}", classNames);
+
+    assertEquals(classes.length, mocks.size());
+    for (int i = 0; i < classes.length; ++i) {
+      assertSameMocks(generateFromClassFiles(classes[i]), mocks.get(i));
+    }
+  }
+
+  public void testMockClassFromSameCompilation() throws Exception {
+    List<List<GeneratedClassFile>> mocks = generateFromModel("test.Fresh",
+        "package test;\n"
+        + "public class Fresh extends java.util.AbstractList<String> {\n"
+        + "  public Fresh(int size) throws java.io.IOException {}\n"
+        + "  public String get(int index) { return null; }\n"
+        + "  public int size() { return 0; }\n"
+        + "  public <T extends Number> T[] convert(T[] values, int... counts) { return values; }\n"
+        + "  public final void finalMethod() {}\n"
+        + "  public static class Nested {}\n"
+        + "}\n", "test.Fresh", "test.Fresh$Nested");
+
+    List<GeneratedClassFile> freshMocks = mocks.get(0);
+    assertEquals(3, freshMocks.size());
+    List<String> interfaceMethods = describe(freshMocks.get(0));
+    assertEquals("genmocks.test.FreshDelegateInterface extends java.lang.Object implements []",
+        interfaceMethods.get(0));
+    assertTrue(interfaceMethods.toString(), interfaceMethods.contains(
+        "1025 convert([Ljava/lang/Number;[I)[Ljava/lang/Number; throws []"));
+    assertTrue(interfaceMethods.toString(),
+        interfaceMethods.contains("1025 get(I)Ljava/lang/String; throws []"));
+    assertFalse(interfaceMethods.toString(),
+        interfaceMethods.toString().contains("finalMethod"));
+    List<String> subclassMethods = describe(freshMocks.get(1));
+    assertEquals("genmocks.test.FreshDelegateSubclass extends test.Fresh implements "
+        + "[genmocks.test.FreshDelegateInterface, " + MockObject.class.getName() + "]",
+        subclassMethods.get(0));
+    assertTrue(subclassMethods.toString(),
+        subclassMethods.contains("1 <init>(I)V throws [java.io.IOException]"));
+    assertEquals(3, mocks.get(1).size());
+    assertEquals("genmocks.test.Fresh$NestedDelegateInterface", mocks.get(1).get(0).getClassName());
+  }
+
+  public static class Generic<T extends Comparable<T>> {
+    public T pick(T first, List<? extends T> rest) throws IllegalStateException {
+      return first;
+    }
+
+    protected synchronized <E extends Exception> void fail(E exception) throws E {
+      throw exception;
+    }
+  }
+}
@@ -18,6 +18,8 @@ package com.google.android.testing.mocking;
 import junit.framework.TestCase;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Vector;
 
 /**
@@ -50,6 +52,52 @@ public class FileUtilsTest extends TestCase {
         FileUtils.getSubclassNameFor(Vector.class));
   }
 
+  public void testGetFactoryNameFor() {
+    assertEquals("genmocks.java.util.VectorDelegateFactory",
+        FileUtils.getFactoryNameFor(Vector.class));
+  }
+
+  public void testSha1Hex() throws IOException {
+    assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d",
+        FileUtils.sha1Hex("abc".getBytes("UTF-8")));
+    assertEquals("da39a3ee5e6b4b0d3255bfef95601890afd80709",
+        FileUtils.sha1Hex(FileUtils.newSha1Digest()));
+  }
+
+  public void testSaveClassToFolderSkipsUnchangedFiles() throws IOException {
+    File folder = File.createTempFile("mocks", "");
+    folder.delete();
+    try {
+      GeneratedClassFile clazz =
+          new GeneratedClassFile("genmocks.a.FirstDelegateInterface", new byte[] {1, 2});
+      assertTrue(FileUtils.saveClassToFolder(clazz, folder.getPath()));
+      File classFile = new File(folder, FileUtils.getFilenameFor(clazz.getClassName()));
+      assertEquals(2, classFile.length());
+      assertTrue(classFile.setLastModified(1000000000L));
+
+      assertFalse(FileUtils.saveClassToFolder(clazz, folder.getPath()));
+      assertEquals(1000000000L, classFile.lastModified());
+
+      assertTrue(FileUtils.saveClassToFolder(
+          new GeneratedClassFile(clazz.getClassName(), new byte[] {1, 3}), folder.getPath()));
+      assertFalse(1000000000L == classFile.lastModified());
+      assertEquals(Arrays.asList(classFile.getName()),
+          Arrays.asList(classFile.getParentFile().list()));
+    } finally {
+      delete(folder);
+    }
+  }
+
+  private void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
   private String convertPathToNative(String path) {
     return path.replace('/', File.separatorChar).replace('\\', File.separatorChar);
   }
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import javassist.CannotCompileException;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ExceptionsAttribute;
+import javassist.bytecode.MethodInfo;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for the {@link GenerationSession} class.
+ */
+public class GenerationSessionTest extends TestCase {
+  public void testGeneratedClassesAreReleased() throws ClassNotFoundException, IOException,
+      CannotCompileException {
+    GenerationSession session = new GenerationSession();
+    List<GeneratedClassFile> mocks = session.createMocksForClass(ClassHasDelegateMethods.class);
+
+    assertEquals(3, mocks.size());
+    for (GeneratedClassFile mock : mocks) {
+      assertFalse(mock.getClassName(), session.isRetained(mock.getClassName()));
+    }
+    assertTrue(session.isRetained(ClassHasDelegateMethods.class.getName()));
+  }
+
+  public void testRetainedClassesAreBounded() throws ClassNotFoundException, IOException,
+      CannotCompileException {
+    GenerationSession session = new GenerationSession(2);
+    Class<?>[] classes = new Class<?>[] {ClassHasDelegateMethods.class,
+        ClassHasOverloadedMethods.class, ClassHasStaticMethods.class,
+        ClassDoesWorkInConstructor.class};
+    for (Class<?> clazz : classes) {
+      session.createMocksForClass(clazz);
+      assertTrue(session.getRetainedClassCount() <= 2);
+    }
+    assertFalse(session.isRetained(ClassHasDelegateMethods.class.getName()));
+  }
+
+  public void testMethodTablesAreBounded() throws ClassNotFoundException, IOException,
+      CannotCompileException {
+    GenerationSession session = new GenerationSession(2);
+    Class<?>[] classes = new Class<?>[] {ClassHasDelegateMethods.class,
+        ClassHasOverloadedMethods.class, ClassHasStaticMethods.class,
+        ClassDoesWorkInConstructor.class};
+    for (Class<?> clazz : classes) {
+      session.createMocksForClass(clazz.getName());
+      assertTrue(session.getMockGenerator().getMethodTableCount() <= 2);
+    }
+  }
+
+  public void testEvictedClassesAreReadAgain() throws ClassNotFoundException, IOException,
+      CannotCompileException {
+    GenerationSession session = new GenerationSession(0);
+    List<GeneratedClassFile> first = session.createMocksForClass(ClassHasDelegateMethods.class);
+    assertEquals(0, session.getRetainedClassCount());
+    List<GeneratedClassFile> second = session.createMocksForClass(ClassHasDelegateMethods.class);
+
+    assertEquals(first.size(), second.size());
+    for (int i = 0; i < first.size(); ++i) {
+      assertEquals(first.get(i).getClassName(), second.get(i).getClassName());
+      assertTrue(Arrays.equals(first.get(i).getContents(), second.get(i).getContents()));
+    }
+  }
+
+  private List<String> getMethodDescriptions(byte[] classFile) throws IOException {
+    List<String> descriptions = new ArrayList<String>();
+    @SuppressWarnings("unchecked")
+    List<MethodInfo> methods = new ClassFile(
+        new DataInputStream(new ByteArrayInputStream(classFile))).getMethods();
+    for (MethodInfo method : methods) {
+      ExceptionsAttribute exceptions = method.getExceptionsAttribute();
+      descriptions.add(method.getAccessFlags() + " " + method.getName() + method.getDescriptor()
+          + (exceptions == null ? "" : Arrays.toString(exceptions.getExceptions())));
+    }
+    Collections.sort(descriptions);
+    return descriptions;
+  }
+
+  public void testClassFileAnalysisMatchesReflection() throws ClassNotFoundException,
+      IOException, CannotCompileException {
+    Class<?>[] classes = new Class<?>[] {ClassHasOverloadedMethods.class,
+        ClassUsesDirectDispatch.class, ClassDoesWorkInConstructor.class};
+    for (Class<?> clazz : classes) {
+      List<GeneratedClassFile> fromClass = new GenerationSession().createMocksForClass(clazz);
+      List<GeneratedClassFile> fromClassFile =
+          new GenerationSession().createMocksForClass(clazz.getName());
+
+      assertEquals(fromClass.size(), fromClassFile.size());
+      for (int i = 0; i < fromClass.size(); ++i) {
+        assertEquals(fromClass.get(i).getClassName(), fromClassFile.get(i).getClassName());
+        assertEquals(fromClass.get(i).getClassName(),
+            getMethodDescriptions(fromClass.get(i).getContents()),
+            getMethodDescriptions(fromClassFile.get(i).getContents()));
+      }
+    }
+  }
+
+  public void testClassFileAnalysisDoesNotInitializeClass() throws ClassNotFoundException,
+      IOException, CannotCompileException {
+    List<GeneratedClassFile> mocks =
+        new GenerationSession().createMocksForClass(FailsToInitialize.class.getName());
+
+    assertEquals(3, mocks.size());
+    assertEquals(FileUtils.getInterfaceNameFor(FailsToInitialize.class.getName()),
+        mocks.get(0).getClassName());
+  }
+
+  public void testClassFileAnalysisOfMissingClass() throws IOException, CannotCompileException {
+    try {
+      new GenerationSession().createMocksForClass("com.example.DoesNotExist");
+      fail("Expected a ClassNotFoundException");
+    } catch (ClassNotFoundException e) {
+      // Expected.
+    }
+  }
+
+  /**
+   * Only ever referred to by name, since loading it would fail.
+   */
+  public static class FailsToInitialize {
+    static {
+      if (true) {
+        throw new IllegalStateException("Must not be initialized");
+      }
+    }
+
+    public void doWork(String value) {
+    }
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+/**
+ * Runs javac in this JVM on sources held in memory, for the tests which need javac's model of a
+ * class. The Android Mock classes and the tests are on the class path of each compilation.
+ */
+class InMemoryCompiler {
+  /**
+   * Called with javac's model of the compiled sources.
+   */
+  interface ModelCallback {
+    void process(ProcessingEnvironment processingEnv) throws Exception;
+  }
+
+  private InMemoryCompiler() {
+  }
+
+  /**
+   * Returns the class path of the Android Mock classes and of the tests, from their code sources,
+   * since {@code java.class.path} does not list them when the tests are run inside Ant.
+   */
+  static String getClassPath() {
+    Set<String> classPath = new LinkedHashSet<String>();
+    for (Class<?> clazz : new Class<?>[] {MockObject.class, InMemoryCompiler.class}) {
+      try {
+        classPath.add(new File(
+            clazz.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath());
+      } catch (URISyntaxException e) {
+        throw new IllegalStateException("Cannot find the class path of " + clazz, e);
+      }
+    }
+    StringBuilder path = new StringBuilder();
+    for (String entry : classPath) {
+      path.append(path.length() == 0 ? "" : File.pathSeparator).append(entry);
+    }
+    return path.toString();
+  }
+
+  /**
+   * Returns a source file for the class named {@code className} with the contents
+   * {@code source}.
+   */
+  static JavaFileObject getSourceFile(String className, final String source) {
+    return new SimpleJavaFileObject(URI.create("string:///"
+        + className.replace('.', '/') + JavaFileObject.Kind.SOURCE.extension),
+        JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return source;
+      }
+    };
+  }
+
+  /**
+   * Runs annotation processing, without compiling, on {@code source} as the class named
+   * {@code className}, and calls {@code callback} in the first round. Any exception thrown by
+   * {@code callback} is rethrown once javac has finished.
+   *
+   * @return true if javac reported no errors.
+   */
+  static boolean processModel(String className, String source, final ModelCallback callback)
+      throws Exception {
+    final Exception[] failure = new Exception[1];
+    AbstractProcessor processor = new AbstractProcessor() {
+      private boolean processed;
+
+      @Override
+      public Set<String> getSupportedAnnotationTypes() {
+        return Collections.singleton("*");
+      }
+
+      @Override
+      public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+      }
+
+      @Override
+      public boolean process(Set<? extends TypeElement> annotations,
+          RoundEnvironment environment) {
+        if (environment.processingOver() || processed) {
+          return false;
+        }
+        processed = true;
+        try {
+          callback.process(processingEnv);
+        } catch (Exception e) {
+          failure[0] = e;
+        }
+        return false;
+      }
+    };
+    JavaCompiler.CompilationTask task = ToolProvider.getSystemJavaCompiler().getTask(null, null,
+        null, Arrays.asList("-proc:only", "-classpath", getClassPath()), null,
+        Collections.singletonList(getSourceFile(className, source)));
+    task.setProcessors(Collections.singletonList(processor));
+    boolean succeeded = task.call();
+    if (failure[0] != null) {
+      throw failure[0];
+    }
+    return succeeded;
+  }
+
+  /**
+   * Compiles {@code sourceFiles} into {@code outputFolder} without annotation processing.
+   *
+   * @return true if javac reported no errors.
+   */
+  static boolean compile(List<JavaFileObject> sourceFiles, File outputFolder) {
+    JavaCompiler.CompilationTask task = ToolProvider.getSystemJavaCompiler().getTask(null, null,
+        null, Arrays.asList("-proc:none", "-d", outputFolder.getPath(), "-classpath",
+            getClassPath()), null, sourceFiles);
+    return task.call();
+  }
+}
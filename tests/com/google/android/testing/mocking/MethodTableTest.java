@@ -0,0 +1,164 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.NotFoundException;
+
+import junit.framework.TestCase;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for the {@link MethodTable} class.
+ */
+public class MethodTableTest extends TestCase {
+  public void testTablesAreShared() {
+    MethodTable table = MethodTable.forClass(ArrayList.class);
+    assertSame(table, MethodTable.forClass(ArrayList.class));
+
+    List<MethodTable.Entry> objectEntries =
+        Arrays.asList(MethodTable.forClass(Object.class).getEntries());
+    int inherited = 0;
+    for (MethodTable.Entry entry : table.getEntries()) {
+      if (entry.method.getDeclaringClass() == Object.class) {
+        assertTrue(entry.method.toString(), objectEntries.contains(entry));
+        inherited++;
+      }
+    }
+    assertTrue(inherited > 0);
+  }
+
+  public void testMostDerivedMethodWins() throws NoSuchMethodException {
+    List<Method> methods = Arrays.asList(MethodTable.forClass(Derived.class).getMethods());
+
+    assertTrue(methods.contains(Derived.class.getDeclaredMethod("overridden")));
+    assertFalse(methods.contains(Base.class.getDeclaredMethod("overridden")));
+    assertTrue(methods.contains(Base.class.getDeclaredMethod("inherited")));
+    assertTrue(methods.contains(Derived.class.getDeclaredMethod("inherited", int.class)));
+  }
+
+  public void testEntryDetails() throws NoSuchMethodException {
+    for (MethodTable.Entry entry : MethodTable.forClass(ClassHasDelegateMethods.class)
+        .getEntries()) {
+      Method method = entry.method;
+      assertEquals(MockClassInfo.getDescriptor(method.getParameterTypes(),
+          method.getReturnType()), entry.descriptor);
+      assertEquals(method.getExceptionTypes().length, entry.exceptionNames.length);
+      for (int i = 0; i < entry.exceptionNames.length; ++i) {
+        assertEquals(method.getExceptionTypes()[i].getName(), entry.exceptionNames[i]);
+      }
+    }
+  }
+
+  private List<String> describe(MethodTable table) {
+    List<String> descriptions = new ArrayList<String>();
+    for (MethodTable.Entry entry : table.getEntries()) {
+      descriptions.add(entry.modifiers + " " + entry.key + " " + entry.name + entry.descriptor
+          + Arrays.toString(entry.exceptionNames));
+    }
+    Collections.sort(descriptions);
+    return descriptions;
+  }
+
+  public void testExtendMatchesForClass() throws NotFoundException {
+    ClassPool classPool = new ClassPool(true);
+    classPool.insertClassPath(new ClassClassPath(getClass()));
+    MethodTable base = MethodTable.extend(
+        MethodTable.extend(null, classPool.get(Object.class.getName()).getClassFile2()),
+        classPool.get(Base.class.getName()).getClassFile2());
+    MethodTable derived =
+        MethodTable.extend(base, classPool.get(Derived.class.getName()).getClassFile2());
+
+    assertEquals(describe(MethodTable.forClass(Derived.class)), describe(derived));
+    for (MethodTable.Entry entry : derived.getEntries()) {
+      assertNull(entry.method);
+    }
+  }
+
+  private List<String> getKeys(MethodTable table) {
+    List<String> keys = new ArrayList<String>();
+    for (MethodTable.Entry entry : table.getEntries()) {
+      keys.add(entry.key);
+    }
+    return keys;
+  }
+
+  public void testEntriesAreSorted() throws NotFoundException {
+    List<String> keys = getKeys(MethodTable.forClass(HasSimilarNames.class));
+    List<String> sortedKeys = new ArrayList<String>(keys);
+    Collections.sort(sortedKeys);
+    assertEquals(sortedKeys, keys);
+
+    ClassPool classPool = new ClassPool(true);
+    classPool.insertClassPath(new ClassClassPath(getClass()));
+    MethodTable fromClassFiles = MethodTable.extend(
+        MethodTable.extend(null, classPool.get(Object.class.getName()).getClassFile2()),
+        classPool.get(HasSimilarNames.class.getName()).getClassFile2());
+    assertEquals(keys, getKeys(fromClassFiles));
+  }
+
+  public void testSortEntriesMatchesDispatcherOrder() {
+    MethodTable.Entry[] entries = MethodTable.forClass(HasSimilarNames.class).getEntries();
+    Method[] methods = new Method[entries.length];
+    for (int i = 0; i < entries.length; ++i) {
+      methods[i] = entries[i].method;
+    }
+    MockDispatcher.sortMethods(methods);
+
+    MethodTable.Entry[] sorted = MethodTable.sortEntries(entries);
+    assertEquals(methods.length, sorted.length);
+    for (int i = 0; i < sorted.length; ++i) {
+      assertEquals(methods[i], sorted[i].method);
+    }
+  }
+
+  static class Base {
+    public void overridden() {
+    }
+
+    public void inherited() {
+    }
+  }
+
+  static class Derived extends Base {
+    @Override
+    public void overridden() {
+    }
+
+    public void inherited(int value) {
+    }
+  }
+
+  static class HasSimilarNames {
+    public void get() {
+    }
+
+    public void get(int value) {
+    }
+
+    public void get$x() {
+    }
+
+    public void getX() {
+    }
+  }
+}
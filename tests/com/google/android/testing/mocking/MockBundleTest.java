@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Tests for the {@link MockBundle} and {@link MockBundleWriter} classes.
+ */
+public class MockBundleTest extends TestCase {
+  private File bundleFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    bundleFile = File.createTempFile("mocks", AndroidFrameworkMockGenerator.MOCK_BUNDLE_SUFFIX);
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    bundleFile.delete();
+    super.tearDown();
+  }
+
+  private void writeBundle() throws IOException {
+    MockBundleWriter writer = new MockBundleWriter(bundleFile);
+    writer.startLevel(3);
+    writer.write(new GeneratedClassFile("genmocks.a.FirstDelegateInterface", new byte[] {1, 2}));
+    writer.write(new GeneratedClassFile("genmocks.a.SecondDelegateInterface", new byte[] {3}));
+    writer.write(new GeneratedClassFile("genmocks.a.FirstDelegateInterface", new byte[] {4}));
+    writer.startLevel(4);
+    writer.write(new GeneratedClassFile("genmocks.a.FirstDelegateInterface", new byte[] {1, 2}));
+    writer.write(new GeneratedClassFile("genmocks.a.SecondDelegateInterface", new byte[] {5}));
+    assertEquals(3, writer.getPooledCount());
+    writer.close();
+  }
+
+  public void testIdenticalClassesArePooledOnce() throws IOException {
+    writeBundle();
+
+    ZipFile zipFile = new ZipFile(bundleFile);
+    try {
+      Set<String> entryNames = new HashSet<String>();
+      for (ZipEntry entry : Collections.list(zipFile.entries())) {
+        assertTrue(entry.getName(), entryNames.add(entry.getName()));
+      }
+      assertEquals(new HashSet<String>(Arrays.asList(MockBundle.LEVEL_PREFIX + 3,
+          MockBundle.LEVEL_PREFIX + 4,
+          MockBundle.POOL_PREFIX + MockBundle.getContentHash(new byte[] {1, 2}),
+          MockBundle.POOL_PREFIX + MockBundle.getContentHash(new byte[] {3}),
+          MockBundle.POOL_PREFIX + MockBundle.getContentHash(new byte[] {5}))), entryNames);
+    } finally {
+      zipFile.close();
+    }
+  }
+
+  public void testGetClass() throws IOException {
+    writeBundle();
+
+    MockBundle bundle = new MockBundle(bundleFile);
+    try {
+      GeneratedClassFile first = bundle.getClass(3, "genmocks.a.FirstDelegateInterface");
+      assertEquals("genmocks.a.FirstDelegateInterface", first.getClassName());
+      assertTrue(Arrays.equals(new byte[] {1, 2}, first.getContents()));
+      assertTrue(Arrays.equals(new byte[] {3},
+          bundle.getClass(3, "genmocks.a.SecondDelegateInterface").getContents()));
+      assertTrue(Arrays.equals(new byte[] {5},
+          bundle.getClass(4, "genmocks.a.SecondDelegateInterface").getContents()));
+      assertNull(bundle.getClass(4, "genmocks.a.ThirdDelegateInterface"));
+    } finally {
+      bundle.close();
+    }
+  }
+
+  public void testMissingLevel() throws IOException {
+    writeBundle();
+
+    MockBundle bundle = new MockBundle(bundleFile);
+    try {
+      bundle.getClass(5, "genmocks.a.FirstDelegateInterface");
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected
+    } finally {
+      bundle.close();
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the {@link MockCache} class.
+ */
+public class MockCacheTest extends TestCase {
+  private File cacheDir;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    cacheDir = File.createTempFile("mockcache", "");
+    cacheDir.delete();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    File[] files = cacheDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    cacheDir.delete();
+    super.tearDown();
+  }
+
+  private List<GeneratedClassFile> getMocks() {
+    return Arrays.asList(new GeneratedClassFile("genmocks.FooDelegateInterface", new byte[] {1, 2}),
+        new GeneratedClassFile("genmocks.FooDelegateSubclass", new byte[] {3, 4, 5}));
+  }
+
+  public void testPutThenGet() throws IOException {
+    MockCache cache = new MockCache(cacheDir, "config");
+    String key = cache.getKey(ClassHasDelegateMethods.class);
+    assertNull(cache.get(key));
+    cache.put(key, getMocks());
+
+    List<GeneratedClassFile> cached = new MockCache(cacheDir, "config").get(key);
+    assertEquals(2, cached.size());
+    assertEquals("genmocks.FooDelegateSubclass", cached.get(1).getClassName());
+    assertTrue(Arrays.equals(new byte[] {3, 4, 5}, cached.get(1).getContents()));
+    assertEquals(0, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  public void testHitsAndMissesAreCounted() throws IOException {
+    MockCache cache = new MockCache(cacheDir, "config");
+    String key = cache.getKey(ClassHasDelegateMethods.class);
+    cache.put(key, getMocks());
+    cache.get(key);
+    cache.get(key);
+    cache.get(cache.getKey(ClassHasOverloadedMethods.class));
+    assertEquals(2, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+
+  public void testKeyDependsOnClassAndConfiguration() throws IOException {
+    MockCache cache = new MockCache(cacheDir, "config");
+    String key = cache.getKey(ClassHasDelegateMethods.class);
+    assertEquals(key, cache.getKey(ClassHasDelegateMethods.class));
+    assertFalse(key.equals(cache.getKey(ClassHasOverloadedMethods.class)));
+    assertFalse(key.equals(
+        new MockCache(cacheDir, "other config").getKey(ClassHasDelegateMethods.class)));
+  }
+
+  public void testKeyForClassInBootClassPath() throws IOException {
+    assertNotNull(new MockCache(cacheDir, "config").getKey(Object.class));
+  }
+
+  public void testTruncatedEntryIsAMiss() throws IOException {
+    MockCache cache = new MockCache(cacheDir, "config");
+    String key = cache.getKey(ClassHasDelegateMethods.class);
+    cacheDir.mkdirs();
+    FileOutputStream output = new FileOutputStream(new File(cacheDir, key + ".mocks"));
+    output.write(new byte[] {0, 0, 0, 5, 0});
+    output.close();
+    assertNull(cache.get(key));
+
+    cache.put(key, getMocks());
+    assertEquals(2, cache.get(key).size());
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+/**
+ * Tests for the {@link MockDependencies} class.
+ */
+public class MockDependenciesTest extends TestCase {
+  private File file;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    file = File.createTempFile("mocks", ".deps");
+    file.delete();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    file.delete();
+    super.tearDown();
+  }
+
+  public void testSaveAndRead() throws IOException {
+    MockDependencies dependencies = new MockDependencies(file);
+    assertFalse(dependencies.isRequester("a.FirstTest"));
+    dependencies.setMockedClasses("a.FirstTest", new HashSet<String>(Arrays.asList("a.B", "a.C")));
+    dependencies.setMockedClasses("a.SecondTest", Collections.singleton("a.B"));
+    dependencies.save();
+
+    MockDependencies read = new MockDependencies(file);
+    assertEquals(new HashSet<String>(Arrays.asList("a.B", "a.C")),
+        read.getMockedClasses("a.FirstTest"));
+    assertEquals(new HashSet<String>(Arrays.asList("a.FirstTest", "a.SecondTest")),
+        read.getRequesters("a.B"));
+    assertEquals(Collections.singleton("a.FirstTest"), read.getRequesters("a.C"));
+    assertTrue(read.getRequesters("a.D").isEmpty());
+  }
+
+  public void testSetMockedClassesReplacesRecord() {
+    MockDependencies dependencies = new MockDependencies(file);
+    dependencies.setMockedClasses("a.FirstTest", new HashSet<String>(Arrays.asList("a.B", "a.C")));
+    dependencies.setMockedClasses("a.FirstTest", Collections.singleton("a.D"));
+    assertEquals(Collections.singleton("a.D"), dependencies.getMockedClasses("a.FirstTest"));
+    assertTrue(dependencies.getRequesters("a.B").isEmpty());
+
+    dependencies.setMockedClasses("a.FirstTest", Collections.<String>emptySet());
+    assertFalse(dependencies.isRequester("a.FirstTest"));
+    assertTrue(dependencies.getRequesters("a.D").isEmpty());
+  }
+
+  public void testMalformedLinesAreIgnored() throws IOException {
+    FileOutputStream output = new FileOutputStream(file);
+    output.write("a.FirstTest a.B\nnonsense\n\n".getBytes("UTF-8"));
+    output.close();
+
+    MockDependencies dependencies = new MockDependencies(file);
+    assertEquals(Collections.singleton("a.B"), dependencies.getMockedClasses("a.FirstTest"));
+    assertFalse(dependencies.isRequester("nonsense"));
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Tests for the {@link MockFolderWriter} class.
+ */
+public class MockFolderWriterTest extends TestCase {
+  private File folder;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    folder = File.createTempFile("mocks", "");
+    folder.delete();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    delete(folder);
+    super.tearDown();
+  }
+
+  private void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private int writeClasses(String... classNames) throws IOException {
+    MockFolderWriter writer = new MockFolderWriter(folder.getPath(), 3);
+    for (String className : classNames) {
+      writer.write(new GeneratedClassFile(className, className.getBytes("UTF-8")));
+    }
+    return writer.close();
+  }
+
+  public void testWriteClasses() throws IOException {
+    String[] classNames = new String[] {"genmocks.a.FirstDelegateInterface",
+        "genmocks.a.FirstDelegateSubclass", "genmocks.a.b.SecondDelegateInterface",
+        "genmocks.c.ThirdDelegateInterface"};
+    assertEquals(0, writeClasses(classNames));
+    for (String className : classNames) {
+      File classFile = new File(folder, FileUtils.getFilenameFor(className));
+      assertEquals(className.length(), classFile.length());
+    }
+
+    assertEquals(classNames.length, writeClasses(classNames));
+    assertEquals(3, writeClasses("genmocks.a.FirstDelegateInterface",
+        "genmocks.a.FirstDelegateSubclass", "genmocks.a.b.SecondDelegateInterface",
+        "genmocks.d.FourthDelegateInterface"));
+  }
+
+  public void testCloseReportsFailure() throws IOException {
+    assertTrue(folder.createNewFile());
+    try {
+      writeClasses("genmocks.a.FirstDelegateInterface");
+      fail("Expected an IOException");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import java.io.PrintStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Measures how long it takes to generate the mocks for every class in a jar, such as an
+ * android.jar, with one of the method generation backends.
+ *
+ * Usage: {@code MockGenerationBenchmark <jar> bytecode|source}. The jar must be on the classpath.
+ * Generated classes stay in the default ClassPool, so each backend has to be measured in its own
+ * JVM; the {@code benchmark-generation} target runs both.
+ */
+public class MockGenerationBenchmark {
+  public static void main(String[] args) throws Exception {
+    String jarName = args[0];
+    boolean emitBytecode = !"source".equals(args[1]);
+    List<Class<?>> classes = getMockableClasses(new JarFile(jarName));
+    AndroidMockGenerator mockGenerator = new AndroidMockGenerator();
+    mockGenerator.setEmitBytecode(emitBytecode);
+
+    int generatedClasses = 0;
+    int failures = 0;
+    PrintStream err = System.err;
+    // Ignore the generator's warnings about classes it cannot mock.
+    System.setErr(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+    }));
+    long start = System.nanoTime();
+    try {
+      for (Class<?> clazz : classes) {
+        try {
+          generatedClasses += mockGenerator.createMocksForClass(clazz).size();
+        } catch (Exception e) {
+          failures++;
+        } catch (LinkageError e) {
+          failures++;
+        }
+      }
+    } finally {
+      System.setErr(err);
+    }
+    long elapsedMillis = (System.nanoTime() - start) / 1000000;
+    System.out.println((emitBytecode ? "bytecode" : "source") + ": " + classes.size()
+        + " classes, " + generatedClasses + " generated classes, " + failures + " failures in "
+        + elapsedMillis + " ms");
+  }
+
+  private static List<Class<?>> getMockableClasses(JarFile jar) {
+    AndroidMockGenerator mockGenerator = new AndroidMockGenerator();
+    List<Class<?>> classes = new ArrayList<Class<?>>();
+    for (JarEntry entry : Collections.list(jar.entries())) {
+      if (!entry.getName().endsWith(".class")) {
+        continue;
+      }
+      try {
+        Class<?> clazz = Class.forName(FileUtils.getClassNameFor(entry.getName()), false,
+            MockGenerationBenchmark.class.getClassLoader());
+        if (mockGenerator.classIsSupportedType(clazz)) {
+          classes.add(clazz);
+        }
+      } catch (ClassNotFoundException e) {
+        // Not loadable on this classpath; skip it.
+      } catch (LinkageError e) {
+        // Not loadable on this classpath; skip it.
+      }
+    }
+    return classes;
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.Deflater;
+
+/**
+ * Tests for the {@link MockJarWriter} class.
+ */
+public class MockJarWriterTest extends TestCase {
+  private File jarFile;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    jarFile = File.createTempFile("mocks", ".jar");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    jarFile.delete();
+    super.tearDown();
+  }
+
+  private byte[] read(JarFile jar, String entryName) throws IOException {
+    InputStream input = jar.getInputStream(jar.getJarEntry(entryName));
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[1024];
+      int count;
+      while ((count = input.read(buffer)) != -1) {
+        bytes.write(buffer, 0, count);
+      }
+      return bytes.toByteArray();
+    } finally {
+      input.close();
+    }
+  }
+
+  public void testWriteClasses() throws IOException {
+    MockJarWriter writer = new MockJarWriter(jarFile);
+    writer.write(new GeneratedClassFile("genmocks.a.FirstDelegateInterface", new byte[] {1, 2}));
+    writer.write(new GeneratedClassFile("genmocks.a.b.SecondDelegateInterface", new byte[] {3}));
+    writer.write(new GeneratedClassFile("genmocks.a.FirstDelegateInterface", new byte[] {4}));
+    writer.close();
+
+    JarFile jar = new JarFile(jarFile);
+    try {
+      assertNotNull(jar.getManifest());
+      assertTrue(Arrays.equals(new byte[] {1, 2},
+          read(jar, "genmocks/a/FirstDelegateInterface.class")));
+      assertTrue(Arrays.equals(new byte[] {3},
+          read(jar, "genmocks/a/b/SecondDelegateInterface.class")));
+      List<String> entryNames = new ArrayList<String>();
+      for (JarEntry entry : Collections.list(jar.entries())) {
+        entryNames.add(entry.getName());
+      }
+      assertEquals(Arrays.asList("META-INF/MANIFEST.MF", "genmocks/", "genmocks/a/",
+          "genmocks/a/FirstDelegateInterface.class", "genmocks/a/b/",
+          "genmocks/a/b/SecondDelegateInterface.class", PrebuiltMockIndex.INDEX_NAME,
+          MockJarWriter.INDEX_NAME), entryNames);
+    } finally {
+      jar.close();
+    }
+  }
+
+  public void testUpdateKeepsClassesNotWrittenAgain() throws IOException {
+    MockJarWriter writer = new MockJarWriter(jarFile);
+    writer.write(new GeneratedClassFile("genmocks.a.FirstDelegateInterface", new byte[] {1, 2}));
+    writer.write(new GeneratedClassFile("genmocks.b.SecondDelegateInterface", new byte[] {3}));
+    writer.close();
+    writer = new MockJarWriter(jarFile, Deflater.DEFAULT_COMPRESSION, true);
+    writer.write(new GeneratedClassFile("genmocks.a.FirstDelegateInterface", new byte[] {4}));
+    writer.close();
+
+    JarFile jar = new JarFile(jarFile);
+    try {
+      assertTrue(Arrays.equals(new byte[] {4},
+          read(jar, "genmocks/a/FirstDelegateInterface.class")));
+      assertTrue(Arrays.equals(new byte[] {3},
+          read(jar, "genmocks/b/SecondDelegateInterface.class")));
+      assertEquals("genmocks.a.FirstDelegateInterface genmocks/a/FirstDelegateInterface.class 1\n"
+          + "genmocks.b.SecondDelegateInterface genmocks/b/SecondDelegateInterface.class 1\n",
+          new String(read(jar, PrebuiltMockIndex.INDEX_NAME), "UTF-8"));
+    } finally {
+      jar.close();
+    }
+    assertEquals(1, jarFile.getParentFile().list(new FilenameFilter() {
+      public boolean accept(File directory, String name) {
+        return name.startsWith(jarFile.getName());
+      }
+    }).length);
+  }
+
+  public void testIndexListsPackages() throws IOException {
+    MockJarWriter writer = new MockJarWriter(jarFile);
+    writer.write(new GeneratedClassFile("genmocks.b.SecondDelegateInterface", new byte[0]));
+    writer.write(new GeneratedClassFile("genmocks.a.FirstDelegateInterface", new byte[0]));
+    writer.close();
+
+    JarFile jar = new JarFile(jarFile);
+    try {
+      assertEquals("JarIndex-Version: 1.0\n\n" + jarFile.getName() + "\ngenmocks/a\ngenmocks/b\n\n",
+          new String(read(jar, MockJarWriter.INDEX_NAME), "UTF-8"));
+    } finally {
+      jar.close();
+    }
+  }
+
+  public void testClassIndexListsEntries() throws IOException {
+    MockJarWriter writer = new MockJarWriter(jarFile);
+    writer.write(new GeneratedClassFile("genmocks.a.FirstDelegateInterface", new byte[] {1, 2}));
+    writer.write(new GeneratedClassFile("genmocks.a.b.SecondDelegateInterface", new byte[] {3}));
+    writer.close();
+
+    JarFile jar = new JarFile(jarFile);
+    try {
+      assertEquals("genmocks.a.FirstDelegateInterface genmocks/a/FirstDelegateInterface.class 2\n"
+          + "genmocks.a.b.SecondDelegateInterface genmocks/a/b/SecondDelegateInterface.class 1\n",
+          new String(read(jar, PrebuiltMockIndex.INDEX_NAME), "UTF-8"));
+    } finally {
+      jar.close();
+    }
+  }
+
+  public void testCompressionLevel() throws IOException {
+    byte[] contents = new byte[10000];
+    MockJarWriter writer = new MockJarWriter(jarFile, Deflater.NO_COMPRESSION);
+    writer.write(new GeneratedClassFile("genmocks.a.FirstDelegateInterface", contents));
+    writer.close();
+    JarFile jar = new JarFile(jarFile);
+    try {
+      JarEntry entry = jar.getJarEntry("genmocks/a/FirstDelegateInterface.class");
+      assertTrue(entry.getCompressedSize() >= contents.length);
+      assertTrue(Arrays.equals(contents, read(jar, entry.getName())));
+    } finally {
+      jar.close();
+    }
+
+    writer = new MockJarWriter(jarFile, Deflater.BEST_COMPRESSION);
+    writer.write(new GeneratedClassFile("genmocks.a.FirstDelegateInterface", contents));
+    writer.close();
+    jar = new JarFile(jarFile);
+    try {
+      JarEntry entry = jar.getJarEntry("genmocks/a/FirstDelegateInterface.class");
+      assertTrue(entry.getCompressedSize() < contents.length / 10);
+      assertTrue(Arrays.equals(contents, read(jar, entry.getName())));
+    } finally {
+      jar.close();
+    }
+  }
+
+  public void testInvalidCompressionLevel() throws IOException {
+    try {
+      new MockJarWriter(jarFile, 10);
+      fail("Expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  public void testEntryTimesAreFixed() throws IOException {
+    MockJarWriter writer = new MockJarWriter(jarFile);
+    writer.write(new GeneratedClassFile("genmocks.a.FirstDelegateInterface", new byte[] {1, 2}));
+    writer.close();
+
+    JarFile jar = new JarFile(jarFile);
+    try {
+      for (JarEntry entry : Collections.list(jar.entries())) {
+        assertEquals(entry.getName(), MockJarWriter.ENTRY_TIME, entry.getTime());
+      }
+    } finally {
+      jar.close();
+    }
+  }
+}
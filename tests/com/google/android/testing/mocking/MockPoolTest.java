@@ -0,0 +1,143 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.NotFoundException;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Tests for the {@link MockPool} class.
+ */
+public class MockPoolTest extends TestCase {
+  private void compileClasses(List<GeneratedClassFile> mockClasses) throws NotFoundException {
+    for (GeneratedClassFile clazz : mockClasses) {
+      try {
+        ClassPool.getDefault().get(clazz.getClassName()).toClass();
+      } catch (CannotCompileException e) {
+        // Just ignore -- this will happen for every class used in more than one test.
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  public void testReleasedInterfaceMockIsReusedAndReset() throws Exception {
+    MockPool pool = MockPool.createPool(2);
+    Callable<String> mock = pool.acquire(Callable.class);
+    AndroidMock.expect(mock.call()).andReturn("first");
+    AndroidMock.replay(mock);
+    assertEquals("first", mock.call());
+    pool.release(mock);
+
+    Callable<String> reused = pool.acquire(Callable.class);
+    assertSame(mock, reused);
+    AndroidMock.expect(reused.call()).andReturn("second");
+    AndroidMock.replay(reused);
+    assertEquals("second", reused.call());
+    AndroidMock.verify(reused);
+    assertEquals(1, pool.getHits());
+    assertEquals(1, pool.getMisses());
+    assertEquals(0.5, pool.getHitRate(), 0.0);
+  }
+
+  public void testReleasedClassMockIsReused() throws ClassNotFoundException, IOException,
+      CannotCompileException, NotFoundException {
+    compileClasses(new AndroidMockGenerator().createMocksForClass(
+        ClassDoesWorkInConstructor.class));
+    MockPool pool = MockPool.createStrictPool(2);
+    ClassDoesWorkInConstructor mock = pool.acquire(ClassDoesWorkInConstructor.class);
+    AndroidMock.expect(mock.fooInt(1)).andReturn(2);
+    AndroidMock.replay(mock);
+    assertEquals(2, mock.fooInt(1));
+    pool.release(mock);
+
+    ClassDoesWorkInConstructor reused = pool.acquire(ClassDoesWorkInConstructor.class);
+    assertSame(mock, reused);
+    AndroidMock.expect(reused.fooInt(3)).andReturn(4);
+    AndroidMock.replay(reused);
+    assertEquals(4, reused.fooInt(3));
+    AndroidMock.verify(reused);
+  }
+
+  public void testPoolIsBounded() {
+    MockPool pool = MockPool.createNicePool(0);
+    Runnable mock = pool.acquire(Runnable.class);
+    pool.release(mock);
+    assertNotSame(mock, pool.acquire(Runnable.class));
+    assertEquals(0, pool.getHits());
+    assertEquals(2, pool.getMisses());
+    assertEquals(1, pool.getDiscards());
+  }
+
+  public void testSharedPoolIsUsedByOtherThreads() throws InterruptedException {
+    final MockPool pool = MockPool.createNicePool(8);
+    final Runnable[] mocks = new Runnable[8];
+    for (int i = 0; i < mocks.length; ++i) {
+      mocks[i] = pool.acquire(Runnable.class);
+    }
+    for (Runnable mock : mocks) {
+      pool.release(mock);
+    }
+    final Runnable[] acquired = new Runnable[1];
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        acquired[0] = pool.acquire(Runnable.class);
+      }
+    };
+    thread.start();
+    thread.join();
+    assertEquals(1, pool.getHits());
+    assertSame(mocks[7], acquired[0]);
+  }
+
+  public void testReleaseRejectsForeignMocks() {
+    MockPool pool = MockPool.createPool(1);
+    try {
+      pool.release(AndroidMock.createMock(Runnable.class));
+      fail("Released a mock which was not acquired from the pool");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  public void testReleaseRejectsDoubleRelease() {
+    MockPool pool = MockPool.createPool(8);
+    Runnable[] mocks = new Runnable[6];
+    for (int i = 0; i < mocks.length; ++i) {
+      mocks[i] = pool.acquire(Runnable.class);
+    }
+    for (Runnable mock : mocks) {
+      pool.release(mock);
+    }
+    // The first mocks fill this thread's stack; the rest are in the shared stack.
+    for (Runnable mock : new Runnable[] {mocks[0], mocks[5]}) {
+      try {
+        pool.release(mock);
+        fail("Released a mock twice");
+      } catch (IllegalStateException e) {
+        // expected
+      }
+    }
+    assertNotSame(pool.acquire(Runnable.class), pool.acquire(Runnable.class));
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaFileObject;
+
+/**
+ * Tests for the {@link MockSourceGenerator} class. Each test runs javac in this JVM, with a
+ * processor which generates mock sources from javac's model of the classes.
+ */
+public class MockSourceGeneratorTest extends TestCase {
+  private static final String FRESH_SOURCE = "package test;\n"
+      + "public class Fresh extends java.util.AbstractList<String> {\n"
+      + "  public Fresh(int size) throws java.io.IOException {}\n"
+      + "  protected Fresh(String name, long... sizes) {}\n"
+      + "  Fresh() {}\n"
+      + "  public String get(int index) { return null; }\n"
+      + "  public int size() { return 0; }\n"
+      + "  public <T extends Number> T[] convert(T[] values, int... counts) { return values; }\n"
+      + "  public final void finalMethod() {}\n"
+      + "  public void leak(Hidden hidden) {}\n"
+      + "  void packageMethod() {}\n"
+      + "  public class Inner {\n"
+      + "    public Inner(char c) {}\n"
+      + "    public char value() { return 'c'; }\n"
+      + "  }\n"
+      + "  static class Hidden {}\n"
+      + "  public static final class Closed {}\n"
+      + "  public enum Choice { ONE }\n"
+      + "  public abstract static class Sealed {\n"
+      + "    abstract void seal();\n"
+      + "  }\n"
+      + "  public abstract static class Leaky {\n"
+      + "    public abstract void leak(Hidden hidden);\n"
+      + "  }\n"
+      + "  public abstract static class Open implements Runnable {\n"
+      + "    protected abstract void open();\n"
+      + "  }\n"
+      + "}\n";
+
+  private final List<String> unsupportedReasons = new ArrayList<String>();
+  private File outputFolder;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    outputFolder = File.createTempFile("mocksources", "");
+    outputFolder.delete();
+    outputFolder.mkdir();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    delete(outputFolder);
+    super.tearDown();
+  }
+
+  private void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  /**
+   * Compiles {@code source} as the class named {@code className}, and returns the mock sources
+   * generated for each of {@code classNamesToMock}, which are binary names. The reasons that any
+   * of them cannot be mocked are added to {@link #unsupportedReasons}.
+   */
+  private List<List<MockSourceGenerator.MockSource>> generateSources(String className,
+      String source, final String... classNamesToMock) throws Exception {
+    final List<List<MockSourceGenerator.MockSource>> mocks =
+        new ArrayList<List<MockSourceGenerator.MockSource>>();
+    assertTrue(InMemoryCompiler.processModel(className, source,
+        new InMemoryCompiler.ModelCallback() {
+          public void process(ProcessingEnvironment processingEnv) {
+            MockSourceGenerator generator = new MockSourceGenerator(
+                processingEnv.getElementUtils(), processingEnv.getTypeUtils());
+            for (String classNameToMock : classNamesToMock) {
+              TypeElement type = processingEnv.getElementUtils().getTypeElement(
+                  classNameToMock.replace('$', '.'));
+              String reason = generator.getUnsupportedReason(type);
+              if (reason != null) {
+                unsupportedReasons.add(reason);
+              }
+              mocks.add(generator.createMockSources(type));
+            }
+          }
+        }));
+    return mocks;
+  }
+
+  /**
+   * Compiles {@code source} together with the generated {@code mocks}, and returns whether it
+   * compiled without errors.
+   */
+  private boolean compile(String className, String source,
+      List<MockSourceGenerator.MockSource> mocks) {
+    List<JavaFileObject> sourceFiles = new ArrayList<JavaFileObject>();
+    sourceFiles.add(InMemoryCompiler.getSourceFile(className, source));
+    for (MockSourceGenerator.MockSource mock : mocks) {
+      sourceFiles.add(InMemoryCompiler.getSourceFile(mock.getClassName(), mock.getSource()));
+    }
+    return InMemoryCompiler.compile(sourceFiles, outputFolder);
+  }
+
+  private List<String> getClassNames(List<MockSourceGenerator.MockSource> mocks) {
+    List<String> classNames = new ArrayList<String>();
+    for (MockSourceGenerator.MockSource mock : mocks) {
+      classNames.add(mock.getClassName());
+    }
+    return classNames;
+  }
+
+  public void testGeneratedSourcesCompile() throws Exception {
+    List<List<MockSourceGenerator.MockSource>> mocks =
+        generateSources("test.Fresh", FRESH_SOURCE, "test.Fresh", "test.Fresh$Inner");
+
+    assertEquals(Arrays.asList("genmocks.test.FreshDelegateInterface",
+        "genmocks.test.FreshDelegateSubclass", "genmocks.test.FreshDelegateFactory"),
+        getClassNames(mocks.get(0)));
+    assertEquals(Arrays.asList("genmocks.test.Fresh$InnerDelegateInterface",
+        "genmocks.test.Fresh$InnerDelegateSubclass", "genmocks.test.Fresh$InnerDelegateFactory"),
+        getClassNames(mocks.get(1)));
+    List<MockSourceGenerator.MockSource> allMocks =
+        new ArrayList<MockSourceGenerator.MockSource>(mocks.get(0));
+    allMocks.addAll(mocks.get(1));
+    assertTrue(compile("test.Fresh", FRESH_SOURCE, allMocks));
+  }
+
+  public void testOnlyAccessibleMethodsAreMocked() throws Exception {
+    List<MockSourceGenerator.MockSource> mocks =
+        generateSources("test.Fresh", FRESH_SOURCE, "test.Fresh").get(0);
+
+    String interfaceSource = mocks.get(0).getSource();
+    assertTrue(interfaceSource, interfaceSource.contains(
+        "java.lang.Number[] convert(java.lang.Number[] arg0, int... arg1);"));
+    assertTrue(interfaceSource, interfaceSource.contains("java.lang.String get(int arg0);"));
+    assertFalse(interfaceSource, interfaceSource.contains("finalMethod"));
+    assertFalse(interfaceSource, interfaceSource.contains("leak"));
+    assertFalse(interfaceSource, interfaceSource.contains("packageMethod"));
+    String subclassSource = mocks.get(1).getSource();
+    assertTrue(subclassSource, subclassSource.contains(
+        "public FreshDelegateSubclass(int arg0) throws java.io.IOException {"));
+    assertTrue(subclassSource, subclassSource.contains(
+        "public FreshDelegateSubclass(java.lang.String arg0, long... arg1) {"));
+    assertFalse(subclassSource, subclassSource.contains("FreshDelegateSubclass() {"));
+  }
+
+  public void testUnsupportedClasses() throws Exception {
+    List<List<MockSourceGenerator.MockSource>> mocks = generateSources("test.Fresh",
+        FRESH_SOURCE, "test.Fresh$Hidden", "test.Fresh$Closed", "test.Fresh$Choice",
+        "java.lang.Runnable", "test.Fresh$Sealed", "test.Fresh$Leaky");
+
+    for (List<MockSourceGenerator.MockSource> mock : mocks) {
+      assertTrue(mock.isEmpty());
+    }
+    String skippedAbstractMethod = "Cannot mock a class with abstract methods which are not public"
+        + " or use types which are not public";
+    assertEquals(Arrays.asList("Cannot mock a class which is not public",
+        "Cannot mock a Final class", "Cannot mock an Enum", skippedAbstractMethod,
+        skippedAbstractMethod), unsupportedReasons);
+  }
+
+  public void testAbstractMethodsAreImplemented() throws Exception {
+    List<MockSourceGenerator.MockSource> mocks =
+        generateSources("test.Fresh", FRESH_SOURCE, "test.Fresh$Open").get(0);
+
+    assertEquals(3, mocks.size());
+    assertTrue(unsupportedReasons.isEmpty());
+    assertTrue(compile("test.Fresh", FRESH_SOURCE, mocks));
+  }
+}
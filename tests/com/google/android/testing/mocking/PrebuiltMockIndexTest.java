@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+
+/**
+ * Tests for the {@link PrebuiltMockIndex} class.
+ */
+public class PrebuiltMockIndexTest extends TestCase {
+  private File firstJar;
+  private File secondJar;
+
+  @Override
+  protected void setUp() throws Exception {
+    super.setUp();
+    firstJar = File.createTempFile("mocks", ".jar");
+    secondJar = File.createTempFile("mocks", ".jar");
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    firstJar.delete();
+    secondJar.delete();
+    super.tearDown();
+  }
+
+  private void writeJar(File jarFile, GeneratedClassFile... classes) throws IOException {
+    MockJarWriter writer = new MockJarWriter(jarFile);
+    for (GeneratedClassFile clazz : classes) {
+      writer.write(clazz);
+    }
+    writer.close();
+  }
+
+  private ClassLoader getClassLoader(File... jarFiles) throws IOException {
+    URL[] urls = new URL[jarFiles.length];
+    for (int i = 0; i < jarFiles.length; ++i) {
+      urls[i] = jarFiles[i].toURI().toURL();
+    }
+    return new URLClassLoader(urls, null);
+  }
+
+  public void testGetClass() throws IOException {
+    byte[] contents = new byte[5000];
+    for (int i = 0; i < contents.length; ++i) {
+      contents[i] = (byte) i;
+    }
+    writeJar(firstJar, new GeneratedClassFile("genmocks.a.FirstDelegateSubclass", contents),
+        new GeneratedClassFile("genmocks.a.b.SecondDelegateSubclass", new byte[0]));
+    PrebuiltMockIndex index = new PrebuiltMockIndex(getClassLoader(firstJar));
+
+    assertTrue(index.contains("genmocks.a.FirstDelegateSubclass"));
+    GeneratedClassFile clazz = index.getClass("genmocks.a.FirstDelegateSubclass");
+    assertEquals("genmocks.a.FirstDelegateSubclass", clazz.getClassName());
+    assertTrue(Arrays.equals(contents, clazz.getContents()));
+    assertEquals(0, index.getClass("genmocks.a.b.SecondDelegateSubclass").getContents().length);
+    assertFalse(index.contains("genmocks.a.ThirdDelegateSubclass"));
+    assertNull(index.getClass("genmocks.a.ThirdDelegateSubclass"));
+  }
+
+  public void testEarlierJarWins() throws IOException {
+    writeJar(firstJar, new GeneratedClassFile("genmocks.a.FirstDelegateSubclass", new byte[] {1}));
+    writeJar(secondJar, new GeneratedClassFile("genmocks.a.FirstDelegateSubclass", new byte[] {2}),
+        new GeneratedClassFile("genmocks.a.SecondDelegateSubclass", new byte[] {3}));
+    PrebuiltMockIndex index = new PrebuiltMockIndex(getClassLoader(firstJar, secondJar));
+
+    assertTrue(Arrays.equals(new byte[] {1},
+        index.getClass("genmocks.a.FirstDelegateSubclass").getContents()));
+    assertTrue(Arrays.equals(new byte[] {3},
+        index.getClass("genmocks.a.SecondDelegateSubclass").getContents()));
+  }
+
+  public void testNoIndexedJars() throws IOException {
+    PrebuiltMockIndex index = new PrebuiltMockIndex(getClassLoader());
+    assertFalse(index.contains("genmocks.a.FirstDelegateSubclass"));
+    assertNull(index.getClass("genmocks.a.FirstDelegateSubclass"));
+  }
+}
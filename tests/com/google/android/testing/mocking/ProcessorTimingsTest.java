@@ -0,0 +1,88 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tests for the {@link ProcessorTimings} class.
+ */
+public class ProcessorTimingsTest extends TestCase {
+  private long startBefore(long nanos) {
+    return System.nanoTime() - nanos;
+  }
+
+  public void testClassesAreSortedSlowestFirst() {
+    ProcessorTimings timings = new ProcessorTimings();
+    timings.record(ProcessorTimings.GENERATION, "a.Fast", startBefore(1000000), 10);
+    timings.record(ProcessorTimings.GENERATION, "a.Slow", startBefore(50000000), 10);
+    timings.record(ProcessorTimings.WRITE, "a.Medium", startBefore(20000000), 10);
+    timings.record(ProcessorTimings.DISCOVERY, null, startBefore(90000000), 0);
+
+    assertEquals(Arrays.asList("a.Slow", "a.Medium", "a.Fast"), timings.getClassNames());
+  }
+
+  public void testToJson() {
+    ProcessorTimings timings = new ProcessorTimings();
+    timings.record(ProcessorTimings.DISCOVERY, null, timings.start(), 0);
+    timings.record(ProcessorTimings.GENERATION, "a.Mocked", timings.start(), 300);
+    timings.record(ProcessorTimings.WRITE, "a.Mocked", timings.start(), 100);
+    timings.record(ProcessorTimings.WRITE, "a.Mocked", timings.start(), 200);
+    timings.record(ProcessorTimings.PREBUILT_COPY, "android.\"Quoted\"", timings.start(), 50);
+
+    String json = timings.toJson();
+    assertTrue(json, json.matches("(?s)\\{\n  \"phases\": \\[\n"
+        + "    \\{\"phase\": \"discovery\", \"millis\": [0-9.]+, \"count\": 1, \"bytes\": 0\\},\n"
+        + "    \\{\"phase\": \"resolution\", \"millis\": 0.000, \"count\": 0, \"bytes\": 0\\},\n"
+        + "    \\{\"phase\": \"generation\", \"millis\": [0-9.]+, \"count\": 1, "
+        + "\"bytes\": 300\\},\n"
+        + "    \\{\"phase\": \"prebuilt_copy\", \"millis\": [0-9.]+, \"count\": 1, "
+        + "\"bytes\": 50\\},\n"
+        + "    \\{\"phase\": \"write\", \"millis\": [0-9.]+, \"count\": 2, \"bytes\": 300\\}\n"
+        + "  \\],\n  \"classes\": \\[\n.*\n  \\]\n\\}\n"));
+    assertTrue(json, json.matches("(?s).*\n    \\{\"class\": \"a.Mocked\", \"millis\": [0-9.]+, "
+        + "\"bytes\": 300, \"phases\": \\{\"generation\": \\{\"millis\": [0-9.]+, "
+        + "\"bytes\": 300\\}, \"write\": \\{\"millis\": [0-9.]+, \"bytes\": 300\\}\\}\\}.*"));
+    assertTrue(json, json.contains("{\"class\": \"android.\\\"Quoted\\\"\", "));
+  }
+
+  public void testSave() throws IOException {
+    ProcessorTimings timings = new ProcessorTimings();
+    timings.record(ProcessorTimings.GENERATION, "a.Mocked", timings.start(), 300);
+    File folder = File.createTempFile("timings", "");
+    folder.delete();
+    File report = new File(folder, "report.json");
+    try {
+      timings.save(report);
+      byte[] contents = new byte[(int) report.length()];
+      FileInputStream in = new FileInputStream(report);
+      try {
+        assertEquals(contents.length, in.read(contents));
+      } finally {
+        in.close();
+      }
+      assertEquals(timings.toJson(), new String(contents, "UTF-8"));
+    } finally {
+      report.delete();
+      folder.delete();
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.android.testing.mocking;
+
+import javassist.CannotCompileException;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tests for the {@link SurfaceCache} class.
+ */
+public class SurfaceCacheTest extends TestCase {
+  public void testUnchangedSurfaceIsReused() throws ClassNotFoundException, IOException,
+      CannotCompileException {
+    SurfaceCache cache = new SurfaceCache();
+    String className = ClassHasDelegateMethods.class.getName();
+    List<GeneratedClassFile> first = cache.getMocks(new GenerationSession(), className);
+    assertEquals(0, cache.getReusedCount());
+    assertEquals(1, cache.getRegeneratedCount());
+
+    cache.resetCounts();
+    List<GeneratedClassFile> second = cache.getMocks(new GenerationSession(), className);
+    assertSame(first, second);
+    assertEquals(1, cache.getReusedCount());
+    assertEquals(0, cache.getRegeneratedCount());
+  }
+
+  public void testDifferentSurfacesAreGenerated() throws ClassNotFoundException, IOException,
+      CannotCompileException {
+    SurfaceCache cache = new SurfaceCache();
+    GenerationSession session = new GenerationSession();
+    cache.getMocks(session, ClassHasDelegateMethods.class.getName());
+    List<GeneratedClassFile> mocks =
+        cache.getMocks(session, ClassHasOverloadedMethods.class.getName());
+
+    assertEquals(0, cache.getReusedCount());
+    assertEquals(2, cache.getRegeneratedCount());
+    String simpleName = ClassHasOverloadedMethods.class.getSimpleName();
+    assertTrue(mocks.get(0).getClassName().contains(simpleName));
+  }
+
+  public void testOnlyPreviousLevelIsKept() throws ClassNotFoundException, IOException,
+      CannotCompileException {
+    SurfaceCache cache = new SurfaceCache();
+    String className = ClassHasDelegateMethods.class.getName();
+    cache.startLevel();
+    List<GeneratedClassFile> first = cache.getMocks(new GenerationSession(), className);
+    cache.startLevel();
+    assertSame(first, cache.getMocks(new GenerationSession(), className));
+    cache.startLevel();
+    cache.getMocks(new GenerationSession(), ClassHasOverloadedMethods.class.getName());
+    cache.startLevel();
+    List<GeneratedClassFile> second = cache.getMocks(new GenerationSession(), className);
+
+    assertNotSame(first, second);
+    assertEquals(0, cache.getReusedCount());
+    assertEquals(1, cache.getRegeneratedCount());
+  }
+}
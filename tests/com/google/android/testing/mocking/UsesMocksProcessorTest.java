@@ -22,8 +22,12 @@ import junit.framework.TestCase;
 import org.easymock.EasyMock;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -48,7 +52,9 @@ import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeKind;
 import javax.lang.model.type.TypeMirror;
 import javax.lang.model.type.TypeVisitor;
+import javax.tools.FileObject;
 import javax.tools.JavaFileObject;
+import javax.tools.JavaFileManager.Location;
 
 /**
  * @author swoodward@google.com (Stephen Woodward)
@@ -214,10 +220,15 @@ public class UsesMocksProcessorTest extends TestCase {
   }
 
   private ProcessingEnvironment getMockProcessingEnvironment(Filer mockFiler) {
+    return getMockProcessingEnvironment(mockFiler, getMockOptions());
+  }
+
+  private ProcessingEnvironment getMockProcessingEnvironment(Filer mockFiler,
+      Map<String, String> options) {
     ProcessingEnvironment mockEnvironment = EasyMock.createNiceMock(ProcessingEnvironment.class);
     EasyMock.expect(mockEnvironment.getMessager()).andReturn(getMockMessager()).anyTimes();
     EasyMock.expect(mockEnvironment.getFiler()).andReturn(mockFiler).anyTimes();
-    EasyMock.expect(mockEnvironment.getOptions()).andReturn(getMockOptions()).anyTimes();
+    EasyMock.expect(mockEnvironment.getOptions()).andReturn(options).anyTimes();
     EasyMock.replay(mockEnvironment);
     return mockEnvironment;
   }
@@ -293,17 +304,29 @@ public class UsesMocksProcessorTest extends TestCase {
     List<String> expectedMocks =
         new ArrayList<String>(Arrays.asList(new String[] {
             "genmocks." + TestCase.class.getName() + "DelegateInterface",
-            "genmocks." + TestCase.class.getName() + "DelegateSubclass"}));
+            "genmocks." + TestCase.class.getName() + "DelegateSubclass",
+            "genmocks." + TestCase.class.getName() + "DelegateFactory"}));
     Set<GeneratedClassFile> mockedClasses =
         getProcessor().getClassMocks(classesToMock, true);
 
-    assertEquals(2, mockedClasses.size());
+    assertEquals(3, mockedClasses.size());
     for (GeneratedClassFile clazz : mockedClasses) {
       assertTrue(expectedMocks.contains(clazz.getClassName()));
       expectedMocks.remove(clazz.getClassName());
     }
   }
 
+  public void testGetClassMocksSkipsClassesAlreadyMocked() throws IOException,
+      CannotCompileException {
+    List<Class<?>> classesToMock = new ArrayList<Class<?>>();
+    classesToMock.add(TestCase.class);
+    classesToMock.add(TestCase.class);
+    UsesMocksProcessor processor = getProcessor();
+
+    assertEquals(3, processor.getClassMocks(classesToMock, true).size());
+    assertEquals(0, processor.getClassMocks(classesToMock, true).size());
+  }
+
   public void testWriteMocks() throws IOException, CannotCompileException {
     List<Class<?>> classesToMock = new ArrayList<Class<?>>();
     classesToMock.add(TestCase.class);
@@ -340,4 +363,161 @@ public class UsesMocksProcessorTest extends TestCase {
     assertTrue(classesList.contains(TestCase.class));
     assertTrue(classesList.contains(Map.Entry.class));
   }
+
+  public void testFindClassesToMockSkipsDuplicates() {
+    UsesMocksProcessor processor = getProcessor();
+    List<Class<?>> classesList = processor.findClassesToMock(
+        getAnnotatedElementsSet(TestCase.class, TestCase.class, Set.class));
+
+    assertEquals(2, classesList.size());
+    assertTrue(classesList.contains(Set.class));
+    assertTrue(classesList.contains(TestCase.class));
+    assertEquals(0, processor.findClassesToMock(getAnnotatedElementsSet(TestCase.class)).size());
+  }
+
+  public void testFindClassNamesToMock() {
+    Set<? extends Element> annotatedElements = getAnnotatedElementsSet(
+        Set.class, TestCase.class, Map.Entry.class);
+    List<String> classNames = getProcessor().findClassNamesToMock(annotatedElements);
+
+    assertEquals(annotatedElements.size(), classNames.size());
+    assertTrue(classNames.contains(Set.class.getName()));
+    assertTrue(classNames.contains(TestCase.class.getName()));
+    assertTrue(classNames.contains(Map.Entry.class.getName()));
+  }
+
+  public void testWriteMocksPassesOriginatingElements() throws IOException,
+      CannotCompileException {
+    final Map<String, List<Element>> originatingElements = new HashMap<String, List<Element>>();
+    final JavaFileObject mockFileObject = getMockFileObject();
+    Filer filer = new Filer() {
+      public JavaFileObject createSourceFile(CharSequence name, Element... elements) {
+        throw new UnsupportedOperationException();
+      }
+
+      public JavaFileObject createClassFile(CharSequence name, Element... elements) {
+        originatingElements.put(name.toString(), Arrays.asList(elements));
+        return mockFileObject;
+      }
+
+      public FileObject createResource(Location location, CharSequence pkg,
+          CharSequence relativeName, Element... elements) {
+        throw new UnsupportedOperationException();
+      }
+
+      public FileObject getResource(Location location, CharSequence pkg,
+          CharSequence relativeName) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    UsesMocksProcessor processor = getProcessor(getMockProcessingEnvironment(filer));
+    Set<? extends Element> annotatedElements = getAnnotatedElementsSet(TestCase.class);
+    Element requester = annotatedElements.iterator().next();
+    List<Class<?>> classesToMock = processor.findClassesToMock(annotatedElements);
+    processor.writeMocks(processor.getClassMocks(classesToMock, true));
+
+    assertEquals(3, originatingElements.size());
+    for (List<Element> elements : originatingElements.values()) {
+      assertEquals(Arrays.asList(requester), elements);
+    }
+  }
+
+  public void testWriteMocksToJar() throws IOException, CannotCompileException {
+    List<Class<?>> classesToMock = new ArrayList<Class<?>>();
+    classesToMock.add(TestCase.class);
+    Set<GeneratedClassFile> mockedClassesSet =
+        getProcessor().getClassMocks(classesToMock, true);
+    File mockJar = File.createTempFile("mocks", ".jar");
+    try {
+      Map<String, String> options = getMockOptions();
+      options.put(UsesMocksProcessor.MOCK_JAR, mockJar.getPath());
+      options.put(UsesMocksProcessor.MOCK_JAR_COMPRESSION, "0");
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      UsesMocksProcessor processor = getProcessor(getMockProcessingEnvironment(
+          getMockFiler(getMockFileObject(outputStream)), options));
+      processor.writeMocks(mockedClassesSet);
+      assertFalse(processor.process(null,
+          getMockRoundEnvironment(getAnnotatedElementsSet(), true)));
+
+      assertEquals(0, outputStream.size());
+      PrebuiltMockIndex index = new PrebuiltMockIndex(
+          new URLClassLoader(new URL[] {mockJar.toURI().toURL()}, null));
+      for (GeneratedClassFile mockClass : mockedClassesSet) {
+        assertTrue(mockClass.getClassName(), Arrays.equals(mockClass.getContents(),
+            index.getClass(mockClass.getClassName()).getContents()));
+      }
+    } finally {
+      mockJar.delete();
+    }
+  }
+
+  /**
+   * Writes the mocks of {@code classToMock} to {@code mockJar} in a compilation of its own.
+   */
+  private Set<GeneratedClassFile> writeMocksToJar(Class<?> classToMock, File mockJar)
+      throws IOException, CannotCompileException {
+    List<Class<?>> classesToMock = new ArrayList<Class<?>>();
+    classesToMock.add(classToMock);
+    Set<GeneratedClassFile> mockedClassesSet =
+        getProcessor().getClassMocks(classesToMock, false);
+    Map<String, String> options = getMockOptions();
+    options.put(UsesMocksProcessor.MOCK_JAR, mockJar.getPath());
+    UsesMocksProcessor processor = getProcessor(getMockProcessingEnvironment(
+        getMockFiler(getMockFileObject(new ByteArrayOutputStream())), options));
+    processor.writeMocks(mockedClassesSet);
+    assertFalse(processor.process(null,
+        getMockRoundEnvironment(getAnnotatedElementsSet(), true)));
+    return mockedClassesSet;
+  }
+
+  public void testWriteMocksToJarKeepsEarlierMocks() throws IOException,
+      CannotCompileException {
+    File mockJar = File.createTempFile("mocks", ".jar");
+    try {
+      Set<GeneratedClassFile> first = writeMocksToJar(ClassHasOverloadedMethods.class, mockJar);
+      Set<GeneratedClassFile> second = writeMocksToJar(ClassHasDelegateMethods.class, mockJar);
+
+      PrebuiltMockIndex index = new PrebuiltMockIndex(
+          new URLClassLoader(new URL[] {mockJar.toURI().toURL()}, null));
+      Set<GeneratedClassFile> mockedClassesSet = new HashSet<GeneratedClassFile>(first);
+      mockedClassesSet.addAll(second);
+      for (GeneratedClassFile mockClass : mockedClassesSet) {
+        assertTrue(mockClass.getClassName(), Arrays.equals(mockClass.getContents(),
+            index.getClass(mockClass.getClassName()).getContents()));
+      }
+    } finally {
+      mockJar.delete();
+    }
+  }
+
+  public void testWriteTimingReport() throws IOException {
+    File timingReport = File.createTempFile("timings", ".json");
+    File mockJar = File.createTempFile("mocks", ".jar");
+    try {
+      Map<String, String> options = getMockOptions();
+      options.put(UsesMocksProcessor.TIMING_REPORT, timingReport.getPath());
+      options.put(UsesMocksProcessor.MOCK_JAR, mockJar.getPath());
+      UsesMocksProcessor processor = getProcessor(getMockProcessingEnvironment(getMockFiler(),
+          options));
+      assertFalse(processor.process(null,
+          getMockRoundEnvironment(getAnnotatedElementsSet(ClassHasOverloadedMethods.class),
+              true)));
+
+      byte[] contents = new byte[(int) timingReport.length()];
+      FileInputStream in = new FileInputStream(timingReport);
+      try {
+        assertEquals(contents.length, in.read(contents));
+      } finally {
+        in.close();
+      }
+      String report = new String(contents, "UTF-8");
+      assertTrue(report, report.contains("{\"phase\": \"discovery\", "));
+      assertTrue(report, report.matches("(?s).*\\{\"class\": \""
+          + ClassHasOverloadedMethods.class.getName() + "\", "
+          + "[^\n]*\"resolution\": [^\n]*\"generation\": [^\n]*\"write\": .*"));
+    } finally {
+      timingReport.delete();
+      mockJar.delete();
+    }
+  }
 }